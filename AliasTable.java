@@ -0,0 +1,78 @@
+package com.apps.geo;
+
+import java.util.SplittableRandom;
+
+/**
+ * Constant-time sampling from a discrete distribution, Vose's alias method.  The table is built in linear time
+ * from the weights, then each sample takes one random column and one biased coin flip.
+ *
+ * @author geo
+ */
+public class AliasTable {
+
+    private final double[] probability;
+    private final int[] alias;
+
+    /**
+     * @param weights Relative weight of each outcome, at least one must be positive
+     */
+    public AliasTable(double[] weights)
+    {
+        int count = weights.length;
+        probability = new double[count];
+        alias = new int[count];
+
+        double total = 0;
+        for (double weight: weights)
+            total += weight;
+
+        /*
+         * Scale the weights so the average is 1, then pair each column below 1 with a column above 1
+         */
+        double[] scaled = new double[count];
+        int[] small = new int[count];
+        int[] large = new int[count];
+        int smallCount = 0;
+        int largeCount = 0;
+
+        for (int outcome = 0; outcome < count; outcome++)
+        {
+            scaled[outcome] = weights[outcome] * count / total;
+            if (scaled[outcome] < 1.0)
+                small[smallCount++] = outcome;
+            else
+                large[largeCount++] = outcome;
+        }
+
+        while (smallCount > 0 && largeCount > 0)
+        {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+
+            probability[less] = scaled[less];
+            alias[less] = more;
+
+            scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+            if (scaled[more] < 1.0)
+                small[smallCount++] = more;
+            else
+                large[largeCount++] = more;
+        }
+
+        // What is left is 1 up to rounding
+        while (largeCount > 0)
+            probability[large[--largeCount]] = 1.0;
+        while (smallCount > 0)
+            probability[small[--smallCount]] = 1.0;
+    }
+
+    /**
+     * @param random Random source
+     * @return An outcome, chosen with probability proportional to its weight
+     */
+    public int sample(SplittableRandom random)
+    {
+        int column = random.nextInt(probability.length);
+        return (random.nextDouble() < probability[column]) ? column : alias[column];
+    }
+}
@@ -0,0 +1,182 @@
+package com.apps.geo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Header-only reader for WMA and other ASF files.  The header object at the start of the file holds the file
+ * properties object, with the play duration, the content description object, with the author, and the extended
+ * content description object, with WM/Genre and WM/AlbumArtist.  The data object with the audio follows the header.
+ *
+ * ASF objects are a 16-byte GUID and a 64-bit size, all numbers are little-endian.
+ *
+ * @author geo
+ */
+public class AsfReader implements FormatReader {
+
+    static final int objectHeaderSize = 24;
+
+    // Largest header object read, the tags are in the first few kilobytes of it
+    static final int maxHeaderBytes = 1 << 20;
+
+    static final byte[] headerObject = guid("75B22630-668E-11CF-A6D9-00AA0062CE6C");
+    static final byte[] filePropertiesObject = guid("8CABDCA1-A947-11CF-8EE4-00C00C205365");
+    static final byte[] contentDescriptionObject = guid("75B22633-668E-11CF-A6D9-00AA0062CE6C");
+    static final byte[] extendedContentObject = guid("D2D0A440-E307-11D2-97F0-00A0C95EA850");
+    static final byte[] dataObject = guid("75B22636-668E-11CF-A6D9-00AA0062CE6C");
+
+    @Override
+    public List<String> extensions()
+    {
+        return List.of("wma", "asf");
+    }
+
+    @Override
+    public boolean matches(ByteBuffer head)
+    {
+        return head.limit() >= 16 && isObject(head, 0, headerObject);
+    }
+
+    @Override
+    public Id3TagReader.Tags read(FileChannel channel) throws IOException
+    {
+        long parseStart = System.nanoTime();
+        Id3TagReader.Tags tags = new Id3TagReader.Tags();
+
+        ByteBuffer start = Id3TagReader.readAt(channel, 0, objectHeaderSize + 6);
+        if (start == null || !matches(start))
+            return null;
+
+        start.order(ByteOrder.LITTLE_ENDIAN);
+        long headerSize = start.getLong(16);
+        if (headerSize < objectHeaderSize + 6)
+            return null;
+
+        ByteBuffer header = Id3TagReader.readAt(channel, 0, (int) Math.min(headerSize, Math.min(maxHeaderBytes, channel.size())));
+        if (header == null)
+            return null;
+        header.order(ByteOrder.LITTLE_ENDIAN);
+
+        /*
+         * Header object: GUID(16) size(8) object count(4) reserved(2), then the header objects
+         */
+        int position = objectHeaderSize + 6;
+        while (position + objectHeaderSize <= header.limit())
+        {
+            long size = header.getLong(position + 16);
+            if (size < objectHeaderSize || position + size > header.limit())
+                break;
+
+            int content = position + objectHeaderSize;
+            if (isObject(header, position, filePropertiesObject) && size >= objectHeaderSize + 72)
+            {
+                /*
+                 * File ID(16) file size(8) creation date(8) packet count(8) play duration(8, 100ns) send duration(8)
+                 * preroll(8, ms)
+                 */
+                long playDuration = header.getLong(content + 40);
+                long preroll = header.getLong(content + 56);
+                tags.lengthMillis = Math.max(0, playDuration / 10000 - preroll);
+            }
+            else if (isObject(header, position, contentDescriptionObject))
+            {
+                // Title, author, copyright, description and rating lengths(2 each), then the UTF-16 strings
+                int titleLength = header.getShort(content) & 0xFFFF;
+                int authorLength = header.getShort(content + 2) & 0xFFFF;
+                if (content + 10 + titleLength + authorLength <= position + size && tags.artist == null)
+                    tags.artist = text(header, content + 10 + titleLength, authorLength);
+            }
+            else if (isObject(header, position, extendedContentObject))
+            {
+                readDescriptors(header, content, (int) (position + size), tags);
+            }
+
+            position += (int) size;
+        }
+
+        /*
+         * The data object follows the header, the audio packets start after its 50-byte header
+         */
+        tags.audioStart = headerSize + 50;
+        tags.audioEnd = channel.size();
+        ByteBuffer data = Id3TagReader.readAt(channel, headerSize, objectHeaderSize);
+        if (data != null && isObject(data, 0, dataObject))
+        {
+            long dataSize = data.order(ByteOrder.LITTLE_ENDIAN).getLong(16);
+            tags.audioEnd = Math.min(channel.size(), headerSize + dataSize);
+        }
+
+        ScanMetrics.record(ScanMetrics.Stage.TAG_PARSE, parseStart);
+        return tags;
+    }
+
+    /*
+     * Extended content descriptors: count(2), then name length(2) name value type(2) value length(2) value.
+     * Only string values are read.
+     */
+    private static void readDescriptors(ByteBuffer header, int position, int end, Id3TagReader.Tags tags)
+    {
+        int count = header.getShort(position) & 0xFFFF;
+        position += 2;
+
+        for (int descriptor = 0; descriptor < count && position + 2 <= end; descriptor++)
+        {
+            int nameLength = header.getShort(position) & 0xFFFF;
+            if (position + 2 + nameLength + 4 > end)
+                return;
+
+            String name = text(header, position + 2, nameLength);
+            position += 2 + nameLength;
+
+            int valueType = header.getShort(position) & 0xFFFF;
+            int valueLength = header.getShort(position + 2) & 0xFFFF;
+            position += 4;
+            if (position + valueLength > end)
+                return;
+
+            if (valueType == 0 && name != null)
+            {
+                String value = text(header, position, valueLength);
+                switch (name) {
+                    case "WM/Genre" -> tags.genre = value;
+                    case "WM/AlbumArtist" -> tags.albumArtist = value;
+                    case "Author", "WM/Author" -> tags.artist = (tags.artist == null) ? value : tags.artist;
+                    default -> { }
+                }
+            }
+
+            position += valueLength;
+        }
+    }
+
+    private static String text(ByteBuffer buffer, int position, int length)
+    {
+        return FormatReaders.text(new String(buffer.array(), position, length, StandardCharsets.UTF_16LE));
+    }
+
+    private static boolean isObject(ByteBuffer buffer, int position, byte[] guid)
+    {
+        return Arrays.equals(buffer.array(), position, position + 16, guid, 0, 16);
+    }
+
+    /*
+     * GUIDs are stored with the first three groups little-endian and the last two as written
+     */
+    private static byte[] guid(String text)
+    {
+        String hex = text.replace("-", "");
+        byte[] written = new byte[16];
+        for (int index = 0; index < 16; index++)
+            written[index] = (byte) Integer.parseInt(hex.substring(index * 2, index * 2 + 2), 16);
+
+        return new byte[] {
+                written[3], written[2], written[1], written[0], written[5], written[4], written[7], written[6],
+                written[8], written[9], written[10], written[11], written[12], written[13], written[14], written[15]
+        };
+    }
+}
@@ -0,0 +1,152 @@
+package com.apps.geo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hash of the audio payload of a media file, the bytes between the tag blocks reported by the format reader.
+ * Two files with the same audio and different tags, such as the same rip copied into several folders and
+ * tagged differently, get the same fingerprint.
+ *
+ * The payload is read in fixed-size chunks on the channel the format reader already has open.  Each scan thread
+ * borrows a buffer and a digest from a shared pool and returns them when done, so the memory used by hashing
+ * depends on the scan limit, not on the size of the files.
+ *
+ * @author geo
+ */
+public class AudioFingerprint {
+
+    static final int bufferSize = 64 * 1024;
+    static final String algorithm = "MD5";
+
+    /*
+     * Read buffer and digest of one hashing thread.  The pool only grows to the number of files hashed at once.
+     */
+    private static class Hasher
+    {
+        final ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        final MessageDigest digest;
+
+        Hasher()
+        {
+            try
+            {
+                digest = MessageDigest.getInstance(algorithm);
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                throw new IllegalStateException(algorithm + " is not available", e);
+            }
+        }
+    }
+
+    private static final ConcurrentLinkedQueue<Hasher> hashers = new ConcurrentLinkedQueue<>();
+
+    /*
+     * Marks a file that was scanned for duplicates but has no audio the format readers can find, such as a file
+     * left to the full parse, so the catalog does not send it to be read again.  It is never put in a group.
+     */
+    static final AudioFingerprint unavailable = new AudioFingerprint(0, 0);
+
+    final long high;
+    final long low;
+
+    AudioFingerprint(long high, long low)
+    {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * Hash part of an open file.  The channel position is not used or changed.
+     * @param channel Channel of the media file
+     * @param start Offset of the first audio byte
+     * @param end Offset after the last audio byte
+     * @return The fingerprint, or null if the range is empty or runs past the end of the file
+     */
+    public static AudioFingerprint compute(FileChannel channel, long start, long end) throws IOException
+    {
+        if (start < 0 || end <= start || end > channel.size())
+            return null;
+
+        long hashStart = System.nanoTime();
+        Hasher hasher = hashers.poll();
+        if (hasher == null)
+            hasher = new Hasher();
+
+        try
+        {
+            ByteBuffer buffer = hasher.buffer;
+            MessageDigest digest = hasher.digest;
+            digest.reset();
+
+            long position = start;
+            while (position < end)
+            {
+                buffer.clear().limit((int) Math.min(bufferSize, end - position));
+                int count = channel.read(buffer, position);
+                if (count < 0)
+                    return null;
+
+                digest.update(buffer.array(), 0, count);
+                position += count;
+            }
+
+            ByteBuffer hash = ByteBuffer.wrap(digest.digest());
+            return new AudioFingerprint(hash.getLong(0), hash.getLong(8));
+        }
+        finally
+        {
+            hashers.offer(hasher);
+            ScanMetrics.record(ScanMetrics.Stage.FINGERPRINT, hashStart);
+        }
+    }
+
+    /**
+     * Fingerprint saved as text, see toString()
+     * @param text 32 hex digits, "-" for a file without one, or an empty string
+     * @return The fingerprint, or null if the text is empty or not a fingerprint
+     */
+    public static AudioFingerprint parse(String text)
+    {
+        if (text.equals("-"))
+            return unavailable;
+
+        if (text.length() != 32)
+            return null;
+
+        try
+        {
+            return new AudioFingerprint(Long.parseUnsignedLong(text.substring(0, 16), 16), Long.parseUnsignedLong(text.substring(16), 16));
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+        return other instanceof AudioFingerprint fingerprint && fingerprint.high == high && fingerprint.low == low;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Long.hashCode(high ^ low);
+    }
+
+    @Override
+    public String toString()
+    {
+        if (this == unavailable)
+            return "-";
+
+        return String.format("%016x%016x", high, low);
+    }
+}
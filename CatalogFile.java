@@ -0,0 +1,675 @@
+package com.apps.geo;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary form of the media catalog.  The file is memory-mapped and read in place: a scan looks up each media file
+ * without loading the catalog into the heap, and the category selector can show the genres, artists and folders
+ * of the last scan without scanning at all.
+ *
+ * Layout, numbers are big-endian:
+ *      header          magic, format version, CRC32C of everything after the header, and the section sizes
+ *      string index    start of each string in the string data, plus one end entry
+ *      string data     UTF-8 bytes of the folder paths, file names, tag values and category names.  Each
+ *                      distinct folder, tag value and category name is stored once.
+ *      track table     one fixed-width record per media file
+ *      path slots      open-addressing hash table of file path to track record, 0 for an empty slot
+ *      genre, artist and folder tables
+ *                      name of each category and the start of its posting list, in the order the category
+ *                      selector shows them, plus one end entry
+ *      postings        track records of each category
+ *
+ * A file with another version or a checksum that does not match is not used; the next scan parses every media
+ * file and writes the catalog again.
+ *
+ * @author geo
+ */
+public class CatalogFile {
+
+    static final int magic = 0x504C4D43;        // "PLMC"
+    static final int version = 1;
+
+    // Header fields
+    static final int headerSize = 48;
+    static final int headerMagic = 0;
+    static final int headerVersion = 4;
+    static final int headerChecksum = 8;
+    static final int headerTracks = 12;
+    static final int headerStrings = 16;
+    static final int headerStringBytes = 20;
+    static final int headerGenres = 24;
+    static final int headerArtists = 28;
+    static final int headerFolders = 32;
+    static final int headerPostings = 36;
+    static final int headerSlots = 40;
+
+    /*
+     * Track record fields.  The folder is stored with its trailing separator, so folder and name together are the
+     * file path.  Missing tag values are -1.  The fingerprint state is one of the fingerprint constants below.
+     */
+    static final int recordSize = 64;
+    static final int recordDirectory = 0;
+    static final int recordName = 4;
+    static final int recordFileSize = 8;
+    static final int recordModified = 16;
+    static final int recordDuration = 24;
+    static final int recordGenre = 28;
+    static final int recordArtist = 32;
+    static final int recordAlbumArtist = 36;
+    static final int recordFingerprintHigh = 40;
+    static final int recordFingerprintLow = 48;
+    static final int recordFingerprintState = 56;
+
+    static final int fingerprintNone = 0;
+    static final int fingerprintUnavailable = 1;
+    static final int fingerprintPresent = 2;
+
+    // Category table entries: name string and first posting
+    static final int categorySize = 8;
+
+    static final Comparator<String> categoryOrder = Comparator.comparing((String category) -> CategoryIndex.sortKey(category)).thenComparing(Comparator.naturalOrder());
+
+    private final ByteBuffer map;
+    private final int trackCount;
+    private final int stringIndex;
+    private final int stringData;
+    private final int trackTable;
+    private final int pathSlots;
+    private final int slotCount;
+    private final int postings;
+
+    final Categories genres;
+    final Categories artists;
+    final Categories folders;
+
+    private CatalogFile(Path filePath, ByteBuffer map) throws IOException
+    {
+        this.map = map;
+
+        if (map.getInt(headerMagic) != magic)
+            throw new IOException(filePath + " is not a catalog file");
+        if (map.getInt(headerVersion) != version)
+            throw new IOException(String.format("%s is catalog version %d, this version reads %d", filePath, map.getInt(headerVersion), version));
+
+        trackCount = map.getInt(headerTracks);
+        int stringCount = map.getInt(headerStrings);
+        int genreCount = map.getInt(headerGenres);
+        int artistCount = map.getInt(headerArtists);
+        int folderCount = map.getInt(headerFolders);
+        slotCount = map.getInt(headerSlots);
+
+        // The sections follow each other, so the counts give every offset and the file size
+        long[] layout = layout(trackCount, stringCount, map.getInt(headerStringBytes), slotCount, genreCount, artistCount, folderCount, map.getInt(headerPostings));
+        if (layout == null || layout[layout.length - 1] != map.capacity())
+            throw new IOException(filePath + " is truncated or its header is damaged");
+
+        // The path slots are a power of two and always have an empty slot, so a lookup ends
+        if (Integer.bitCount(slotCount) != 1 || slotCount <= trackCount)
+            throw new IOException(filePath + " has a damaged header");
+
+        CRC32C checksum = new CRC32C();
+        checksum.update(map.slice(headerSize, map.capacity() - headerSize));
+        if ((int) checksum.getValue() != map.getInt(headerChecksum))
+            throw new IOException(filePath + " is damaged, its checksum does not match");
+
+        stringIndex = (int) layout[0];
+        stringData = (int) layout[1];
+        trackTable = (int) layout[2];
+        pathSlots = (int) layout[3];
+        genres = new Categories((int) layout[4], genreCount);
+        artists = new Categories((int) layout[5], artistCount);
+        folders = new Categories((int) layout[6], folderCount);
+        postings = (int) layout[7];
+    }
+
+    /*
+     * Offsets of the sections after the header, and the file size last.  Null if a count is negative.
+     */
+    private static long[] layout(int tracks, int strings, int stringBytes, int slots, int genres, int artists, int folders, int postingCount)
+    {
+        if (tracks < 0 || strings < 0 || stringBytes < 0 || slots < 0 || genres < 0 || artists < 0 || folders < 0 || postingCount < 0)
+            return null;
+
+        long[] layout = new long[9];
+        layout[0] = headerSize;
+        layout[1] = layout[0] + (strings + 1L) * Integer.BYTES;
+        layout[2] = layout[1] + stringBytes;
+        layout[3] = layout[2] + (long) tracks * recordSize;
+        layout[4] = layout[3] + (long) slots * Integer.BYTES;
+        layout[5] = layout[4] + (genres + 1L) * categorySize;
+        layout[6] = layout[5] + (artists + 1L) * categorySize;
+        layout[7] = layout[6] + (folders + 1L) * categorySize;
+        layout[8] = layout[7] + (long) postingCount * Integer.BYTES;
+
+        return layout;
+    }
+
+    /**
+     * Map a catalog file and check it
+     * @param filePath Path to the catalog file
+     * @return The mapped catalog
+     * @throws IOException If the file cannot be read, or is not a catalog of this version, or is damaged
+     */
+    public static CatalogFile open(Path filePath) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            if (size < headerSize || size > Integer.MAX_VALUE)
+                throw new IOException(filePath + " is not a catalog file");
+
+            // The mapping stays valid once the channel is closed
+            return new CatalogFile(filePath, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    public int tracks()
+    {
+        return trackCount;
+    }
+
+    /*
+     * String from the string table, null for -1
+     */
+    private String string(int stringId)
+    {
+        if (stringId < 0)
+            return null;
+
+        int start = stringStart(stringId);
+        byte[] bytes = new byte[stringStart(stringId + 1) - start];
+        map.get(stringData + start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int stringStart(int stringId)
+    {
+        return map.getInt(stringIndex + stringId * Integer.BYTES);
+    }
+
+    /*
+     * Whether the bytes of a string are in a byte array at an offset
+     */
+    private boolean stringAt(int stringId, byte[] bytes, int offset)
+    {
+        int start = stringStart(stringId);
+        int end = stringStart(stringId + 1);
+        if (offset + end - start > bytes.length)
+            return false;
+
+        for (int index = start; index < end; index++)
+        {
+            if (map.get(stringData + index) != bytes[offset++])
+                return false;
+        }
+        return true;
+    }
+
+    private int field(int record, int offset)
+    {
+        return map.getInt(trackTable + record * recordSize + offset);
+    }
+
+    /**
+     * Find the record of a media file
+     * @param filePath Path to the media file, as found by the scan
+     * @return The record number, or -1 if the file is not in the catalog
+     */
+    public int find(String filePath)
+    {
+        // Paths are compared as UTF-8 bytes in the string data, nothing is decoded
+        byte[] pathBytes = filePath.getBytes(StandardCharsets.UTF_8);
+
+        for (int slot = slotOf(filePath, slotCount); ; slot = (slot + 1) & (slotCount - 1))
+        {
+            int record = map.getInt(pathSlots + slot * Integer.BYTES) - 1;
+            if (record < 0)
+                return -1;
+
+            int directoryId = field(record, recordDirectory);
+            int nameId = field(record, recordName);
+            int directoryLength = stringStart(directoryId + 1) - stringStart(directoryId);
+            int nameLength = stringStart(nameId + 1) - stringStart(nameId);
+
+            if (directoryLength + nameLength == pathBytes.length && stringAt(nameId, pathBytes, directoryLength) && stringAt(directoryId, pathBytes, 0))
+                return record;
+        }
+    }
+
+    private static int slotOf(String filePath, int slots)
+    {
+        int hash = filePath.hashCode();
+        return (hash ^ (hash >>> 16)) & (slots - 1);
+    }
+
+    /**
+     * Saved properties of a media file, with the tag values added to the tag dictionaries
+     * @param record Record number
+     * @return The catalog entry
+     */
+    public MediaCatalog.Entry entry(int record)
+    {
+        int base = trackTable + record * recordSize;
+
+        return new MediaCatalog.Entry(map.getLong(base + recordFileSize), map.getLong(base + recordModified), map.getInt(base + recordDuration),
+                string(map.getInt(base + recordGenre)), string(map.getInt(base + recordArtist)), string(map.getInt(base + recordAlbumArtist)), fingerprint(record));
+    }
+
+    /**
+     * @param record Record number
+     * @return Fingerprint of the audio, null if the file was not fingerprinted
+     */
+    public AudioFingerprint fingerprint(int record)
+    {
+        int base = trackTable + record * recordSize;
+
+        return switch (map.getInt(base + recordFingerprintState)) {
+            case fingerprintPresent -> new AudioFingerprint(map.getLong(base + recordFingerprintHigh), map.getLong(base + recordFingerprintLow));
+            case fingerprintUnavailable -> AudioFingerprint.unavailable;
+            default -> null;
+        };
+    }
+
+    /**
+     * Categories of one category map, read in place.  The category numbers are the same as the ones a
+     * CategoryIndex built from the map at the end of the scan would give.
+     */
+    class Categories extends CategoryIndex
+    {
+        private final int table;
+        private final int count;
+
+        Categories(int table, int count)
+        {
+            super(List.of());
+            this.table = table;
+            this.count = count;
+        }
+
+        @Override
+        public int size()
+        {
+            return count;
+        }
+
+        @Override
+        public String get(int number)
+        {
+            return string(map.getInt(table + (number - 1) * categorySize));
+        }
+
+        @Override
+        String sortKey(int position)
+        {
+            return CategoryIndex.sortKey(get(position + 1));
+        }
+
+        /**
+         * Track records of a category
+         * @param category Category value
+         * @return The record numbers, empty if the category is not in the catalog
+         */
+        int[] records(String category)
+        {
+            String key = CategoryIndex.sortKey(category);
+
+            for (int position = firstAtLeast(key); position < count && sortKey(position).equals(key); position++)
+            {
+                int entry = table + position * categorySize;
+                if (!get(position + 1).equals(category))
+                    continue;
+
+                int start = map.getInt(entry + Integer.BYTES);
+                int end = map.getInt(entry + categorySize + Integer.BYTES);
+
+                int[] records = new int[end - start];
+                for (int index = 0; index < records.length; index++)
+                    records[index] = map.getInt(postings + (start + index) * Integer.BYTES);
+                return records;
+            }
+
+            return new int[0];
+        }
+    }
+
+    /**
+     * Write a playlist from the catalog, in the same form as PlaylistBuilder.fileWriter() writes it after a scan.
+     * When duplicates are collapsed, a track is written once and so is a fingerprint.
+     * @param categoryArray Category values to include
+     * @param categories Categories the values are taken from
+     * @param playlistWriter Write object connected to the new output file
+     * @param playlistFile Name of the playlist file
+     * @param pathPrefix "." or "..", see PlaylistBuilder.pathPrefix()
+     */
+    public boolean writePlaylist(List<String> categoryArray, Categories categories, PlaylistWriter playlistWriter, String playlistFile, String pathPrefix)
+    {
+        String rootPrefix = pathPrefix.equals(".") ? pathPrefix : pathPrefix + "/" + PlaylistBuilder.mediaRootName;
+        String mediaRoot = PlaylistBuilder.mediaRootPath.endsWith(File.separator) ? PlaylistBuilder.mediaRootPath : PlaylistBuilder.mediaRootPath + File.separator;
+        Map<Integer, String> relativeDirs = new HashMap<>();
+
+        BitSet writtenRecords = PlaylistBuilder.collapseDuplicates ? new BitSet(trackCount) : null;
+        Set<AudioFingerprint> writtenAudio = PlaylistBuilder.collapseDuplicates ? new HashSet<>() : null;
+
+        System.out.printf("Added to playlist %s: %n", playlistFile);
+        try
+        {
+            for (String entry: categoryArray)
+            {
+                int[] records = categories.records(entry);
+                System.out.printf("\t%s (%d)%n", entry, records.length);
+
+                for (int record: records)
+                {
+                    if (writtenRecords != null)
+                    {
+                        if (writtenRecords.get(record))
+                            continue;
+                        writtenRecords.set(record);
+
+                        AudioFingerprint fingerprint = fingerprint(record);
+                        if (fingerprint != null && fingerprint != AudioFingerprint.unavailable && !writtenAudio.add(fingerprint))
+                            continue;
+                    }
+
+                    long writeStart = System.nanoTime();
+                    int directoryId = field(record, recordDirectory);
+                    String mp3FileName = string(field(record, recordName));
+
+                    playlistWriter.newLine();
+                    playlistWriter.newLine();
+                    playlistWriter.write("#EXTINF:");
+                    playlistWriter.write(field(record, recordDuration));
+                    playlistWriter.write(',');
+                    playlistWriter.write(mp3FileName.substring(0, mp3FileName.length() - FormatReaders.extensionLength(mp3FileName)));
+                    playlistWriter.newLine();
+
+                    /*
+                     * Folders below the media root are written relative to it, as fileWriter() does.  An empty
+                     * relative folder marks a folder outside the media root.
+                     */
+                    String relativeDir = relativeDirs.computeIfAbsent(directoryId, id -> {
+                        String directory = string(id);
+                        if (!directory.startsWith(mediaRoot))
+                            return "";
+
+                        String below = directory.substring(mediaRoot.length(), Math.max(mediaRoot.length(), directory.length() - 1));
+                        return below.isEmpty() ? rootPrefix : rootPrefix + "/" + below.replace(File.separatorChar, '/');
+                    });
+
+                    if (!relativeDir.isEmpty())
+                    {
+                        playlistWriter.write(relativeDir);
+                        playlistWriter.write('/');
+                        playlistWriter.write(mp3FileName);
+                    }
+                    else
+                    {
+                        playlistWriter.write(PlaylistBuilder.canonicalRelativePath(string(directoryId) + mp3FileName, pathPrefix));
+                    }
+
+                    ScanMetrics.record(ScanMetrics.Stage.PLAYLIST_WRITE, writeStart);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("Cannot write to playlist file: " + playlistFile);
+            e.printStackTrace();
+            return false;
+        }
+
+        return true;
+    }
+
+    /*
+     * Strings of the file being written, numbered in the order they are added and encoded once
+     */
+    private static class StringTable
+    {
+        final Map<String, Integer> ids = new HashMap<>();
+        final List<byte[]> encoded = new ArrayList<>();
+        int bytes = 0;
+
+        /*
+         * Add a string once, later adds of the same value return its ID
+         */
+        int add(String value)
+        {
+            if (value == null)
+                return -1;
+
+            Integer id = ids.get(value);
+            if (id == null)
+            {
+                id = append(value);
+                ids.put(value, id);
+            }
+            return id;
+        }
+
+        /*
+         * Add a string that is not shared, such as a file name
+         */
+        int append(String value)
+        {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            encoded.add(utf8);
+            bytes += utf8.length;
+            return encoded.size() - 1;
+        }
+    }
+
+    /**
+     * Write a catalog file from the catalog entries and the category maps.  Files are recorded in track table
+     * order, so the posting lists are the category maps' track lists.  Entries of files that are no longer in the
+     * track table, and tracks that have no entry, are written without categories.
+     * @param filePath Path of the new file
+     * @param entries Catalog entries by file path
+     */
+    public static void write(Path filePath, Map<String, MediaCatalog.Entry> entries) throws IOException
+    {
+        /*
+         * Record number of each file, and of each track.  Tracks of the same file share its entry.
+         */
+        Map<MediaCatalog.Entry, Integer> records = new IdentityHashMap<>();
+        List<String> recordPaths = new ArrayList<>();
+        List<MediaCatalog.Entry> recordEntries = new ArrayList<>();
+        int[] trackRecords = new int[PlaylistBuilder.tracks.size()];
+
+        for (int trackId = 0; trackId < trackRecords.length; trackId++)
+        {
+            String path = PlaylistBuilder.tracks.path(trackId);
+            MediaCatalog.Entry entry = entries.get(path);
+
+            trackRecords[trackId] = (entry == null) ? -1 : records.computeIfAbsent(entry, key -> {
+                recordPaths.add(path);
+                recordEntries.add(key);
+                return recordEntries.size() - 1;
+            });
+        }
+
+        if (records.size() < entries.size())
+        {
+            for (Map.Entry<String, MediaCatalog.Entry> mapEntry: entries.entrySet())
+            {
+                if (records.putIfAbsent(mapEntry.getValue(), recordEntries.size()) == null)
+                {
+                    recordPaths.add(mapEntry.getKey());
+                    recordEntries.add(mapEntry.getValue());
+                }
+            }
+        }
+
+        /*
+         * Strings of each record: folder, name, genre, artist and album artist.  Then the category names and
+         * posting lists.  Records of the same folder mostly follow each other, so the last folder is reused.
+         */
+        StringTable strings = new StringTable();
+        int[] recordStrings = new int[recordPaths.size() * 5];
+        String lastDirectory = null;
+        int lastDirectoryId = -1;
+
+        for (int record = 0; record < recordPaths.size(); record++)
+        {
+            String path = recordPaths.get(record);
+            int nameStart = path.lastIndexOf(File.separatorChar) + 1;
+            MediaCatalog.Entry entry = recordEntries.get(record);
+
+            if (lastDirectory == null || nameStart != lastDirectory.length() || !path.startsWith(lastDirectory))
+            {
+                lastDirectory = path.substring(0, nameStart);
+                lastDirectoryId = strings.add(lastDirectory);
+            }
+
+            recordStrings[record * 5] = lastDirectoryId;
+            recordStrings[record * 5 + 1] = strings.append(path.substring(nameStart));
+            recordStrings[record * 5 + 2] = strings.add(entry.genre());
+            recordStrings[record * 5 + 3] = strings.add(entry.artist());
+            recordStrings[record * 5 + 4] = strings.add(entry.albumArtist());
+        }
+
+        List<List<String>> categoryNames = new ArrayList<>();
+        List<int[]> categoryRecords = new ArrayList<>();
+        int postingCount = 0;
+
+        for (Map<String, IntList> categoryMap: List.of(PlaylistBuilder.genreMap, PlaylistBuilder.artistMap, PlaylistBuilder.folderMap))
+        {
+            List<String> names = new ArrayList<>(categoryMap.keySet());
+            names.sort(categoryOrder);
+            categoryNames.add(names);
+
+            for (String name: names)
+            {
+                strings.add(name);
+
+                int[] categoryTracks = PlaylistBuilder.trackIds(categoryMap, name);
+                int recordCount = 0;
+                for (int trackId: categoryTracks)
+                {
+                    if (trackId < trackRecords.length && trackRecords[trackId] >= 0)
+                        categoryTracks[recordCount++] = trackRecords[trackId];
+                }
+
+                categoryRecords.add(Arrays.copyOf(categoryTracks, recordCount));
+                postingCount += recordCount;
+            }
+        }
+
+        /*
+         * Path slots, at most half full
+         */
+        int slotCount = 2;
+        while (slotCount < recordPaths.size() * 2)
+            slotCount <<= 1;
+
+        int[] slots = new int[slotCount];
+        for (int record = 0; record < recordPaths.size(); record++)
+        {
+            int slot = slotOf(recordPaths.get(record), slotCount);
+            while (slots[slot] != 0)
+                slot = (slot + 1) & (slotCount - 1);
+            slots[slot] = record + 1;
+        }
+
+        /*
+         * The body is written after the header space, and the header last, once the checksum is known
+         */
+        CRC32C checksum = new CRC32C();
+
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            channel.position(headerSize);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(Channels.newOutputStream(channel), checksum), 64 * 1024));
+
+            int stringStart = 0;
+            for (byte[] utf8: strings.encoded)
+            {
+                out.writeInt(stringStart);
+                stringStart += utf8.length;
+            }
+            out.writeInt(stringStart);
+
+            for (byte[] utf8: strings.encoded)
+                out.write(utf8);
+
+            for (int record = 0; record < recordEntries.size(); record++)
+            {
+                MediaCatalog.Entry entry = recordEntries.get(record);
+                AudioFingerprint fingerprint = entry.fingerprint;
+
+                out.writeInt(recordStrings[record * 5]);
+                out.writeInt(recordStrings[record * 5 + 1]);
+                out.writeLong(entry.size);
+                out.writeLong(entry.modified);
+                out.writeInt(entry.duration);
+                out.writeInt(recordStrings[record * 5 + 2]);
+                out.writeInt(recordStrings[record * 5 + 3]);
+                out.writeInt(recordStrings[record * 5 + 4]);
+                out.writeLong((fingerprint == null) ? 0 : fingerprint.high);
+                out.writeLong((fingerprint == null) ? 0 : fingerprint.low);
+                out.writeInt((fingerprint == null) ? fingerprintNone : (fingerprint == AudioFingerprint.unavailable) ? fingerprintUnavailable : fingerprintPresent);
+                out.writeInt(0);
+            }
+
+            for (int slot: slots)
+                out.writeInt(slot);
+
+            int category = 0;
+            int postingStart = 0;
+            for (List<String> names: categoryNames)
+            {
+                for (String name: names)
+                {
+                    out.writeInt(strings.ids.get(name));
+                    out.writeInt(postingStart);
+                    postingStart += categoryRecords.get(category++).length;
+                }
+                out.writeInt(-1);
+                out.writeInt(postingStart);
+            }
+
+            for (int[] recordList: categoryRecords)
+            {
+                for (int record: recordList)
+                    out.writeInt(record);
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(headerSize);
+            header.putInt(headerMagic, magic);
+            header.putInt(headerVersion, version);
+            header.putInt(headerChecksum, (int) checksum.getValue());
+            header.putInt(headerTracks, recordPaths.size());
+            header.putInt(headerStrings, strings.encoded.size());
+            header.putInt(headerStringBytes, strings.bytes);
+            header.putInt(headerGenres, categoryNames.get(0).size());
+            header.putInt(headerArtists, categoryNames.get(1).size());
+            header.putInt(headerFolders, categoryNames.get(2).size());
+            header.putInt(headerPostings, postingCount);
+            header.putInt(headerSlots, slotCount);
+
+            channel.write(header, 0);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.apps.geo;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Sorted snapshot of the values of one category map, for the category selector.  Values are ordered by their
+ * display name without case, so the values that start with a prefix are one range found by binary search.
+ * A value's number is its position in the snapshot, the same whichever prefix is shown.
+ *
+ * The searches only go through size(), get() and sortKey(), so an index kept outside the heap, such as the
+ * categories of a mapped CatalogFile, overrides those three.
+ *
+ * @author geo
+ */
+public class CategoryIndex {
+
+    static final CategoryIndex empty = new CategoryIndex(List.of());
+
+    // Category values, and the lower case display names they are sorted by
+    private final String[] values;
+    private final String[] sortKeys;
+
+    /**
+     * @param categories Category values.  Folder paths are shown and matched by the folder name.
+     */
+    public CategoryIndex(Collection<String> categories)
+    {
+        String[][] entries = new String[categories.size()][];
+        int index = 0;
+        for (String category: categories)
+            entries[index++] = new String[] {sortKey(category), category};
+
+        Arrays.sort(entries, Comparator.<String[], String>comparing(entry -> entry[0]).thenComparing(entry -> entry[1]));
+
+        values = new String[entries.length];
+        sortKeys = new String[entries.length];
+        for (index = 0; index < entries.length; index++)
+        {
+            sortKeys[index] = entries[index][0];
+            values[index] = entries[index][1];
+        }
+    }
+
+    /**
+     * Name shown for a category value, the folder name for a folder path
+     * @param category Category value
+     * @return The name
+     */
+    static String displayName(String category)
+    {
+        return (category.contains(File.separator)) ? new File(category).getName() : category;
+    }
+
+    /**
+     * Key a category value is sorted by, its display name without case.  Values with the same key are
+     * ordered by the value itself.
+     * @param category Category value
+     * @return The key
+     */
+    static String sortKey(String category)
+    {
+        return displayName(category).toLowerCase(Locale.ROOT);
+    }
+
+    public int size()
+    {
+        return values.length;
+    }
+
+    /**
+     * @param position Category number minus one
+     * @return Sort key of the category
+     */
+    String sortKey(int position)
+    {
+        return sortKeys[position];
+    }
+
+    /**
+     * @param number Category number, starting at 1
+     * @return The category value
+     */
+    public String get(int number)
+    {
+        return values[number - 1];
+    }
+
+    /**
+     * Range of category numbers whose display name starts with a prefix, without case
+     * @param prefix Prefix, empty for every category
+     * @return First number and the number after the last one.  The range is empty if nothing matches.
+     */
+    public int[] prefixRange(String prefix)
+    {
+        String key = prefix.toLowerCase(Locale.ROOT);
+        if (key.isEmpty())
+            return new int[] {1, size() + 1};
+
+        // Every key that starts with the prefix sorts before the prefix followed by the highest character
+        int first = firstAtLeast(key);
+        int end = firstAtLeast(key + Character.MAX_VALUE);
+
+        return new int[] {first + 1, end + 1};
+    }
+
+    /**
+     * Range of category numbers with a display name, without case.  Folders in different places often have the
+     * same name, so the range can hold more than one category.
+     * @param name Display name
+     * @return First number and the number after the last one.  The range is empty if no category has the name.
+     */
+    public int[] nameRange(String name)
+    {
+        String key = name.toLowerCase(Locale.ROOT);
+
+        // The key followed by the lowest character sorts after the key itself and before every longer key
+        int first = firstAtLeast(key);
+        int end = firstAtLeast(key + Character.MIN_VALUE);
+
+        return new int[] {first + 1, end + 1};
+    }
+
+    int firstAtLeast(String key)
+    {
+        int low = 0;
+        int high = size();
+
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (sortKey(middle).compareTo(key) < 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        return low;
+    }
+}
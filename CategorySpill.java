@@ -0,0 +1,246 @@
+package com.apps.geo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.ToIntFunction;
+
+/**
+ * Track lists of one category map kept on disk, for libraries whose category maps do not fit in the heap.
+ * The category map then only holds the category names, and the tracks of a category are read from here.
+ *
+ * During the scan each (category, track) pair is a record in a fixed-size buffer.  A full buffer is sorted and
+ * written to a temporary file as a run.  Once the scan is complete, finish() merges the runs in one streaming pass
+ * into a file of track IDs grouped by category, and keeps the start of each category.  Heap use is the buffer, one
+ * read buffer per run during the merge, and one long per category.
+ *
+ * Categories are numbered by the caller with IDs that do not change during the scan: canonical IDs of the tag
+ * dictionaries, or folder IDs of the track table.  Within a category the tracks are in track ID order.
+ *
+ * Record layout: category ID in the high 32 bits and track ID in the low 32 bits, so sorting the records sorts
+ * by category and then by track.
+ *
+ * @author geo
+ */
+public class CategorySpill {
+
+    static final int minRecords = 1024;
+    static final int streamBufferSize = 64 * 1024;
+
+    private final String label;
+    private final Path directory;
+    private final ToIntFunction<String> categoryIds;
+
+    private long[] buffer;
+    private int buffered = 0;
+    private int maxCategory = -1;
+    private final List<Path> runs = new ArrayList<>();
+
+    // Set by finish(): track IDs grouped by category, and the first record of each category plus one end entry
+    private FileChannel merged;
+    private long[] starts = new long[1];
+
+    /**
+     * @param label Name used for the temporary files, such as "genre"
+     * @param directory Folder for the temporary files
+     * @param bufferBytes Heap used for records waiting to be written
+     * @param categoryIds Category name to category ID, -1 if the name is not known
+     */
+    public CategorySpill(String label, Path directory, long bufferBytes, ToIntFunction<String> categoryIds)
+    {
+        this.label = label;
+        this.directory = directory;
+        this.categoryIds = categoryIds;
+        buffer = new long[(int) Math.max(minRecords, Math.min(bufferBytes / Long.BYTES, Integer.MAX_VALUE - 8))];
+    }
+
+    /**
+     * Add a track to a category.  A full buffer is written out before this returns.
+     * @param categoryId Category ID, not negative
+     * @param trackId Track ID
+     */
+    public synchronized void add(int categoryId, int trackId)
+    {
+        if (buffer == null)
+            throw new IllegalStateException("Category spill " + label + " is finished");
+
+        buffer[buffered++] = ((long) categoryId << 32) | trackId;
+        maxCategory = Math.max(maxCategory, categoryId);
+
+        if (buffered == buffer.length)
+            writeRun();
+    }
+
+    /*
+     * Sort the buffered records and write them as the next run
+     */
+    private void writeRun()
+    {
+        Arrays.sort(buffer, 0, buffered);
+        Path run = directory.resolve(String.format("%s-run-%d", label, runs.size()));
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), streamBufferSize)))
+        {
+            for (int record = 0; record < buffered; record++)
+                out.writeLong(buffer[record]);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("Category spill " + run + " could not be written", e);
+        }
+
+        runs.add(run);
+        buffered = 0;
+    }
+
+    /**
+     * Merge the runs into the category file.  Called once, after the scan is complete.
+     */
+    public synchronized void finish() throws IOException
+    {
+        if (buffer == null)
+            return;
+
+        if (buffered > 0)
+            writeRun();
+        buffer = null;
+
+        /*
+         * One cursor per run, the smallest current record is taken next.  Ties keep the run order.
+         */
+        PriorityQueue<RunCursor> cursors = new PriorityQueue<>();
+        for (int run = 0; run < runs.size(); run++)
+        {
+            RunCursor cursor = new RunCursor(runs.get(run), run);
+            if (cursor.next())
+                cursors.add(cursor);
+        }
+
+        long[] counts = new long[maxCategory + 2];
+        Path mergedPath = directory.resolve(label + "-tracks");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(mergedPath), streamBufferSize)))
+        {
+            while (!cursors.isEmpty())
+            {
+                RunCursor cursor = cursors.poll();
+                out.writeInt((int) cursor.record);
+                counts[(int) (cursor.record >>> 32) + 1]++;
+
+                if (cursor.next())
+                    cursors.add(cursor);
+            }
+        }
+
+        for (Path run: runs)
+            Files.deleteIfExists(run);
+        runs.clear();
+
+        for (int category = 1; category < counts.length; category++)
+            counts[category] += counts[category - 1];
+
+        starts = counts;
+        merged = FileChannel.open(mergedPath, StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    /**
+     * Tracks of a category, read from the category file
+     * @param category Category name, a key of the category map
+     * @return Track IDs in ascending order, empty if the category is not known
+     */
+    public int[] tracks(String category)
+    {
+        int categoryId = categoryIds.applyAsInt(category);
+        if (merged == null || categoryId < 0 || categoryId >= starts.length - 1)
+            return new int[0];
+
+        long start = starts[categoryId];
+        int count = (int) (starts[categoryId + 1] - start);
+
+        try
+        {
+            ByteBuffer trackBytes = Id3TagReader.readAt(merged, start * Integer.BYTES, count * Integer.BYTES);
+            if (trackBytes == null)
+                throw new EOFException(label + " category file is short");
+
+            int[] trackIds = new int[count];
+            trackBytes.asIntBuffer().get(trackIds);
+            return trackIds;
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Close the category file, which deletes it
+     */
+    public synchronized void close()
+    {
+        try
+        {
+            if (merged != null)
+                merged.close();
+            for (Path run: runs)
+                Files.deleteIfExists(run);
+        }
+        catch (IOException e)
+        {
+            PlaylistBuilder.fileErrors.add(String.format("Category spill %s could not be removed: %s", label, e.getMessage()));
+        }
+    }
+
+    /*
+     * Sequential reader of one run
+     */
+    private static class RunCursor implements Comparable<RunCursor>
+    {
+        final DataInputStream in;
+        final int run;
+        long record;
+
+        RunCursor(Path runPath, int run) throws IOException
+        {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(runPath), streamBufferSize));
+            this.run = run;
+        }
+
+        /*
+         * Move to the next record, closing the run at its end
+         */
+        boolean next() throws IOException
+        {
+            try
+            {
+                record = in.readLong();
+                return true;
+            }
+            catch (EOFException e)
+            {
+                in.close();
+                return false;
+            }
+        }
+
+        @Override
+        public int compareTo(RunCursor other)
+        {
+            int order = Long.compare(record, other.record);
+            return (order != 0) ? order : Integer.compare(run, other.run);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.apps.geo;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.IllegalFormatException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous debug log.  Callers check the level first, so nothing is allocated when a level is off:
+ *
+ *      if (DebugLog.enabled(DebugLog.Level.TRACE))
+ *          DebugLog.log(DebugLog.Level.TRACE, ">> %s: PlaylistBuilder.genreSave(%s)%n", ...);
+ *
+ * The format string and its arguments go into a lock-free ring buffer, and a background writer thread
+ * formats the messages and streams them to the log file.  If the writer falls behind and the ring is full,
+ * messages are dropped and counted rather than blocking the scan.
+ *
+ * @author geo
+ */
+public class DebugLog {
+
+    public enum Level { OFF, ERROR, INFO, DEBUG, TRACE }
+
+    static final int ringBits = 16;
+    static final int ringSize = 1 << ringBits;
+    static final int ringMask = ringSize - 1;
+    static final long idleNanos = 1_000_000;
+
+    static final String defaultLogName = "playlist-manager.log";
+
+    private static volatile Level level = Level.OFF;
+
+    /**
+     * Message waiting in the ring buffer, formatted by the writer thread
+     */
+    private static class Entry
+    {
+        final String format;
+        final Object[] args;
+
+        Entry(String format, Object[] args)
+        {
+            this.format = format;
+            this.args = args;
+        }
+    }
+
+    /*
+     * Bounded multi-producer, single-consumer ring.  A slot is free for the producer at position p when
+     * its sequence is p, and holds a message for the consumer when its sequence is p + 1.
+     */
+    private static final AtomicReferenceArray<Entry> ring = new AtomicReferenceArray<>(ringSize);
+    private static final AtomicLongArray sequence = new AtomicLongArray(ringSize);
+    private static final AtomicLong tail = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+    private static long head = 0;
+
+    private static Thread writerThread;
+    private static volatile boolean running = false;
+
+    static {
+        for (int slot = 0; slot < ringSize; slot++)
+            sequence.set(slot, slot);
+    }
+
+    /**
+     * Start logging at the given level.  The log file is replaced.
+     * @param logLevel Most detailed level to write
+     * @param logPath Path to the log file
+     */
+    public static synchronized void start(Level logLevel, Path logPath)
+    {
+        if (logLevel == Level.OFF || running)
+            return;
+
+        BufferedWriter logWriter;
+        try
+        {
+            logWriter = Files.newBufferedWriter(logPath, StandardCharsets.UTF_8);
+        }
+        catch (IOException e)
+        {
+            System.out.printf("%n* * * Log file path %s is invalid * * *%n", logPath);
+            return;
+        }
+
+        running = true;
+        level = logLevel;
+
+        writerThread = new Thread(() -> drain(logWriter), "debug-log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        // Paths that end with System.exit() still get the remaining messages written
+        Runtime.getRuntime().addShutdownHook(new Thread(DebugLog::close));
+    }
+
+    /**
+     * Stop logging, write the remaining messages and close the log file
+     */
+    public static synchronized void close()
+    {
+        if (!running)
+            return;
+
+        level = Level.OFF;
+        running = false;
+        LockSupport.unpark(writerThread);
+
+        try
+        {
+            writerThread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static boolean enabled(Level messageLevel)
+    {
+        return messageLevel.compareTo(level) <= 0 && messageLevel != Level.OFF;
+    }
+
+    /**
+     * Queue a message.  The message is formatted later by the writer thread, so the arguments
+     * should not be changed after the call.
+     * @param messageLevel Level of the message
+     * @param format Format string, as for String.format
+     * @param args Format arguments
+     */
+    public static void log(Level messageLevel, String format, Object... args)
+    {
+        if (!enabled(messageLevel))
+            return;
+
+        Entry entry = new Entry(format, args);
+        long position = tail.get();
+
+        while (true)
+        {
+            int slot = (int) (position & ringMask);
+            long difference = sequence.get(slot) - position;
+
+            if (difference == 0)
+            {
+                if (tail.compareAndSet(position, position + 1))
+                {
+                    ring.set(slot, entry);
+                    sequence.set(slot, position + 1);
+                    return;
+                }
+                position = tail.get();
+            }
+            else if (difference < 0)
+            {
+                dropped.incrementAndGet();
+                return;
+            }
+            else
+            {
+                position = tail.get();
+            }
+        }
+    }
+
+    /*
+     * Writer thread.  Empties the ring, flushes when idle and exits once logging is stopped and the ring is empty.
+     */
+    private static void drain(BufferedWriter logWriter)
+    {
+        try (logWriter)
+        {
+            while (true)
+            {
+                boolean wasRunning = running;
+                int written = 0;
+
+                while (true)
+                {
+                    int slot = (int) (head & ringMask);
+                    if (sequence.get(slot) != head + 1)
+                        break;
+
+                    Entry entry = ring.get(slot);
+                    ring.set(slot, null);
+                    sequence.set(slot, head + ringSize);
+                    head++;
+
+                    write(logWriter, entry);
+                    written++;
+                }
+
+                if (!wasRunning)
+                    break;
+
+                if (written == 0)
+                {
+                    logWriter.flush();
+                    LockSupport.parkNanos(idleNanos);
+                }
+            }
+
+            if (dropped.get() > 0)
+                logWriter.write(String.format("DebugLog: %d messages dropped, the log writer fell behind%n", dropped.get()));
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            level = Level.OFF;
+        }
+    }
+
+    private static void write(BufferedWriter logWriter, Entry entry) throws IOException
+    {
+        try
+        {
+            logWriter.write(String.format(entry.format, entry.args));
+        }
+        catch (IllegalFormatException e)
+        {
+            logWriter.write(entry.format);
+        }
+    }
+
+    /**
+     * Level named on the command line, DEBUG if the name is not a level.  An unknown name is shown on the console.
+     * @param levelName Level name, case is ignored
+     * @return The level
+     */
+    public static Level parseLevel(String levelName)
+    {
+        try
+        {
+            // Not the default locale, a Turkish one upper-cases the i of "info" to a dotted I
+            return Level.valueOf(levelName.toUpperCase(Locale.ROOT));
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.out.printf("%n* * * Log level %s is invalid, using DEBUG.  The levels are %s * * *%n", levelName, Arrays.toString(Level.values()));
+            return Level.DEBUG;
+        }
+    }
+}
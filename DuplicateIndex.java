@@ -0,0 +1,122 @@
+package com.apps.geo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Groups of tracks with the same audio, keyed by the fingerprint of the audio payload.  Scan threads add tracks
+ * as they are read, and once the scan is complete settle() records the group of each duplicated track, so the
+ * playlist writers can look it up without touching the fingerprints.
+ *
+ * A group is named by its lowest track ID.  A track that has no copies is its own group.
+ *
+ * @author geo
+ */
+public class DuplicateIndex {
+
+    private final Map<AudioFingerprint, IntList> groups = new ConcurrentHashMap<>();
+
+    // Group of each track that has copies, rebuilt by settle()
+    private volatile Map<Integer, Integer> duplicateGroups = Map.of();
+
+    /**
+     * Add a track to the group of its fingerprint
+     * @param fingerprint Fingerprint of the audio, null if the file was not fingerprinted
+     * @param trackId Track ID
+     */
+    public void add(AudioFingerprint fingerprint, int trackId)
+    {
+        if (fingerprint != null && fingerprint != AudioFingerprint.unavailable)
+            groups.computeIfAbsent(fingerprint, key -> new IntList(2)).add(trackId);
+    }
+
+    /**
+     * Take a track out of its group, the group is dropped when its last track goes
+     * @param fingerprint Fingerprint the track was added with
+     * @param trackId Track ID
+     */
+    public void remove(AudioFingerprint fingerprint, int trackId)
+    {
+        if (fingerprint == null || fingerprint == AudioFingerprint.unavailable)
+            return;
+
+        groups.computeIfPresent(fingerprint, (key, trackList) -> {
+            trackList.remove(trackId);
+            return trackList.size() == 0 ? null : trackList;
+        });
+    }
+
+    /**
+     * Record the group of each duplicated track.  Called once the scan, or an update of the library, is complete.
+     */
+    public void settle()
+    {
+        Map<Integer, Integer> settled = new HashMap<>();
+
+        for (IntList trackList: groups.values())
+        {
+            int[] trackIds = trackList.toArray();
+            if (trackIds.length < 2)
+                continue;
+
+            int group = trackIds[0];
+            for (int trackId: trackIds)
+                group = Math.min(group, trackId);
+
+            for (int trackId: trackIds)
+                settled.put(trackId, group);
+        }
+
+        duplicateGroups = settled;
+    }
+
+    /**
+     * Group of a track, as of the last settle()
+     * @param trackId Track ID
+     * @return The lowest track ID with the same audio, or the track ID itself if the track has no copies
+     */
+    public int group(int trackId)
+    {
+        return duplicateGroups.getOrDefault(trackId, trackId);
+    }
+
+    /**
+     * Track IDs of each group that has more than one track, as of the last settle()
+     * @return One list per group, the first ID of each is the group
+     */
+    public List<int[]> duplicates()
+    {
+        Map<Integer, IntList> byGroup = new HashMap<>();
+        for (Map.Entry<Integer, Integer> entry: duplicateGroups.entrySet())
+            byGroup.computeIfAbsent(entry.getValue(), group -> new IntList(2)).add(entry.getKey());
+
+        List<int[]> duplicates = new ArrayList<>();
+        for (Map.Entry<Integer, IntList> entry: byGroup.entrySet())
+        {
+            int[] trackIds = entry.getValue().toArray();
+            Arrays.sort(trackIds);
+            duplicates.add(trackIds);
+        }
+
+        return duplicates;
+    }
+
+    /**
+     * Number of tracks that have a copy with a lower track ID, as of the last settle()
+     * @return Tracks a collapsed playlist leaves out when all copies are selected
+     */
+    public int extraCopies()
+    {
+        int copies = 0;
+        for (Map.Entry<Integer, Integer> entry: duplicateGroups.entrySet())
+        {
+            if (!entry.getKey().equals(entry.getValue()))
+                copies++;
+        }
+        return copies;
+    }
+}
@@ -0,0 +1,187 @@
+package com.apps.geo;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Picks tracks whose durations add up to a target length, as close to it as possible without going over.
+ *
+ * The candidates are shuffled and taken in order until the playlist is within a reserve of the target, the reserve
+ * being twice the longest candidate.  The remaining time is then filled exactly by a subset-sum over the next
+ * candidates, using one bitset of reachable sums per candidate.  The first step is linear in the number of
+ * candidates and the second is bounded by the reserve, so tens of thousands of candidates take milliseconds, and the
+ * result is normally within a second or two of the target.  A set of up to a few thousand candidates with a
+ * moderate target skips the first step and is filled exactly.  When very long tracks make the reserve so large
+ * that the bitsets would pass their limit, fewer candidates are filled exactly and the rest are added while they fit.
+ *
+ * @author geo
+ */
+public class DurationFitter {
+
+    // Candidates considered for the exact fill, and the most bitset words it may use
+    static final int fillCandidates = 2048;
+    static final long maxFillWords = 1L << 22;
+
+    /**
+     * Choose tracks for a target length
+     * @param trackIds Candidate track IDs, duplicates are ignored
+     * @param tracks Track table holding the durations
+     * @param targetSeconds Target length in seconds
+     * @param seed Seed for the shuffle.  The candidates are put in path order first, so the same seed and library
+     *             give the same playlist whatever order the scan gave the track IDs.
+     * @return The chosen track IDs, ascending
+     */
+    public static int[] fit(int[] trackIds, TrackTable tracks, int targetSeconds, long seed)
+    {
+        /*
+         * Tracks without a known duration, or longer than the target, cannot be used
+         */
+        int[] candidates = tracks.inPathOrder(Arrays.stream(trackIds)
+                .distinct()
+                .filter(trackId -> tracks.duration(trackId) > 0 && tracks.duration(trackId) <= targetSeconds)
+                .toArray());
+
+        // Everything fits, nothing to choose
+        if (totalSeconds(candidates, tracks) <= targetSeconds)
+        {
+            Arrays.sort(candidates);
+            return candidates;
+        }
+
+        Random random = new Random(seed);
+        int longest = 0;
+        for (int index = candidates.length - 1; index >= 0; index--)
+        {
+            int swap = random.nextInt(index + 1);
+            int trackId = candidates[swap];
+            candidates[swap] = candidates[index];
+            candidates[index] = trackId;
+
+            longest = Math.max(longest, tracks.duration(trackId));
+        }
+
+        /*
+         * Take tracks in shuffled order until the next one would reach into the reserve
+         */
+        int reserve = (int) Math.min(targetSeconds, 2L * longest);
+
+        // A small set is filled exactly, when its bitsets stay small
+        if (candidates.length <= fillCandidates && (candidates.length + 1L) * ((targetSeconds >>> 6) + 1L) <= maxFillWords)
+            reserve = targetSeconds;
+
+        int total = 0;
+        int taken = 0;
+
+        while (taken < candidates.length && total + tracks.duration(candidates[taken]) <= targetSeconds - reserve)
+            total += tracks.duration(candidates[taken++]);
+
+        /*
+         * Fill the rest of the target exactly from the next candidates, as many as the bitsets allow.  The fill uses
+         * one bitset of the remaining time per candidate, plus one.
+         */
+        long fillWords = ((targetSeconds - total) >>> 6) + 1L;
+        long fillCount = Math.max(0, Math.min(fillCandidates, maxFillWords / fillWords - 1));
+        int fillEnd = (int) Math.min(candidates.length, taken + fillCount);
+        int[] filled = (fillEnd > taken) ? fill(candidates, taken, fillEnd, tracks, targetSeconds - total) : new int[0];
+
+        int[] chosen = new int[candidates.length];
+        System.arraycopy(candidates, 0, chosen, 0, taken);
+        System.arraycopy(filled, 0, chosen, taken, filled.length);
+        int chosenCount = taken + filled.length;
+        total += (int) totalSeconds(filled, tracks);
+
+        // Candidates past the exact fill are added while they fit, in shuffled order
+        for (int index = fillEnd; index < candidates.length && total < targetSeconds; index++)
+        {
+            if (total + tracks.duration(candidates[index]) <= targetSeconds)
+            {
+                chosen[chosenCount++] = candidates[index];
+                total += tracks.duration(candidates[index]);
+            }
+        }
+
+        chosen = Arrays.copyOf(chosen, chosenCount);
+        Arrays.sort(chosen);
+        return chosen;
+    }
+
+    /*
+     * Subset of candidates[from, to) with the largest total that is not over the capacity.  reach[i] holds the sums
+     * that can be made from the first i candidates, so the chosen candidates are found by walking back from the best sum.
+     */
+    private static int[] fill(int[] candidates, int from, int to, TrackTable tracks, int capacity)
+    {
+        int count = to - from;
+        int words = (capacity >>> 6) + 1;
+        long[][] reach = new long[count + 1][];
+
+        reach[0] = new long[words];
+        reach[0][0] = 1L;
+
+        for (int index = 0; index < count; index++)
+        {
+            reach[index + 1] = reach[index].clone();
+            shiftOr(reach[index], reach[index + 1], tracks.duration(candidates[from + index]));
+        }
+
+        int best = capacity;
+        while (best > 0 && (reach[count][best >>> 6] & (1L << best)) == 0)
+            best--;
+
+        int[] filled = new int[count];
+        int filledCount = 0;
+        for (int index = count - 1; index >= 0 && best > 0; index--)
+        {
+            // A sum that could not be made without this candidate uses it
+            if ((reach[index][best >>> 6] & (1L << best)) == 0)
+            {
+                filled[filledCount++] = candidates[from + index];
+                best -= tracks.duration(candidates[from + index]);
+            }
+        }
+
+        return Arrays.copyOf(filled, filledCount);
+    }
+
+    /*
+     * target |= source << shift, dropping the bits past the end of the target
+     */
+    private static void shiftOr(long[] source, long[] target, int shift)
+    {
+        int wordShift = shift >>> 6;
+        int bitShift = shift & 63;
+
+        for (int word = target.length - 1; word >= wordShift; word--)
+        {
+            long shifted = source[word - wordShift] << bitShift;
+            if (bitShift != 0 && word - wordShift - 1 >= 0)
+                shifted |= source[word - wordShift - 1] >>> (64 - bitShift);
+
+            target[word] |= shifted;
+        }
+    }
+
+    /**
+     * Total length of a set of tracks
+     * @param trackIds Track IDs
+     * @param tracks Track table holding the durations
+     * @return Total duration in seconds
+     */
+    public static long totalSeconds(int[] trackIds, TrackTable tracks)
+    {
+        long total = 0;
+        for (int trackId: trackIds)
+            total += tracks.duration(trackId);
+
+        return total;
+    }
+
+    /**
+     * @param seconds Length in seconds
+     * @return The length as h:mm:ss
+     */
+    public static String formatTime(long seconds)
+    {
+        return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+}
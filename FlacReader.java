@@ -0,0 +1,96 @@
+package com.apps.geo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Header-only reader for FLAC files.  The metadata blocks follow the "fLaC" marker: STREAMINFO holds the sample rate
+ * and the total sample count, and the VORBIS_COMMENT block holds the tags.  Only the block headers and those two
+ * blocks are read, the audio frames start after the last block.
+ *
+ * @author geo
+ */
+public class FlacReader implements FormatReader {
+
+    static final int blockHeaderSize = 4;
+    static final int streamInfo = 0;
+    static final int vorbisComment = 4;
+
+    @Override
+    public List<String> extensions()
+    {
+        return List.of("flac");
+    }
+
+    @Override
+    public boolean matches(ByteBuffer head)
+    {
+        return head.limit() >= 4 && head.get(0) == 'f' && head.get(1) == 'L' && head.get(2) == 'a' && head.get(3) == 'C';
+    }
+
+    @Override
+    public Id3TagReader.Tags read(FileChannel channel) throws IOException
+    {
+        long parseStart = System.nanoTime();
+        Id3TagReader.Tags tags = new Id3TagReader.Tags();
+        tags.audioEnd = channel.size();
+
+        // Some encoders put an ID3v2 tag before the marker
+        long position = 0;
+        ByteBuffer id3Header = Id3TagReader.readAt(channel, 0, Id3TagReader.headerSize);
+        if (id3Header != null && id3Header.get(0) == 'I' && id3Header.get(1) == 'D' && id3Header.get(2) == '3')
+            position = Id3TagReader.headerSize + Id3TagReader.synchsafe(id3Header, 6);
+
+        ByteBuffer marker = Id3TagReader.readAt(channel, position, 4);
+        if (marker == null || !matches(marker))
+            return null;
+        position += 4;
+
+        /*
+         * Block header: last-block flag(1 bit) type(7 bits) length(24 bits)
+         */
+        boolean lastBlock = false;
+        while (!lastBlock)
+        {
+            ByteBuffer blockHeader = Id3TagReader.readAt(channel, position, blockHeaderSize);
+            if (blockHeader == null)
+                return null;
+
+            lastBlock = (blockHeader.get(0) & 0x80) != 0;
+            int type = blockHeader.get(0) & 0x7F;
+            int length = blockHeader.getInt(0) & 0xFFFFFF;
+            position += blockHeaderSize;
+
+            if (type == streamInfo && length >= 18)
+            {
+                /*
+                 * STREAMINFO bytes 10-17: sample rate(20 bits) channels(3) bits per sample(5) total samples(36)
+                 */
+                ByteBuffer info = Id3TagReader.readAt(channel, position, 18);
+                if (info == null)
+                    return null;
+
+                long bits = info.getLong(10);
+                long sampleRate = bits >>> 44;
+                long totalSamples = bits & 0xFFFFFFFFFL;
+                if (totalSamples > 0)
+                    tags.lengthMillis = FormatReaders.millis(totalSamples, sampleRate);
+            }
+            else if (type == vorbisComment)
+            {
+                ByteBuffer comments = Id3TagReader.readAt(channel, position, Math.min(length, OggReader.maxCommentBytes));
+                if (comments != null)
+                    OggReader.readComments(comments, tags);
+            }
+
+            position += length;
+        }
+
+        tags.audioStart = position;
+        ScanMetrics.record(ScanMetrics.Stage.TAG_PARSE, parseStart);
+
+        return tags;
+    }
+}
@@ -0,0 +1,36 @@
+package com.apps.geo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Header-only reader for one audio container format.  A reader extracts the duration, genre, artist and album artist
+ * from the metadata at the start (or end) of the file, without reading the audio data.
+ *
+ * Readers are chosen by FormatReaders, by the first bytes of the file and then by the file extension.
+ * Readers for other formats can be added with FormatReaders.register(), or as a java.util.ServiceLoader provider.
+ *
+ * @author geo
+ */
+public interface FormatReader {
+
+    /**
+     * @return Lower case file extensions handled by the reader, without the '.'
+     */
+    List<String> extensions();
+
+    /**
+     * @param head The first bytes of the file after any ID3v2 tag, at least 16 unless the file is shorter
+     * @return Whether the bytes start a file of this format
+     */
+    boolean matches(ByteBuffer head);
+
+    /**
+     * Read the metadata from an open channel.  The channel position is not used or changed.
+     * @param channel Channel of the media file
+     * @return The tag values, or null if the file cannot be handled here and should be left to the full parser
+     */
+    Id3TagReader.Tags read(FileChannel channel) throws IOException;
+}
@@ -0,0 +1,219 @@
+package com.apps.geo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Registry of the header-only format readers, and the audio file filter built from their extensions.
+ *
+ * A file is given to the reader that recognizes its first bytes, so a misnamed file is still read correctly.
+ * If no reader recognizes it, the reader for its extension is tried.  A file that no reader can handle is
+ * left to the full Tika parse.
+ *
+ * Built-in readers:
+ *      MP3             ID3v2/ID3v1 tags and MPEG frame headers, see Id3TagReader
+ *      FLAC            STREAMINFO and Vorbis comment blocks, see FlacReader
+ *      MP4, M4A, M4B   moov/mvhd and the iTunes ilst atoms, see Mp4Reader
+ *      Ogg Vorbis, Opus   identification and comment headers, last page granule position, see OggReader
+ *      WMA, ASF        file properties and content description header objects, see AsfReader
+ *
+ * @author geo
+ */
+public class FormatReaders {
+
+    static final int headSize = 16;
+    static final int maxExtension = 4;
+
+    /**
+     * MP3 files are read by Id3TagReader.  An MPEG stream has no magic number, a file starting with an ID3v2 tag
+     * or a frame sync is taken as MP3 once the other readers have not recognized it.
+     */
+    static final FormatReader mp3Reader = new FormatReader()
+    {
+        @Override
+        public List<String> extensions()
+        {
+            return List.of("mp3");
+        }
+
+        @Override
+        public boolean matches(ByteBuffer head)
+        {
+            return head.limit() >= 2 && (head.get(0) & 0xFF) == 0xFF && (head.get(1) & 0xE0) == 0xE0;
+        }
+
+        @Override
+        public Id3TagReader.Tags read(FileChannel channel) throws IOException
+        {
+            return Id3TagReader.read(channel);
+        }
+    };
+
+    private static final List<FormatReader> readers = new CopyOnWriteArrayList<>(
+            List.of(new FlacReader(), new Mp4Reader(), new OggReader(), new AsfReader(), mp3Reader));
+
+    // Extension to reader, rebuilt when a reader is registered
+    private static volatile Map<String, FormatReader> byExtension = extensionMap();
+
+    static
+    {
+        for (FormatReader reader: ServiceLoader.load(FormatReader.class))
+            register(reader);
+    }
+
+    /**
+     * Add a reader.  It is tried before the built-in readers, and takes over their extensions.
+     * @param reader Format reader
+     */
+    public static void register(FormatReader reader)
+    {
+        readers.add(0, reader);
+        byExtension = extensionMap();
+    }
+
+    private static Map<String, FormatReader> extensionMap()
+    {
+        Map<String, FormatReader> extensions = new HashMap<>();
+        for (FormatReader reader: readers)
+        {
+            for (String extension: reader.extensions())
+                extensions.putIfAbsent(extension, reader);
+        }
+        return extensions;
+    }
+
+    /**
+     * Audio file filter shared by the tree walk, the file estimate and the playlist index
+     * @param filePath Path or name of a file
+     * @return Whether the file has the extension of a supported format
+     */
+    public static boolean isAudioFile(String filePath)
+    {
+        return isAudioFile(filePath, 0, filePath.length());
+    }
+
+    /**
+     * Audio file filter for part of a longer text, such as a line of a playlist file
+     * @param text Text holding the path
+     * @param start Start of the path
+     * @param end End of the path
+     * @return Whether the path has the extension of a supported format
+     */
+    public static boolean isAudioFile(String text, int start, int end)
+    {
+        int dot = text.lastIndexOf('.', end - 1);
+        if (dot < start || end - dot - 1 > maxExtension)
+            return false;
+
+        return byExtension.containsKey(text.substring(dot + 1, end).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Length of the extension of an audio file name, including the '.'
+     * @param fileName File name
+     * @return The extension length, or 0 if the name has no extension
+     */
+    public static int extensionLength(String fileName)
+    {
+        int dot = fileName.lastIndexOf('.');
+        return (dot < 0) ? 0 : fileName.length() - dot;
+    }
+
+    /**
+     * Read the metadata of a media file with the reader for its format
+     * @param filePath Path to the media file
+     * @return The tag values, or null if the file could not be read or no reader can handle it
+     */
+    public static Id3TagReader.Tags read(String filePath)
+    {
+        return read(filePath, false);
+    }
+
+    /**
+     * Read the metadata of a media file, and optionally hash its audio payload while the file is open
+     * @param filePath Path to the media file
+     * @param fingerprint Compute the fingerprint of the audio between the tag blocks
+     * @return The tag values, or null if the file could not be read or no reader can handle it
+     */
+    public static Id3TagReader.Tags read(String filePath, boolean fingerprint)
+    {
+        long openStart = System.nanoTime();
+
+        try (FileChannel channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ))
+        {
+            ScanMetrics.record(ScanMetrics.Stage.OPEN, openStart);
+
+            FormatReader reader = reader(channel, filePath);
+            Id3TagReader.Tags tags = (reader == null) ? null : reader.read(channel);
+
+            if (tags != null && fingerprint)
+                tags.fingerprint = AudioFingerprint.compute(channel, tags.audioStart, tags.audioEnd);
+            return tags;
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+    /*
+     * Choose the reader by the bytes after any ID3v2 tag, some FLAC files carry one, then by the extension.
+     * A file that only matches by its ID3v2 tag is MP3.
+     */
+    static FormatReader reader(FileChannel channel, String filePath) throws IOException
+    {
+        long headStart = 0;
+        ByteBuffer id3Header = Id3TagReader.readAt(channel, 0, Id3TagReader.headerSize);
+        boolean id3Tag = id3Header != null && id3Header.get(0) == 'I' && id3Header.get(1) == 'D' && id3Header.get(2) == '3';
+        if (id3Tag)
+            headStart = Id3TagReader.headerSize + Id3TagReader.synchsafe(id3Header, 6);
+
+        // A file shorter than the head is matched on what there is
+        ByteBuffer head = ByteBuffer.allocate(headSize);
+        int count;
+        do
+        {
+            count = channel.read(head, headStart + head.position());
+        } while (count > 0 && head.hasRemaining());
+        head.flip();
+
+        for (FormatReader reader: readers)
+        {
+            if (reader.matches(head))
+                return reader;
+        }
+
+        if (id3Tag)
+            return mp3Reader;
+
+        int dot = filePath.lastIndexOf('.');
+        return (dot < 0) ? null : byExtension.get(filePath.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /*
+     * Helpers shared by the readers
+     */
+    static long millis(long units, long unitsPerSecond)
+    {
+        return (unitsPerSecond <= 0 || units < 0) ? -1 : (long) (units * 1000.0 / unitsPerSecond);
+    }
+
+    static String text(String value)
+    {
+        if (value == null)
+            return null;
+
+        int terminator = value.indexOf('\0');
+        String text = ((terminator >= 0) ? value.substring(0, terminator) : value).trim();
+        return text.isEmpty() ? null : text;
+    }
+}
@@ -0,0 +1,326 @@
+package com.apps.geo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Header-only reader for ID3v2 and ID3v1 tags.  Only the tag blocks at the start and end of the file are read,
+ * using positioned reads on a FileChannel, so the audio frames are never touched.  The length comes from the
+ * frame headers, see MpegDuration.
+ *
+ * Supported tags:
+ *      ID3v2.2, ID3v2.3, ID3v2.4 (TCON/TCO, TPE1/TP1, TPE2/TP2, TLEN/TLE frames)
+ *      ID3v1 and ID3v1.1 (genre and artist)
+ *
+ * @author geo
+ */
+public class Id3TagReader {
+
+    static final int headerSize = 10;
+    static final int trailerSize = 128;
+
+    /**
+     * Tag values read from a media file.  Values not found in the tags are null, an unknown length is -1.
+     */
+    static class Tags
+    {
+        String genre;
+        String artist;
+        String albumArtist;
+        long lengthMillis = -1;
+
+        // File offsets of the audio data, between the ID3v2 header block and the ID3v1 trailer
+        long audioStart = 0;
+        long audioEnd = 0;
+
+        // Hash of the bytes between audioStart and audioEnd, only computed when asked for
+        AudioFingerprint fingerprint;
+    }
+
+    /*
+     * ID3v1 genre index, as used by the ID3v1 trailer and by "(n)" references in ID3v2 content type frames
+     */
+    static final String[] genres = {
+            "Blues", "Classic Rock", "Country", "Dance", "Disco", "Funk", "Grunge", "Hip-Hop", "Jazz", "Metal",
+            "New Age", "Oldies", "Other", "Pop", "R&B", "Rap", "Reggae", "Rock", "Techno", "Industrial",
+            "Alternative", "Ska", "Death Metal", "Pranks", "Soundtrack", "Euro-Techno", "Ambient", "Trip-Hop", "Vocal", "Jazz+Funk",
+            "Fusion", "Trance", "Classical", "Instrumental", "Acid", "House", "Game", "Sound Clip", "Gospel", "Noise",
+            "AlternRock", "Bass", "Soul", "Punk", "Space", "Meditative", "Instrumental Pop", "Instrumental Rock", "Ethnic", "Gothic",
+            "Darkwave", "Techno-Industrial", "Electronic", "Pop-Folk", "Eurodance", "Dream", "Southern Rock", "Comedy", "Cult", "Gangsta",
+            "Top 40", "Christian Rap", "Pop/Funk", "Jungle", "Native American", "Cabaret", "New Wave", "Psychadelic", "Rave", "Showtunes",
+            "Trailer", "Lo-Fi", "Tribal", "Acid Punk", "Acid Jazz", "Polka", "Retro", "Musical", "Rock & Roll", "Hard Rock",
+            "Folk", "Folk-Rock", "National Folk", "Swing", "Fast Fusion", "Bebob", "Latin", "Revival", "Celtic", "Bluegrass",
+            "Avantgarde", "Gothic Rock", "Progressive Rock", "Psychedelic Rock", "Symphonic Rock", "Slow Rock", "Big Band", "Chorus", "Easy Listening", "Acoustic",
+            "Humour", "Speech", "Chanson", "Opera", "Chamber Music", "Sonata", "Symphony", "Booty Bass", "Primus", "Porn Groove",
+            "Satire", "Slow Jam", "Club", "Tango", "Samba", "Folklore", "Ballad", "Power Ballad", "Rhythmic Soul", "Freestyle",
+            "Duet", "Punk Rock", "Drum Solo", "A capella", "Euro-House", "Dance Hall", "Goa", "Drum & Bass", "Club-House", "Hardcore",
+            "Terror", "Indie", "BritPop", "Negerpunk", "Polsk Punk", "Beat", "Christian Gangsta Rap", "Heavy Metal", "Black Metal", "Crossover",
+            "Contemporary Christian", "Christian Rock", "Merengue", "Salsa", "Thrash Metal", "Anime", "JPop", "Synthpop"
+    };
+
+    /**
+     * Read the ID3 tags of a media file
+     * @param filePath Path to the media file
+     * @return The tag values, or null if the file could not be read or its tags cannot be handled here
+     */
+    public static Tags read(String filePath)
+    {
+        long openStart = System.nanoTime();
+
+        try (FileChannel channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ))
+        {
+            ScanMetrics.record(ScanMetrics.Stage.OPEN, openStart);
+            return read(channel);
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Read the ID3 tags from an open channel.  The channel position is not used or changed.
+     * The length is computed from the MPEG frame headers, the TLEN frame is only used if no frame is found.
+     * @param channel Channel of the media file
+     * @return The tag values, or null if the tags cannot be handled here
+     */
+    public static Tags read(FileChannel channel) throws IOException
+    {
+        long parseStart = System.nanoTime();
+        Tags tags = new Tags();
+        long fileSize = channel.size();
+
+        tags.audioEnd = fileSize;
+
+        if (!readV2(channel, tags))
+            return null;
+
+        readV1(channel, tags);
+        ScanMetrics.record(ScanMetrics.Stage.TAG_PARSE, parseStart);
+
+        long durationStart = System.nanoTime();
+        long frameMillis = MpegDuration.millis(channel, tags.audioStart, tags.audioEnd);
+        if (frameMillis >= 0)
+            tags.lengthMillis = frameMillis;
+        ScanMetrics.record(ScanMetrics.Stage.DURATION, durationStart);
+
+        return tags;
+    }
+
+    /*
+     * ID3v2 tag at the start of the file.   Returns false if the tag uses features that are not handled here
+     */
+    private static boolean readV2(FileChannel channel, Tags tags) throws IOException
+    {
+        ByteBuffer header = readAt(channel, 0, headerSize);
+        if (header == null || header.get(0) != 'I' || header.get(1) != 'D' || header.get(2) != '3')
+            return true;
+
+        int version = header.get(3);
+        int flags = header.get(5) & 0xFF;
+        int tagSize = synchsafe(header, 6);
+
+        tags.audioStart = headerSize + tagSize + (((flags & 0x10) != 0) ? headerSize : 0);
+
+        // Unsynchronised tags and unknown versions are left to the full parser
+        if (version < 2 || version > 4 || (flags & 0x80) != 0)
+            return false;
+
+        long position = headerSize;
+        long tagEnd = headerSize + (long) tagSize;
+
+        /*
+         * Skip the extended header.   Its size excludes the size field in v2.3 and includes it in v2.4
+         */
+        if (version >= 3 && (flags & 0x40) != 0)
+        {
+            ByteBuffer extended = readAt(channel, position, 4);
+            if (extended == null)
+                return false;
+
+            position += (version == 3) ? extended.getInt(0) + 4 : synchsafe(extended, 0);
+        }
+
+        int idLength = (version == 2) ? 3 : 4;
+        int frameHeaderSize = (version == 2) ? 6 : 10;
+
+        while (position + frameHeaderSize <= tagEnd)
+        {
+            ByteBuffer frameHeader = readAt(channel, position, frameHeaderSize);
+            if (frameHeader == null || frameHeader.get(0) == 0)
+                break;      // padding
+
+            String frameId = new String(frameHeader.array(), 0, idLength, StandardCharsets.ISO_8859_1);
+            int frameSize = switch (version) {
+                case 2 -> ((frameHeader.get(3) & 0xFF) << 16) | ((frameHeader.get(4) & 0xFF) << 8) | (frameHeader.get(5) & 0xFF);
+                case 3 -> frameHeader.getInt(4);
+                default -> synchsafe(frameHeader, 4);
+            };
+
+            position += frameHeaderSize;
+            if (frameSize <= 0 || position + frameSize > tagEnd)
+                break;
+
+            /*
+             * Compressed, encrypted or unsynchronised frames are skipped.  A grouped frame starts with a group ID
+             * byte, and a v2.4 frame with a data length indicator with the 4-byte length, both are stepped over.
+             *      v2.3 flags: 0x80 compressed, 0x40 encrypted, 0x20 grouped
+             *      v2.4 flags: 0x40 grouped, 0x08 compressed, 0x04 encrypted, 0x02 unsynchronised, 0x01 data length
+             */
+            int frameFlags = (version == 2) ? 0 : frameHeader.get(9) & 0xFF;
+            boolean plainFrame = (frameFlags & ((version == 3) ? 0xC0 : 0x0E)) == 0;
+            int extraBytes = switch (version) {
+                case 2 -> 0;
+                case 3 -> ((frameFlags & 0x20) != 0) ? 1 : 0;
+                default -> (((frameFlags & 0x40) != 0) ? 1 : 0) + (((frameFlags & 0x01) != 0) ? 4 : 0);
+            };
+
+            if (plainFrame && frameSize > extraBytes)
+            {
+                long textStart = position + extraBytes;
+                int textSize = frameSize - extraBytes;
+
+                switch (frameId) {
+                    case "TCON", "TCO" -> tags.genre = resolveGenre(readText(channel, textStart, textSize));
+                    case "TPE1", "TP1" -> tags.artist = readText(channel, textStart, textSize);
+                    case "TPE2", "TP2" -> tags.albumArtist = readText(channel, textStart, textSize);
+                    case "TLEN", "TLE" -> tags.lengthMillis = parseLength(readText(channel, textStart, textSize));
+                    default -> { }
+                }
+            }
+
+            position += frameSize;
+        }
+
+        return true;
+    }
+
+    /*
+     * ID3v1 trailer in the last 128 bytes of the file.   Only fills the values missing from the ID3v2 tag.
+     */
+    private static void readV1(FileChannel channel, Tags tags) throws IOException
+    {
+        long fileSize = channel.size();
+        if (fileSize - trailerSize < tags.audioStart)
+            return;
+
+        ByteBuffer trailer = readAt(channel, fileSize - trailerSize, trailerSize);
+        if (trailer == null || trailer.get(0) != 'T' || trailer.get(1) != 'A' || trailer.get(2) != 'G')
+            return;
+
+        tags.audioEnd = fileSize - trailerSize;
+
+        if (tags.artist == null)
+            tags.artist = fixedText(trailer, 33, 30);
+
+        int genreIndex = trailer.get(127) & 0xFF;
+        if (tags.genre == null && genreIndex < genres.length)
+            tags.genre = genres[genreIndex];
+    }
+
+    /*
+     * Positioned read of an exact number of bytes.  Returns null if the file is too short.
+     */
+    static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                return null;
+        }
+
+        return buffer.flip();
+    }
+
+    static int synchsafe(ByteBuffer buffer, int offset)
+    {
+        return ((buffer.get(offset) & 0x7F) << 21) | ((buffer.get(offset + 1) & 0x7F) << 14)
+                | ((buffer.get(offset + 2) & 0x7F) << 7) | (buffer.get(offset + 3) & 0x7F);
+    }
+
+    /*
+     * Text frame content: one encoding byte followed by the text.   Only the first of multiple values is kept.
+     */
+    private static String readText(FileChannel channel, long position, int frameSize) throws IOException
+    {
+        ByteBuffer frame = readAt(channel, position, frameSize);
+        if (frame == null || frameSize < 2)
+            return null;
+
+        Charset charset = switch (frame.get(0)) {
+            case 1 -> StandardCharsets.UTF_16;
+            case 2 -> StandardCharsets.UTF_16BE;
+            case 3 -> StandardCharsets.UTF_8;
+            default -> StandardCharsets.ISO_8859_1;
+        };
+
+        String text = new String(frame.array(), 1, frameSize - 1, charset);
+
+        int terminator = text.indexOf('\0');
+        if (terminator >= 0)
+            text = text.substring(0, terminator);
+
+        text = text.trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    private static String fixedText(ByteBuffer buffer, int offset, int length)
+    {
+        int end = offset;
+        while (end < offset + length && buffer.get(end) != 0)
+            end++;
+
+        String text = new String(buffer.array(), offset, end - offset, StandardCharsets.ISO_8859_1).trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    private static long parseLength(String text)
+    {
+        try
+        {
+            return (text == null) ? -1 : Long.parseLong(text);
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Content type frames may refer to an ID3v1 genre as "(n)" or "n", optionally followed by a refinement.
+     * @param genre Content type frame value
+     * @return The genre name
+     */
+    static String resolveGenre(String genre)
+    {
+        if (genre == null)
+            return null;
+
+        String index = genre;
+        if (genre.startsWith("(") && genre.indexOf(')') > 1)
+        {
+            String refinement = genre.substring(genre.indexOf(')') + 1).trim();
+            if (!refinement.isEmpty())
+                return refinement;
+
+            index = genre.substring(1, genre.indexOf(')'));
+        }
+
+        try
+        {
+            int genreIndex = Integer.parseInt(index);
+            return (genreIndex >= 0 && genreIndex < genres.length) ? genres[genreIndex] : genre;
+        }
+        catch (NumberFormatException e)
+        {
+            return genre;
+        }
+    }
+}
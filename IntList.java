@@ -0,0 +1,77 @@
+package com.apps.geo;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive ints, used for the track ID posting lists of the category maps.
+ * Appends are synchronized on the list, so scan threads indexing different categories never wait on each other.
+ *
+ * @author geo
+ */
+public class IntList {
+
+    static final int defaultCapacity = 8;
+
+    private int[] values;
+    private int size = 0;
+
+    public IntList()
+    {
+        values = new int[defaultCapacity];
+    }
+
+    public IntList(int capacity)
+    {
+        values = new int[Math.max(1, capacity)];
+    }
+
+    public synchronized void add(int value)
+    {
+        if (size == values.length)
+            values = Arrays.copyOf(values, size + (size >> 1) + 1);
+
+        values[size++] = value;
+    }
+
+    /**
+     * Remove the first occurrence of a value, keeping the order of the rest
+     * @param value Value to remove
+     * @return true if the value was found
+     */
+    public synchronized boolean remove(int value)
+    {
+        for (int index = 0; index < size; index++)
+        {
+            if (values[index] == value)
+            {
+                System.arraycopy(values, index + 1, values, index, size - index - 1);
+                size--;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public synchronized int size()
+    {
+        return size;
+    }
+
+    public synchronized int get(int index)
+    {
+        if (index >= size)
+            throw new IndexOutOfBoundsException(index);
+
+        return values[index];
+    }
+
+    /**
+     * Copy of the current values
+     * @return int array sized to the list
+     */
+    public synchronized int[] toArray()
+    {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -0,0 +1,328 @@
+package com.apps.geo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Daemon mode.  After the first batch run, the media tree is watched for changes and the category maps are
+ * updated for the changed files only.  Changes are collected until the tree has been quiet for a moment, then
+ * the batch is applied and the playlists that include a changed category are written again.
+ *
+ * A WatchService watches one folder, so every folder below the media root is registered, and new folders are
+ * registered as they appear.  If the watch service drops events, the tree is walked and compared with the catalog.
+ *
+ * Track IDs are never reused.  A changed file is removed from its old categories and added again under a new ID.
+ *
+ * @author geo
+ */
+public class LibraryWatcher {
+
+    static final long quietMillis = 2000;
+    static final long maxDelayMillis = 30000;
+
+    final PlaylistBatch batch;
+    final Path mediaRoot;
+    final Path catalogPath;
+    final WatchService watchService;
+    final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+
+    // Current track ID of each indexed media file, sorted so the files below a folder are one range
+    final TreeMap<String, Integer> trackIds = new TreeMap<>();
+
+    // Target file to categories, for the playlists written by the last batch
+    final Map<File, List<String>> written = new HashMap<>();
+
+    boolean rescanTree = false;
+
+    /**
+     * @param batch Batch that has been run once, its playlists are kept current
+     * @param jobs Playlists written by the first run
+     */
+    public LibraryWatcher(PlaylistBatch batch, List<PlaylistBatch.PlaylistJob> jobs) throws IOException
+    {
+        this.batch = batch;
+        this.mediaRoot = Paths.get(batch.mediaRoot.getPath());
+        this.catalogPath = MediaCatalog.defaultPath(batch.mediaRoot.getPath());
+        this.watchService = FileSystems.getDefault().newWatchService();
+
+        for (int trackId = 0; trackId < PlaylistBuilder.tracks.size(); trackId++)
+            trackIds.put(PlaylistBuilder.tracks.path(trackId), trackId);
+
+        for (PlaylistBatch.PlaylistJob job: jobs)
+            written.put(job.playlistFile, job.categories);
+
+        registerTree(mediaRoot);
+    }
+
+    /**
+     * Watch the media tree until the thread is interrupted or the watch service is closed
+     */
+    public void run()
+    {
+        System.out.printf("%n%s: Watching %s, %d folders%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), mediaRoot, watchedDirs.size());
+
+        Set<String> changedPaths = new LinkedHashSet<>();
+        long firstChange = 0;
+
+        try
+        {
+            while (true)
+            {
+                // Wait for the first change, then until the tree is quiet or the batch has waited long enough
+                WatchKey key = changedPaths.isEmpty() && !rescanTree
+                        ? watchService.take()
+                        : watchService.poll(quietMillis, TimeUnit.MILLISECONDS);
+
+                if (key != null)
+                {
+                    if (changedPaths.isEmpty())
+                        firstChange = System.nanoTime();
+
+                    collect(key, changedPaths);
+
+                    if ((System.nanoTime() - firstChange) / 1_000_000 < maxDelayMillis)
+                        continue;
+                }
+
+                applyChanges(changedPaths);
+                changedPaths.clear();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (ClosedWatchServiceException e)
+        {
+            // Normal end of the daemon
+        }
+    }
+
+    /*
+     * Paths named by the events of one folder.  A new folder is registered, and the files already in it are
+     * collected, since they may have been written before the folder was watched.
+     */
+    private void collect(WatchKey key, Set<String> changedPaths)
+    {
+        Path dir = watchedDirs.get(key);
+
+        for (WatchEvent<?> event: key.pollEvents())
+        {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null)
+            {
+                rescanTree = true;
+                continue;
+            }
+
+            Path changed = dir.resolve((Path) event.context());
+
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed))
+            {
+                registerTree(changed);
+                addMediaFiles(changed, changedPaths);
+            }
+            else
+            {
+                changedPaths.add(changed.toString());
+            }
+        }
+
+        if (!key.reset())
+            watchedDirs.remove(key);
+    }
+
+    /*
+     * Bring the category maps up to date with the changed paths, then write the playlists that depend on them
+     */
+    private void applyChanges(Set<String> changedPaths)
+    {
+        long start = System.nanoTime();
+        PlaylistBuilder.fileErrors.clear();
+
+        if (rescanTree)
+        {
+            rescanTree = false;
+            changedPaths.addAll(trackIds.keySet());
+            addMediaFiles(mediaRoot, changedPaths);
+        }
+
+        // Keyed by the map itself, the category maps change while they are updated
+        Map<Map<String, IntList>, Set<String>> changedCategories = new IdentityHashMap<>();
+        changedCategories.put(PlaylistBuilder.genreMap, new HashSet<>());
+        changedCategories.put(PlaylistBuilder.artistMap, new HashSet<>());
+        changedCategories.put(PlaylistBuilder.folderMap, new HashSet<>());
+
+        int updated = 0;
+        for (String changedPath: changedPaths)
+        {
+            // A deleted folder is only named by its own path, the files below it are removed with it
+            List<String> paths = new ArrayList<>(trackIds.subMap(changedPath + File.separator, changedPath + File.separator + Character.MAX_VALUE).keySet());
+            paths.add(changedPath);
+
+            for (String filePath: paths)
+            {
+                if (PlaylistBuilder.isAudioFile(filePath) && update(filePath, changedCategories))
+                    updated++;
+            }
+        }
+
+        if (updated == 0)
+            return;
+
+        PlaylistBuilder.catalog.save(catalogPath);
+        PlaylistBuilder.buildListings();
+
+        List<PlaylistBatch.PlaylistJob> jobs = batch.expand();
+
+        /*
+         * A playlist is written again if it is new, its categories changed, or one of its categories has changed tracks
+         */
+        List<PlaylistBatch.PlaylistJob> changedJobs = new ArrayList<>();
+        for (PlaylistBatch.PlaylistJob job: jobs)
+        {
+            List<String> previous = written.get(job.playlistFile);
+            Set<String> categories = changedCategories.get(job.categoryMap);
+
+            // A query can take tracks from any category, so it is always written again
+            if (categories == null || !job.categories.equals(previous) || job.categories.stream().anyMatch(categories::contains))
+                changedJobs.add(job);
+        }
+
+        int failed = PlaylistBatch.writeAll(changedJobs, Runtime.getRuntime().availableProcessors());
+
+        written.clear();
+        for (PlaylistBatch.PlaylistJob job: jobs)
+            written.put(job.playlistFile, job.categories);
+
+        System.out.printf("%n%s: %d files changed, wrote %d of %d playlists in %.1f sec%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS),
+                updated, changedJobs.size() - failed, changedJobs.size(), (System.nanoTime() - start) / 1e9);
+
+        if (!PlaylistBuilder.fileErrors.isEmpty())
+            PlaylistBuilder.showMP3Errors();
+    }
+
+    /*
+     * Re-index one media file.  The file is taken out of the categories it was indexed under, then scanned again
+     * if it still exists.  Returns false if the file is unchanged since it was indexed.
+     */
+    private boolean update(String filePath, Map<Map<String, IntList>, Set<String>> changedCategories)
+    {
+        File mediaFile = new File(filePath);
+        Integer trackId = trackIds.get(filePath);
+        MediaCatalog.Entry entry = PlaylistBuilder.catalog.entries.get(filePath);
+
+        boolean exists = mediaFile.isFile();
+        if (!exists && trackId == null)
+            return false;
+
+        if (exists && trackId != null && entry != null && entry.size == mediaFile.length() && entry.modified == mediaFile.lastModified())
+            return false;
+
+        if (DebugLog.enabled(DebugLog.Level.DEBUG))
+            DebugLog.log(DebugLog.Level.DEBUG, "   %s: LibraryWatcher.update(%s): %s%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), filePath,
+                    !exists ? "removed" : (trackId == null ? "added" : "changed"));
+
+        if (trackId != null)
+        {
+            trackIds.remove(filePath);
+            if (entry != null)
+            {
+                remove(PlaylistBuilder.genreMap, PlaylistBuilder.genreTags.category(entry.genre()), trackId, changedCategories);
+                remove(PlaylistBuilder.artistMap, PlaylistBuilder.artistTags.category(entry.artist()), trackId, changedCategories);
+                remove(PlaylistBuilder.artistMap, PlaylistBuilder.artistTags.category(entry.albumArtist()), trackId, changedCategories);
+                PlaylistBuilder.duplicates.remove(entry.fingerprint, trackId);
+            }
+            remove(PlaylistBuilder.folderMap, mediaFile.getParent(), trackId, changedCategories);
+        }
+
+        if (!exists)
+        {
+            PlaylistBuilder.catalog.entries.remove(filePath);
+            return true;
+        }
+
+        // The scan adds the file under a new ID, the last one in the table
+        int trackCount = PlaylistBuilder.tracks.size();
+        PlaylistBuilder.scanFile(filePath);
+        if (PlaylistBuilder.tracks.size() == trackCount)
+            return true;
+
+        trackIds.put(filePath, trackCount);
+        entry = PlaylistBuilder.catalog.entries.get(filePath);
+        if (entry != null)
+        {
+            changedCategories.get(PlaylistBuilder.genreMap).add(String.valueOf(PlaylistBuilder.genreTags.category(entry.genre())));
+            changedCategories.get(PlaylistBuilder.artistMap).add(String.valueOf(PlaylistBuilder.artistTags.category(entry.artist())));
+            changedCategories.get(PlaylistBuilder.artistMap).add(String.valueOf(PlaylistBuilder.artistTags.category(entry.albumArtist())));
+        }
+        changedCategories.get(PlaylistBuilder.folderMap).add(mediaFile.getParent());
+
+        return true;
+    }
+
+    /*
+     * Take a track out of a category, the category is dropped when its last track goes
+     */
+    private static void remove(Map<String, IntList> categoryMap, String category, int trackId, Map<Map<String, IntList>, Set<String>> changedCategories)
+    {
+        if (category == null || category.isEmpty())
+            return;
+
+        categoryMap.computeIfPresent(category, (key, trackList) -> {
+            trackList.remove(trackId);
+            return trackList.size() == 0 ? null : trackList;
+        });
+
+        changedCategories.get(categoryMap).add(category);
+    }
+
+    private void registerTree(Path treeStart)
+    {
+        try (Stream<Path> walk = Files.walk(treeStart))
+        {
+            for (Path dir: walk.filter(Files::isDirectory).toList())
+            {
+                WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                watchedDirs.put(key, dir);
+            }
+        }
+        catch (IOException | UncheckedIOException e)
+        {
+            PlaylistBuilder.fileErrors.add(String.format("%s could not be watched: %s", treeStart, e.getMessage()));
+        }
+    }
+
+    private static void addMediaFiles(Path treeStart, Set<String> changedPaths)
+    {
+        try (Stream<Path> walk = Files.walk(treeStart))
+        {
+            walk.map(Path::toString).filter(PlaylistBuilder::isAudioFile).forEach(changedPaths::add);
+        }
+        catch (IOException | UncheckedIOException e)
+        {
+            PlaylistBuilder.fileErrors.add(String.format("%s could not be read: %s", treeStart, e.getMessage()));
+        }
+    }
+}
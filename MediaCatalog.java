@@ -0,0 +1,348 @@
+package com.apps.geo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent catalog of the audio properties extracted from each media file.  An entry is keyed by the file path
+ * and is only reused if the file size and last-modified time still match, otherwise the file is parsed again.
+ *
+ * The catalog is saved as a CatalogFile, which is memory-mapped when it is loaded.  A scan looks up each media file
+ * in the mapped file, and only the entries of the files found by the scan are kept in the heap.  The saved file
+ * also holds the category lists of the scan, for the category selector to use without scanning.
+ *
+ * The fingerprint of the audio is only there for files scanned while duplicates are collapsed.
+ *
+ * Catalogs written before the binary format are tab-separated text files, one media file per line:
+ *      path    size    modified    duration    genre    artist    albumArtist    fingerprint
+ * They are still read, and saved in the binary format at the end of the scan.
+ *
+ * The tag values are kept as raw IDs in the genre and artist dictionaries, each distinct value is stored once.
+ *
+ * @author geo
+ */
+public class MediaCatalog {
+
+    static final String catalogName = ".playlist-manager.catalog";
+    static final String textHeader = "#playlist-manager catalog v1";
+
+    /**
+     * Audio properties of one media file, along with the file attributes used to detect changes
+     */
+    static class Entry
+    {
+        final long size;
+        final long modified;
+        final int duration;
+
+        // Raw IDs in PlaylistBuilder.genreTags and artistTags, -1 for a missing value
+        final int genre;
+        final int artist;
+        final int albumArtist;
+
+        // Hash of the audio payload, null if the file was not fingerprinted
+        final AudioFingerprint fingerprint;
+
+        // Set when the file is found by the current scan, entries that are not seen are pruned
+        volatile boolean seen;
+
+        Entry(long size, long modified, int duration, String genre, String artist, String albumArtist, AudioFingerprint fingerprint)
+        {
+            this.size = size;
+            this.modified = modified;
+            this.duration = duration;
+            this.genre = PlaylistBuilder.genreTags.raw(genre);
+            this.artist = PlaylistBuilder.artistTags.raw(artist);
+            this.albumArtist = PlaylistBuilder.artistTags.raw(albumArtist);
+            this.fingerprint = fingerprint;
+        }
+
+        String genre()
+        {
+            return PlaylistBuilder.genreTags.value(genre);
+        }
+
+        String artist()
+        {
+            return PlaylistBuilder.artistTags.value(artist);
+        }
+
+        String albumArtist()
+        {
+            return PlaylistBuilder.artistTags.value(albumArtist);
+        }
+    }
+
+    // Entries of the files found by the current scan, and of a text catalog until the scan is complete
+    final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    // Catalog saved by the previous run, until the scan is complete
+    private CatalogFile saved = null;
+
+    int loaded = 0;
+    int reused = 0;
+    int parsed = 0;
+
+    // Files of the saved catalog found by the current scan, changed or not
+    private int found = 0;
+
+    /**
+     * Default location of the catalog file, at the top of the media tree
+     * @param mediaRoot Path to the root of the media files
+     * @return Path to the catalog file
+     */
+    public static Path defaultPath(String mediaRoot)
+    {
+        return Path.of(mediaRoot, catalogName);
+    }
+
+    /**
+     * Map a saved catalog.  A missing, damaged or unreadable catalog leaves the catalog empty, so every file is parsed.
+     * @param catalogPath Path to the catalog file
+     */
+    public void load(Path catalogPath)
+    {
+        if (DebugLog.enabled(DebugLog.Level.DEBUG))
+            DebugLog.log(DebugLog.Level.DEBUG, ">> %s: MediaCatalog.load(%s)%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), catalogPath);
+
+        if (!Files.isRegularFile(catalogPath))
+            return;
+
+        if (isText(catalogPath))
+        {
+            loadText(catalogPath);
+        }
+        else
+        {
+            try
+            {
+                saved = CatalogFile.open(catalogPath);
+                loaded = saved.tracks();
+            }
+            catch (IOException e)
+            {
+                PlaylistBuilder.fileErrors.add(String.format("%s could not be read, all files will be parsed: %s", catalogPath, e.getMessage()));
+            }
+        }
+
+        if (DebugLog.enabled(DebugLog.Level.DEBUG))
+            DebugLog.log(DebugLog.Level.DEBUG, "<< %s: MediaCatalog.load(%s): %d entries%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), catalogPath, loaded);
+    }
+
+    /*
+     * Catalogs saved before the binary format start with the text header
+     */
+    private static boolean isText(Path catalogPath)
+    {
+        byte[] header = textHeader.getBytes(StandardCharsets.UTF_8);
+
+        try (InputStream in = Files.newInputStream(catalogPath))
+        {
+            return Arrays.equals(in.readNBytes(header.length), header);
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+    /*
+     * Read a text catalog into the entries, the next save writes it in the binary format
+     */
+    private void loadText(Path catalogPath)
+    {
+        try (BufferedReader br = Files.newBufferedReader(catalogPath, StandardCharsets.UTF_8))
+        {
+            String line = br.readLine();
+
+            while ((line = br.readLine()) != null)
+            {
+                String[] fields = line.split("\t", -1);
+                if (fields.length < 7 || fields.length > 8)
+                    continue;
+
+                try
+                {
+                    entries.put(unescape(fields[0]), new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                            Integer.parseInt(fields[3]), unescape(fields[4]), unescape(fields[5]), unescape(fields[6]),
+                            (fields.length == 8) ? AudioFingerprint.parse(fields[7]) : null));
+                }
+                catch (NumberFormatException e)
+                {
+                    if (DebugLog.enabled(DebugLog.Level.DEBUG))
+                        DebugLog.log(DebugLog.Level.DEBUG, "   MediaCatalog.load(%s): skipped entry '%s'%n", catalogPath, line);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            entries.clear();
+            PlaylistBuilder.fileErrors.add(String.format("%s could not be read, all files will be parsed: %s", catalogPath, e.getMessage()));
+        }
+
+        loaded = entries.size();
+    }
+
+    /**
+     * Write the catalog, with the category lists of the track table.  The file is written under a temporary name
+     * and then moved into place, so an interrupted run does not leave a truncated catalog behind.
+     * @param catalogPath Path to the catalog file
+     */
+    public void save(Path catalogPath)
+    {
+        if (DebugLog.enabled(DebugLog.Level.DEBUG))
+            DebugLog.log(DebugLog.Level.DEBUG, ">> %s: MediaCatalog.save(%s)%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), catalogPath);
+
+        Path tempPath = catalogPath.resolveSibling(catalogPath.getFileName() + ".tmp");
+
+        try
+        {
+            CatalogFile.write(tempPath, entries);
+        }
+        catch (IOException e)
+        {
+            PlaylistBuilder.fileErrors.add(String.format("%s could not be written: %s", catalogPath, e.getMessage()));
+            return;
+        }
+
+        try
+        {
+            Files.move(tempPath, catalogPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            PlaylistBuilder.fileErrors.add(String.format("%s could not be replaced: %s", catalogPath, e.getMessage()));
+        }
+
+        if (DebugLog.enabled(DebugLog.Level.DEBUG))
+            DebugLog.log(DebugLog.Level.DEBUG, "<< %s: MediaCatalog.save(%s): %d entries%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), catalogPath, entries.size());
+    }
+
+    /**
+     * Find the saved properties of a media file
+     * @param filePath Path to the media file
+     * @param size Current size of the file
+     * @param modified Current last-modified time of the file
+     * @return The saved entry, or null if the file is new or has changed since it was cataloged, or has no
+     *      fingerprint while duplicates are collapsed
+     */
+    public Entry lookup(String filePath, long size, long modified)
+    {
+        Entry entry = entries.get(filePath);
+        CatalogFile savedFile = saved;
+
+        boolean fromSaved = false;
+        if (entry == null && savedFile != null)
+        {
+            int record = savedFile.find(filePath);
+            if (record >= 0)
+            {
+                entry = savedFile.entry(record);
+                fromSaved = true;
+                synchronized (this)
+                {
+                    found++;
+                }
+            }
+        }
+
+        if (entry == null || entry.size != size || entry.modified != modified)
+            return null;
+
+        if (PlaylistBuilder.collapseDuplicates && entry.fingerprint == null)
+            return null;
+
+        entry.seen = true;
+        if (fromSaved)
+            entries.put(filePath, entry);
+
+        synchronized (this)
+        {
+            reused++;
+        }
+        return entry;
+    }
+
+    /**
+     * Save the properties of a newly parsed media file
+     * @param filePath Path to the media file
+     * @param entry Extracted audio properties
+     */
+    public void update(String filePath, Entry entry)
+    {
+        entry.seen = true;
+        entries.put(filePath, entry);
+        synchronized (this)
+        {
+            parsed++;
+        }
+    }
+
+    /**
+     * Remove the entries for files that were not found by the current scan.  The saved catalog is released,
+     * the scan has looked up every file.
+     * @return Number of entries removed
+     */
+    public int prune()
+    {
+        int before = entries.size();
+        entries.values().removeIf(entry -> !entry.seen);
+        int removed = before - entries.size();
+
+        if (saved != null)
+        {
+            removed += saved.tracks() - found;
+            saved = null;
+        }
+
+        return removed;
+    }
+
+    /*
+     * Tabs and line breaks separate the fields and entries of the text files, so they are escaped in the text values.
+     * Missing values are stored as empty fields.
+     */
+    static String escape(String value)
+    {
+        if (value == null)
+            return "";
+
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    static String unescape(String value)
+    {
+        if (value.indexOf('\\') < 0)
+            return value;
+
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length())
+            {
+                c = value.charAt(++i);
+                switch (c) {
+                    case 't' -> sb.append('\t');
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    default -> sb.append(c);
+                }
+            }
+            else
+            {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
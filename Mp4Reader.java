@@ -0,0 +1,197 @@
+package com.apps.geo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Header-only reader for MP4 audio (M4A, M4B, AAC and ALAC in MP4).  The file is a tree of atoms, each a 32-bit size
+ * and a 4-character type.  Only the atom headers on the way to moov/mvhd, for the length, and
+ * moov/udta/meta/ilst, for the iTunes tags, are read.  The mdat atom holding the audio is stepped over by its size,
+ * so it does not matter whether moov comes before or after it.
+ *
+ * @author geo
+ */
+public class Mp4Reader implements FormatReader {
+
+    static final int atomHeaderSize = 8;
+
+    // iTunes tag items, the copyright sign is written as an escape
+    static final String genreItem = "\u00A9gen";
+    static final String genreNumberItem = "gnre";
+    static final String artistItem = "\u00A9ART";
+    static final String albumArtistItem = "aART";
+
+    // Largest tag item read, cover art is not needed
+    static final int maxItemBytes = 64 * 1024;
+
+    @Override
+    public List<String> extensions()
+    {
+        return List.of("m4a", "m4b", "mp4");
+    }
+
+    @Override
+    public boolean matches(ByteBuffer head)
+    {
+        return head.limit() >= 8 && head.get(4) == 'f' && head.get(5) == 't' && head.get(6) == 'y' && head.get(7) == 'p';
+    }
+
+    @Override
+    public Id3TagReader.Tags read(FileChannel channel) throws IOException
+    {
+        long parseStart = System.nanoTime();
+        Id3TagReader.Tags tags = new Id3TagReader.Tags();
+        long fileSize = channel.size();
+
+        long[] moov = find(channel, 0, fileSize, "moov");
+        long[] mdat = find(channel, 0, fileSize, "mdat");
+        if (moov == null)
+            return null;
+
+        if (mdat != null)
+        {
+            tags.audioStart = mdat[0];
+            tags.audioEnd = mdat[1];
+        }
+        else
+        {
+            tags.audioEnd = fileSize;
+        }
+
+        /*
+         * mvhd: version(1) flags(3), then creation and modification times, time scale(4) and duration,
+         * the times and duration are 32 bits in version 0 and 64 bits in version 1
+         */
+        long[] mvhd = find(channel, moov[0], moov[1], "mvhd");
+        if (mvhd != null)
+        {
+            ByteBuffer header = Id3TagReader.readAt(channel, mvhd[0], 32);
+            if (header != null)
+            {
+                boolean version1 = header.get(0) == 1;
+                long timeScale = header.getInt(version1 ? 20 : 12) & 0xFFFFFFFFL;
+                long duration = version1 ? header.getLong(24) : header.getInt(16) & 0xFFFFFFFFL;
+                tags.lengthMillis = FormatReaders.millis(duration, timeScale);
+            }
+        }
+
+        long[] udta = find(channel, moov[0], moov[1], "udta");
+        long[] meta = (udta == null) ? null : find(channel, udta[0], udta[1], "meta");
+        if (meta != null)
+        {
+            // meta is a full atom with 4 bytes of version and flags before its children, except in some QuickTime files
+            ByteBuffer flags = Id3TagReader.readAt(channel, meta[0], 4);
+            long childStart = (flags != null && flags.getInt(0) == 0) ? meta[0] + 4 : meta[0];
+
+            long[] ilst = find(channel, childStart, meta[1], "ilst");
+            if (ilst != null)
+                readItems(channel, ilst, tags);
+        }
+
+        ScanMetrics.record(ScanMetrics.Stage.TAG_PARSE, parseStart);
+        return tags;
+    }
+
+    /*
+     * Tag items: (c)gen or gnre (ID3v1 genre number + 1), (c)ART, aART.  The value is in a data atom:
+     * type(4) locale(4) value
+     */
+    private static void readItems(FileChannel channel, long[] ilst, Id3TagReader.Tags tags) throws IOException
+    {
+        long position = ilst[0];
+        while (position + atomHeaderSize <= ilst[1])
+        {
+            long[] item = atom(channel, position, ilst[1]);
+            if (item == null)
+                return;
+
+            String type = type(channel, position);
+            if (type.equals(genreItem) || type.equals(genreNumberItem) || type.equals(artistItem) || type.equals(albumArtistItem))
+            {
+                long[] data = find(channel, item[0], item[1], "data");
+                int length = (data == null) ? 0 : (int) Math.min(data[1] - data[0], maxItemBytes);
+                ByteBuffer value = (length > 8) ? Id3TagReader.readAt(channel, data[0], length) : null;
+
+                if (value != null)
+                {
+                    String text = FormatReaders.text(new String(value.array(), 8, length - 8, StandardCharsets.UTF_8));
+                    switch (type) {
+                        case genreItem -> tags.genre = text;
+                        case genreNumberItem -> {
+                            int genreNumber = (length >= 10) ? (value.getShort(8) & 0xFFFF) - 1 : -1;
+                            if (tags.genre == null && genreNumber >= 0 && genreNumber < Id3TagReader.genres.length)
+                                tags.genre = Id3TagReader.genres[genreNumber];
+                        }
+                        case artistItem -> tags.artist = text;
+                        default -> tags.albumArtist = text;
+                    }
+                }
+            }
+
+            position = item[1];
+        }
+    }
+
+    /*
+     * First child atom of a type between two offsets.  Returns the offsets of its content and of its end.
+     */
+    private static long[] find(FileChannel channel, long start, long end, String type) throws IOException
+    {
+        long position = start;
+        while (position + atomHeaderSize <= end)
+        {
+            long[] atom = atom(channel, position, end);
+            if (atom == null)
+                return null;
+
+            if (type(channel, position).equals(type))
+                return atom;
+
+            position = atom[1];
+        }
+
+        return null;
+    }
+
+    /*
+     * Content and end offsets of the atom at a position.  A size of 1 is followed by a 64-bit size,
+     * a size of 0 runs to the end of the parent.
+     */
+    private static long[] atom(FileChannel channel, long position, long end) throws IOException
+    {
+        ByteBuffer header = Id3TagReader.readAt(channel, position, atomHeaderSize);
+        if (header == null)
+            return null;
+
+        long size = header.getInt(0) & 0xFFFFFFFFL;
+        long contentStart = position + atomHeaderSize;
+
+        if (size == 1)
+        {
+            ByteBuffer largeSize = Id3TagReader.readAt(channel, contentStart, 8);
+            if (largeSize == null)
+                return null;
+
+            size = largeSize.getLong(0);
+            contentStart += 8;
+        }
+        else if (size == 0)
+        {
+            size = end - position;
+        }
+
+        if (size < contentStart - position || position + size > end)
+            return null;
+
+        return new long[] {contentStart, position + size};
+    }
+
+    private static String type(FileChannel channel, long position) throws IOException
+    {
+        ByteBuffer header = Id3TagReader.readAt(channel, position + 4, 4);
+        return (header == null) ? "" : new String(header.array(), StandardCharsets.ISO_8859_1);
+    }
+}
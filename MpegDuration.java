@@ -0,0 +1,258 @@
+package com.apps.geo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Duration of an MPEG audio stream computed from its frame headers, without decoding the audio.
+ *
+ * In order of preference:
+ *      Xing/Info header in the first frame (VBR and LAME CBR files), frame count
+ *      VBRI header in the first frame (Fraunhofer VBR files), frame count
+ *      Constant bitrate, audio size and bitrate of the first frame
+ *      Variable bitrate without an index, walk the frame headers and count the frames
+ *
+ * @author geo
+ */
+public class MpegDuration {
+
+    static final int syncWindow = 64 * 1024;
+    static final int walkWindow = 256 * 1024;
+    static final int cbrCheckFrames = 8;
+
+    static final int[][] bitrates = {
+            // MPEG-1 layer I, II, III
+            {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},
+            // MPEG-2 and 2.5 layer I, II/III
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}
+    };
+
+    static final int[][] sampleRates = {
+            {11025, 12000, 8000},       // MPEG-2.5
+            {0, 0, 0},                  // reserved
+            {22050, 24000, 16000},      // MPEG-2
+            {44100, 48000, 32000}       // MPEG-1
+    };
+
+    /**
+     * Decoded MPEG audio frame header
+     */
+    static class FrameHeader
+    {
+        int version;        // 3 = MPEG-1, 2 = MPEG-2, 0 = MPEG-2.5
+        int layer;          // 1, 2 or 3
+        int bitrate;        // bits per second
+        int sampleRate;
+        int samplesPerFrame;
+        int frameLength;
+        boolean mono;
+
+        /**
+         * Decode a 4-byte frame header
+         * @param header Header bytes as a big-endian int
+         * @return The header, or null if the bytes are not a valid frame header
+         */
+        static FrameHeader decode(int header)
+        {
+            if ((header & 0xFFE00000) != 0xFFE00000)
+                return null;
+
+            int versionBits = (header >>> 19) & 0x3;
+            int layerBits = (header >>> 17) & 0x3;
+            int bitrateIndex = (header >>> 12) & 0xF;
+            int rateIndex = (header >>> 10) & 0x3;
+
+            if (versionBits == 1 || layerBits == 0 || bitrateIndex == 0 || bitrateIndex == 15 || rateIndex == 3)
+                return null;
+
+            FrameHeader frame = new FrameHeader();
+            frame.version = versionBits;
+            frame.layer = 4 - layerBits;
+            frame.sampleRate = sampleRates[versionBits][rateIndex];
+            frame.mono = ((header >>> 6) & 0x3) == 3;
+
+            int table = (versionBits == 3) ? frame.layer - 1 : ((frame.layer == 1) ? 3 : 4);
+            frame.bitrate = bitrates[table][bitrateIndex] * 1000;
+
+            int padding = (header >>> 9) & 0x1;
+            if (frame.layer == 1)
+            {
+                frame.samplesPerFrame = 384;
+                frame.frameLength = (12 * frame.bitrate / frame.sampleRate + padding) * 4;
+            }
+            else
+            {
+                frame.samplesPerFrame = (frame.layer == 3 && versionBits != 3) ? 576 : 1152;
+                frame.frameLength = (frame.samplesPerFrame / 8) * frame.bitrate / frame.sampleRate + padding;
+            }
+
+            return frame;
+        }
+
+        /*
+         * The Xing/Info header follows the layer III side information
+         */
+        int xingOffset()
+        {
+            if (version == 3)
+                return mono ? 4 + 17 : 4 + 32;
+
+            return mono ? 4 + 9 : 4 + 17;
+        }
+    }
+
+    /**
+     * Duration of the audio data between the given offsets
+     * @param channel Channel of the media file
+     * @param audioStart Offset of the first byte after the ID3v2 tag
+     * @param audioEnd Offset of the first byte of the ID3v1 tag, or the file size
+     * @return Duration in milliseconds, or -1 if no valid MPEG frame was found
+     */
+    public static long millis(FileChannel channel, long audioStart, long audioEnd) throws IOException
+    {
+        ByteBuffer window = ByteBuffer.allocate((int) Math.min(syncWindow, Math.max(0, audioEnd - audioStart)));
+        readFully(channel, window, audioStart);
+
+        /*
+         * Find the first frame.   A frame is only accepted if the next frame header follows it,
+         * so stray sync bits in padding or leftover tag data are not mistaken for audio.
+         */
+        int offset = -1;
+        FrameHeader first = null;
+
+        for (int i = 0; i + 4 <= window.limit(); i++)
+        {
+            if ((window.get(i) & 0xFF) != 0xFF)
+                continue;
+
+            FrameHeader frame = FrameHeader.decode(window.getInt(i));
+            if (frame == null)
+                continue;
+
+            int next = i + frame.frameLength;
+            if (next + 4 <= window.limit() && FrameHeader.decode(window.getInt(next)) == null)
+                continue;
+
+            offset = i;
+            first = frame;
+            break;
+        }
+
+        if (first == null)
+            return -1;
+
+        long frameCount = indexedFrames(window, offset, first);
+        if (frameCount > 0)
+            return frameCount * first.samplesPerFrame * 1000L / first.sampleRate;
+
+        long audioBytes = audioEnd - (audioStart + offset);
+        if (constantBitrate(window, offset))
+            return audioBytes * 8 * 1000L / first.bitrate;
+
+        frameCount = walkFrames(channel, audioStart + offset, audioEnd);
+        return frameCount * first.samplesPerFrame * 1000L / first.sampleRate;
+    }
+
+    /*
+     * Frame count from a Xing/Info or VBRI header in the first frame, or 0 if there is no such header
+     */
+    private static long indexedFrames(ByteBuffer window, int offset, FrameHeader first)
+    {
+        int xing = offset + first.xingOffset();
+        if (xing + 12 <= window.limit())
+        {
+            int tag = window.getInt(xing);
+            if (tag == 0x58696E67 || tag == 0x496E666F)         // "Xing", "Info"
+            {
+                // Frame count is present if flag bit 0 is set
+                if ((window.getInt(xing + 4) & 0x1) != 0)
+                    return Integer.toUnsignedLong(window.getInt(xing + 8));
+
+                return 0;
+            }
+        }
+
+        int vbri = offset + 4 + 32;
+        if (vbri + 18 <= window.limit() && window.getInt(vbri) == 0x56425249)     // "VBRI"
+            return Integer.toUnsignedLong(window.getInt(vbri + 14));
+
+        return 0;
+    }
+
+    /*
+     * Without an index, compare the bitrates of the first few frames in the window.   Files where every
+     * sampled frame has the same bitrate are treated as constant bitrate.
+     */
+    private static boolean constantBitrate(ByteBuffer window, int offset)
+    {
+        int bitrate = 0;
+        int position = offset;
+
+        for (int count = 0; count < cbrCheckFrames && position + 4 <= window.limit(); count++)
+        {
+            FrameHeader frame = FrameHeader.decode(window.getInt(position));
+            if (frame == null)
+                break;
+
+            if (bitrate != 0 && frame.bitrate != bitrate)
+                return false;
+
+            bitrate = frame.bitrate;
+            position += frame.frameLength;
+        }
+
+        return true;
+    }
+
+    /*
+     * Count the frames by following the frame lengths.   Only the frame headers are decoded, the audio
+     * data is read in large windows and skipped.
+     */
+    private static long walkFrames(FileChannel channel, long position, long audioEnd) throws IOException
+    {
+        ByteBuffer window = ByteBuffer.allocate(walkWindow);
+        long windowStart = -1;
+        long frameCount = 0;
+
+        while (position + 4 <= audioEnd)
+        {
+            if (windowStart < 0 || position + 4 > windowStart + window.limit())
+            {
+                window.clear();
+                window.limit((int) Math.min(walkWindow, audioEnd - position));
+                readFully(channel, window, position);
+                windowStart = position;
+
+                if (window.limit() < 4)
+                    break;
+            }
+
+            FrameHeader frame = FrameHeader.decode(window.getInt((int) (position - windowStart)));
+            if (frame == null || frame.frameLength <= 0)
+                break;
+
+            frameCount++;
+            position += frame.frameLength;
+        }
+
+        return frameCount;
+    }
+
+    /*
+     * Fill the buffer from the given file position.  The buffer limit is set to the number of bytes read.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                break;
+        }
+
+        buffer.flip();
+    }
+}
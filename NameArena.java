@@ -0,0 +1,75 @@
+package com.apps.geo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Append-only store of file names.  Each name is kept as a 2-byte length and its UTF-8 bytes in large shared
+ * blocks, and is referred to by its int address, so a name costs its own bytes instead of a String and a byte array.
+ *
+ * Space is reserved with an atomic add, so scan threads can store names without taking a lock.
+ * A name never spans two blocks, a reservation that would cross a block boundary is skipped.
+ *
+ * @author geo
+ */
+public class NameArena {
+
+    static final int blockBits = 20;
+    static final int blockSize = 1 << blockBits;
+    static final int blockMask = blockSize - 1;
+    static final int maxBlocks = 1 << (31 - blockBits);
+    static final int maxNameBytes = 0xFFFF;
+
+    private final AtomicLong nextAddress = new AtomicLong();
+    private final AtomicReferenceArray<byte[]> blocks = new AtomicReferenceArray<>(maxBlocks);
+
+    /**
+     * Store a name
+     * @param name File name
+     * @return Address of the stored name
+     */
+    public int add(String name)
+    {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int nameLength = Math.min(nameBytes.length, maxNameBytes);
+        int recordLength = nameLength + 2;
+
+        while (true)
+        {
+            long address = nextAddress.getAndAdd(recordLength);
+            int block = (int) (address >>> blockBits);
+            int offset = (int) (address & blockMask);
+
+            if (block >= maxBlocks)
+                throw new IllegalStateException("Name store is full");
+
+            if (offset + recordLength > blockSize)
+                continue;
+
+            if (blocks.get(block) == null)
+                blocks.compareAndSet(block, null, new byte[blockSize]);
+
+            byte[] blockBytes = blocks.get(block);
+            blockBytes[offset] = (byte) (nameLength >>> 8);
+            blockBytes[offset + 1] = (byte) nameLength;
+            System.arraycopy(nameBytes, 0, blockBytes, offset + 2, nameLength);
+
+            return (int) address;
+        }
+    }
+
+    /**
+     * Read a stored name
+     * @param address Address returned when the name was stored
+     * @return File name
+     */
+    public String get(int address)
+    {
+        byte[] blockBytes = blocks.get(address >>> blockBits);
+        int offset = address & blockMask;
+        int nameLength = ((blockBytes[offset] & 0xFF) << 8) | (blockBytes[offset + 1] & 0xFF);
+
+        return new String(blockBytes, offset + 2, nameLength, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,237 @@
+package com.apps.geo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Header-only reader for Ogg Vorbis and Ogg Opus files.  The first two packets of the stream are the identification
+ * header, with the sample rate, and the comment header, with the tags.  The length is the granule position of the
+ * last page, which counts the samples from the start of the stream, so only the first pages and the end of the file
+ * are read.
+ *
+ * @author geo
+ */
+public class OggReader implements FormatReader {
+
+    static final int pageHeaderSize = 27;
+    static final int opusSampleRate = 48000;
+
+    // Largest comment header read, cover art in the comments is cut off
+    static final int maxCommentBytes = 1 << 20;
+
+    // The last page is looked for in this much of the end of the file
+    static final int tailWindow = 64 * 1024;
+
+    @Override
+    public List<String> extensions()
+    {
+        return List.of("ogg", "oga", "opus");
+    }
+
+    @Override
+    public boolean matches(ByteBuffer head)
+    {
+        return head.limit() >= 4 && head.get(0) == 'O' && head.get(1) == 'g' && head.get(2) == 'g' && head.get(3) == 'S';
+    }
+
+    @Override
+    public Id3TagReader.Tags read(FileChannel channel) throws IOException
+    {
+        long parseStart = System.nanoTime();
+        Id3TagReader.Tags tags = new Id3TagReader.Tags();
+        tags.audioEnd = channel.size();
+
+        /*
+         * Collect the first two packets.  A packet ends at the first lacing value below 255, and may go on
+         * over several pages.
+         */
+        ByteBuffer identification = null;
+        ByteBuffer packet = ByteBuffer.allocate(0);
+        long position = 0;
+        int serial = 0;
+
+        while (true)
+        {
+            ByteBuffer header = Id3TagReader.readAt(channel, position, pageHeaderSize);
+            if (header == null || !matches(header))
+                return null;
+
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (position == 0)
+                serial = header.getInt(14);
+
+            int segmentCount = header.get(26) & 0xFF;
+            ByteBuffer lacing = Id3TagReader.readAt(channel, position + pageHeaderSize, segmentCount);
+            if (lacing == null)
+                return null;
+
+            long segmentPosition = position + pageHeaderSize + segmentCount;
+            long pageEnd = segmentPosition;
+            for (int segment = 0; segment < segmentCount; segment++)
+                pageEnd += lacing.get(segment) & 0xFF;
+
+            boolean complete = false;
+
+            for (int segment = 0; segment < segmentCount && !complete; segment++)
+            {
+                int length = lacing.get(segment) & 0xFF;
+                if (packet.position() + length <= maxCommentBytes)
+                {
+                    ByteBuffer data = Id3TagReader.readAt(channel, segmentPosition, length);
+                    if (data == null)
+                        return null;
+                    packet = append(packet, data);
+                }
+                segmentPosition += length;
+
+                if (length < 255)
+                {
+                    if (identification == null)
+                    {
+                        identification = packet.flip();
+                        packet = ByteBuffer.allocate(0);
+                    }
+                    else
+                    {
+                        complete = true;
+                    }
+                }
+            }
+
+            position = pageEnd;
+            if (complete)
+                break;
+        }
+
+        packet.flip();
+        tags.audioStart = position;
+
+        /*
+         * Vorbis: 0x01 "vorbis" version(4) channels(1) rate(4)...  Opus: "OpusHead" version(1) channels(1) preskip(2) rate(4)
+         */
+        identification.order(ByteOrder.LITTLE_ENDIAN);
+        long sampleRate;
+        int preskip = 0;
+        int commentStart;
+
+        if (startsWith(identification, 1, "vorbis") && identification.limit() >= 16 && startsWith(packet, 1, "vorbis"))
+        {
+            sampleRate = identification.getInt(12) & 0xFFFFFFFFL;
+            commentStart = 7;
+        }
+        else if (startsWith(identification, 0, "OpusHead") && identification.limit() >= 12 && startsWith(packet, 0, "OpusTags"))
+        {
+            sampleRate = opusSampleRate;
+            preskip = identification.getShort(10) & 0xFFFF;
+            commentStart = 8;
+        }
+        else
+        {
+            return null;
+        }
+
+        readComments(packet.position(commentStart).slice(), tags);
+        ScanMetrics.record(ScanMetrics.Stage.TAG_PARSE, parseStart);
+
+        long durationStart = System.nanoTime();
+        long granule = lastGranule(channel, serial);
+        if (granule >= 0)
+            tags.lengthMillis = FormatReaders.millis(Math.max(0, granule - preskip), sampleRate);
+        ScanMetrics.record(ScanMetrics.Stage.DURATION, durationStart);
+
+        return tags;
+    }
+
+    /*
+     * Granule position of the last page of the stream, -1 if it is not found in the tail of the file
+     */
+    private static long lastGranule(FileChannel channel, int serial) throws IOException
+    {
+        long size = channel.size();
+        int window = (int) Math.min(size, tailWindow);
+        ByteBuffer tail = Id3TagReader.readAt(channel, size - window, window);
+        if (tail == null)
+            return -1;
+
+        tail.order(ByteOrder.LITTLE_ENDIAN);
+        for (int offset = window - pageHeaderSize; offset >= 0; offset--)
+        {
+            if (tail.get(offset) == 'O' && tail.get(offset + 1) == 'g' && tail.get(offset + 2) == 'g' && tail.get(offset + 3) == 'S'
+                    && tail.getInt(offset + 14) == serial)
+            {
+                long granule = tail.getLong(offset + 6);
+                if (granule >= 0)
+                    return granule;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Vorbis comment block, shared with FLAC: vendor length(4) vendor, comment count(4), then length(4) "NAME=value"
+     * for each comment, lengths little-endian.  A block cut short keeps the comments read so far.
+     * @param comments The comment block
+     * @param tags Receives the genre, artist and album artist, the first value of each is kept
+     */
+    static void readComments(ByteBuffer comments, Id3TagReader.Tags tags)
+    {
+        comments.order(ByteOrder.LITTLE_ENDIAN);
+        if (comments.remaining() < 8)
+            return;
+
+        long vendorLength = comments.getInt() & 0xFFFFFFFFL;
+        if (vendorLength > comments.remaining() - 4)
+            return;
+
+        comments.position(comments.position() + (int) vendorLength);
+        long count = comments.getInt() & 0xFFFFFFFFL;
+
+        for (long comment = 0; comment < count && comments.remaining() >= 4; comment++)
+        {
+            long length = comments.getInt() & 0xFFFFFFFFL;
+            if (length > comments.remaining())
+                return;
+
+            String text = new String(comments.array(), comments.arrayOffset() + comments.position(), (int) length, StandardCharsets.UTF_8);
+            comments.position(comments.position() + (int) length);
+
+            int equals = text.indexOf('=');
+            if (equals <= 0)
+                continue;
+
+            String value = FormatReaders.text(text.substring(equals + 1));
+            switch (text.substring(0, equals).toUpperCase(Locale.ROOT)) {
+                case "GENRE" -> tags.genre = (tags.genre == null) ? value : tags.genre;
+                case "ARTIST" -> tags.artist = (tags.artist == null) ? value : tags.artist;
+                case "ALBUMARTIST", "ALBUM ARTIST", "ALBUM_ARTIST" -> tags.albumArtist = (tags.albumArtist == null) ? value : tags.albumArtist;
+                default -> { }
+            }
+        }
+    }
+
+    private static ByteBuffer append(ByteBuffer packet, ByteBuffer data)
+    {
+        ByteBuffer grown = (packet.remaining() >= data.remaining()) ? packet
+                : ByteBuffer.allocate(Math.max(packet.capacity() * 2, packet.position() + data.remaining())).put(packet.flip());
+        return grown.put(data);
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int offset, String text)
+    {
+        if (buffer.limit() < offset + text.length())
+            return false;
+
+        for (int index = 0; index < text.length(); index++)
+        {
+            if (buffer.get(offset + index) != text.charAt(index))
+                return false;
+        }
+        return true;
+    }
+}
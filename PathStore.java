@@ -0,0 +1,148 @@
+package com.apps.geo;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Directory dictionary for the media file paths.  Directories are kept as a parent-pointer tree, each node
+ * holding only its own name, so the media root and the artist/album folders are stored once instead of
+ * being repeated in every file path.  Full paths are rebuilt only when needed, for example when a playlist is written.
+ *
+ *      /device/home/music          -> node 0: parent -1, "/device/home/music"
+ *      /device/home/music/Passport -> node 1: parent 0, "Passport"
+ *
+ * @author geo
+ */
+public class PathStore {
+
+    static final int noParent = -1;
+    static final int defaultCapacity = 1024;
+
+    /*
+     * Scan-time lookup of directory IDs.   There is one entry per directory, the files are not in it.
+     */
+    private final ConcurrentHashMap<String, Integer> directoryIds = new ConcurrentHashMap<>();
+
+    private int[] parents = new int[defaultCapacity];
+    private String[] names = new String[defaultCapacity];
+    private int count = 0;
+
+    /**
+     * Find or add a directory
+     * @param dirPath Path to the directory
+     * @return The directory ID
+     */
+    public int directory(String dirPath)
+    {
+        Integer dirId = directoryIds.get(dirPath);
+        if (dirId != null)
+            return dirId;
+
+        /*
+         * Add the parent first, the top of the path is stored whole
+         */
+        File dirObj = new File(dirPath);
+        String parentPath = dirObj.getParent();
+
+        int parentId = (parentPath == null) ? noParent : directory(parentPath);
+        String dirName = (parentPath == null) ? dirPath : dirObj.getName();
+
+        synchronized (this)
+        {
+            dirId = directoryIds.get(dirPath);
+            if (dirId == null)
+            {
+                if (count == parents.length)
+                {
+                    parents = Arrays.copyOf(parents, count * 2);
+                    names = Arrays.copyOf(names, count * 2);
+                }
+
+                parents[count] = parentId;
+                names[count] = dirName;
+                dirId = count++;
+
+                directoryIds.put(dirPath, dirId);
+            }
+        }
+
+        return dirId;
+    }
+
+    /**
+     * Find a directory without adding it
+     * @param dirPath Path to the directory
+     * @return The directory ID, or -1 if the directory is not in the store
+     */
+    public int find(String dirPath)
+    {
+        return directoryIds.getOrDefault(dirPath, noParent);
+    }
+
+    /**
+     * Rebuild the full path of a directory
+     * @param dirId Directory ID
+     * @return Path to the directory
+     */
+    public synchronized String path(int dirId)
+    {
+        StringBuilder dirPath = new StringBuilder();
+        appendPath(dirPath, dirId);
+
+        return dirPath.toString();
+    }
+
+    /**
+     * Rebuild the full path of a file in a directory
+     * @param dirId Directory ID
+     * @param fileName Name of the file
+     * @return Path to the file
+     */
+    public synchronized String path(int dirId, String fileName)
+    {
+        StringBuilder filePath = new StringBuilder();
+        appendPath(filePath, dirId);
+        appendName(filePath, fileName);
+
+        return filePath.toString();
+    }
+
+    public synchronized int parent(int dirId)
+    {
+        return parents[dirId];
+    }
+
+    public synchronized String name(int dirId)
+    {
+        return names[dirId];
+    }
+
+    public synchronized int size()
+    {
+        return count;
+    }
+
+    private void appendPath(StringBuilder dirPath, int dirId)
+    {
+        if (parents[dirId] == noParent)
+        {
+            dirPath.append(names[dirId]);
+            return;
+        }
+
+        appendPath(dirPath, parents[dirId]);
+        appendName(dirPath, names[dirId]);
+    }
+
+    /*
+     * Roots such as "/" or "C:\" already end with a separator
+     */
+    private static void appendName(StringBuilder path, String name)
+    {
+        if (path.length() == 0 || path.charAt(path.length() - 1) != File.separatorChar)
+            path.append(File.separatorChar);
+
+        path.append(name);
+    }
+}
@@ -0,0 +1,432 @@
+package com.apps.geo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Non-interactive playlist generation.  A spec file names the media root and the playlists to write, the library
+ * is scanned once and the playlists are written in parallel from the shared index.
+ *
+ * The spec file is tab-separated, one playlist per line.  Lines starting with '#' are comments:
+ *      root    /mnt/nas/Music
+ *      master  /mnt/nas/Playlists/All.m3u
+ *      genre   /mnt/nas/Playlists/Rock.m3u     Rock    Hard Rock
+ *      artist  /mnt/nas/Playlists/Passport.m3u     Passport
+ *      folder  /mnt/nas/Playlists/Live.m3u     Passport/Live
+ *      genre   /mnt/nas/Playlists/Genre - {}.m3u   *
+ *      query   /mnt/nas/Playlists/Short Jazz.m3u   genre:Jazz AND duration < 6:00
+ *      fit     /mnt/nas/Playlists/Blues 90.m3u     1:30:00     genre:Blues
+ *      shuffle /mnt/nas/Playlists/Mix.m3u      200     by=genre weights=Rock:3,Jazz:1 spread=5     NOT genre:Comedy
+ *
+ * A '*' category selects every value of the type.  If the path contains "{}", one playlist is written for each
+ * selected value, with the value in place of the braces.  Folder categories are relative to the media root, and
+ * a folder fills the braces with that relative path, "Passport_Live" for Passport/Live, since folder names such as
+ * "Disc 1" repeat across albums.  When two playlists still end up with the same file, the first one is written
+ * and the other is reported and counted as failed.
+ * A query playlist takes one query, see TrackQuery.  A fit playlist takes a length and a query, and is filled with
+ * tracks from the query result up to the length, see DurationFitter.  A shuffle playlist takes a track count, the
+ * shuffle settings (may be blank) and an optional query, the whole library when there is none, see ShuffleBuilder.
+ * Fit and shuffle playlists are seeded from their path unless the settings name a seed.
+ * Existing playlist files are replaced.
+ *
+ * @author geo
+ */
+public class PlaylistBatch {
+
+    static final String rootKey = "root";
+    static final String queryKey = "query";
+    static final String fitKey = "fit";
+    static final String shuffleKey = "shuffle";
+    static final String allCategories = "*";
+    static final String categorySlot = "{}";
+
+    /**
+     * One line of the spec file
+     */
+    static class PlaylistSpec
+    {
+        final String type;
+        final String playlistPath;
+        final List<String> categories;
+        final TrackQuery query;
+        final int targetSeconds;
+        final int trackCount;
+        final ShuffleBuilder.Options shuffle;
+
+        PlaylistSpec(String type, String playlistPath, List<String> categories)
+        {
+            this(type, playlistPath, categories, null, 0);
+        }
+
+        PlaylistSpec(String type, String playlistPath, List<String> categories, TrackQuery query, int targetSeconds)
+        {
+            this(type, playlistPath, categories, query, targetSeconds, 0, null);
+        }
+
+        PlaylistSpec(String type, String playlistPath, List<String> categories, TrackQuery query, int targetSeconds, int trackCount, ShuffleBuilder.Options shuffle)
+        {
+            this.type = type;
+            this.playlistPath = playlistPath;
+            this.categories = categories;
+            this.query = query;
+            this.targetSeconds = targetSeconds;
+            this.trackCount = trackCount;
+            this.shuffle = shuffle;
+        }
+    }
+
+    /**
+     * Playlist ready to be written: the target file and the category keys, after '*' and "{}" are expanded
+     */
+    static class PlaylistJob
+    {
+        final File playlistFile;
+        final Map<String, IntList> categoryMap;
+        final List<String> categories;
+
+        PlaylistJob(File playlistFile, Map<String, IntList> categoryMap, List<String> categories)
+        {
+            this.playlistFile = playlistFile;
+            this.categoryMap = categoryMap;
+            this.categories = categories;
+        }
+    }
+
+    File mediaRoot;
+    final List<PlaylistSpec> playlists = new ArrayList<>();
+
+    // Playlists left out by the last expand() because another playlist has the same file
+    int collisions = 0;
+
+    /**
+     * Read a spec file
+     * @param specPath Path to the spec file
+     * @return The batch, or null if the spec file is invalid.  The reason is shown on the console.
+     */
+    public static PlaylistBatch load(Path specPath)
+    {
+        PlaylistBatch batch = new PlaylistBatch();
+        int lineNumber = 0;
+
+        try (BufferedReader br = Files.newBufferedReader(specPath, StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = br.readLine()) != null)
+            {
+                lineNumber++;
+                if (line.isBlank() || line.startsWith("#"))
+                    continue;
+
+                String[] fields = line.split("\t");
+                String type = fields[0].trim().toLowerCase();
+
+                if (type.equals(rootKey) && fields.length == 2)
+                {
+                    batch.mediaRoot = new File(fields[1].trim()).getAbsoluteFile();
+                }
+                else if (type.equals(queryKey) && fields.length == 3 && !fields[1].contains(categorySlot))
+                {
+                    TrackQuery query = TrackQuery.compile(fields[2].trim());
+                    if (query == null)
+                    {
+                        System.out.printf("%n* * * %s line %d has an invalid query * * *%n", specPath, lineNumber);
+                        return null;
+                    }
+
+                    batch.playlists.add(new PlaylistSpec(type, fields[1].trim(), List.of(query.text), query, 0));
+                }
+                else if (type.equals(fitKey) && fields.length == 4 && !fields[1].contains(categorySlot))
+                {
+                    int targetSeconds = TrackQuery.parseTime(fields[2].trim());
+                    TrackQuery query = TrackQuery.compile(fields[3].trim());
+                    if (targetSeconds <= 0 || query == null)
+                    {
+                        System.out.printf("%n* * * %s line %d needs a length and a valid query * * *%n", specPath, lineNumber);
+                        return null;
+                    }
+
+                    String category = String.format("%s (%s)", query.text, DurationFitter.formatTime(targetSeconds));
+                    batch.playlists.add(new PlaylistSpec(type, fields[1].trim(), List.of(category), query, targetSeconds));
+                }
+                else if (type.equals(shuffleKey) && fields.length >= 3 && fields.length <= 5 && !fields[1].contains(categorySlot))
+                {
+                    String playlistPath = fields[1].trim();
+                    int trackCount = fields[2].trim().matches("\\d{1,9}") ? Integer.parseInt(fields[2].trim()) : 0;
+                    ShuffleBuilder.Options shuffle = ShuffleBuilder.Options.parse((fields.length > 3) ? fields[3] : "", playlistPath.hashCode());
+                    TrackQuery query = (fields.length > 4 && !fields[4].isBlank()) ? TrackQuery.compile(fields[4].trim()) : null;
+                    if (trackCount <= 0 || shuffle == null || (fields.length > 4 && !fields[4].isBlank() && query == null))
+                    {
+                        System.out.printf("%n* * * %s line %d needs a track count, valid settings and a valid query or none * * *%n", specPath, lineNumber);
+                        return null;
+                    }
+
+                    String category = String.format("Shuffle of %s (%d)", (query == null) ? "all tracks" : query.text, trackCount);
+                    batch.playlists.add(new PlaylistSpec(type, playlistPath, List.of(category), query, 0, trackCount, shuffle));
+                }
+                else if (categoryMap(type) != null && fields.length >= 2)
+                {
+                    List<String> categories = new ArrayList<>();
+                    for (int field = 2; field < fields.length; field++)
+                    {
+                        if (!fields[field].isBlank())
+                            categories.add(fields[field].trim());
+                    }
+
+                    // A master playlist takes every genre
+                    if (type.equals("master"))
+                        categories = List.of(allCategories);
+
+                    batch.playlists.add(new PlaylistSpec(type, fields[1].trim(), categories));
+                }
+                else
+                {
+                    System.out.printf("%n* * * %s line %d is not a valid playlist entry: %s * * *%n", specPath, lineNumber, line);
+                    return null;
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.printf("%n* * * Spec file %s could not be read: %s * * *%n", specPath, e.getMessage());
+            return null;
+        }
+
+        if (batch.mediaRoot == null || !batch.mediaRoot.isDirectory())
+        {
+            System.out.printf("%n* * * Spec file %s needs a '%s' line naming the media folder * * *%n", specPath, rootKey);
+            return null;
+        }
+
+        return batch;
+    }
+
+    /*
+     * Category map for a playlist type, null if the type is unknown
+     */
+    static Map<String, IntList> categoryMap(String type)
+    {
+        return switch (type) {
+            case "master", "genre" -> PlaylistBuilder.genreMap;
+            case "artist" -> PlaylistBuilder.artistMap;
+            case "folder" -> PlaylistBuilder.folderMap;
+            default -> null;
+        };
+    }
+
+    /**
+     * Expand the spec lines into playlists, once the scan has filled the category maps.
+     * Categories that were not found in the library are reported and left out, and so is a playlist whose file
+     * is already taken by an earlier one, see collisions.
+     * @return The playlists to write
+     */
+    List<PlaylistJob> expand()
+    {
+        List<PlaylistJob> jobs = new ArrayList<>();
+        Map<File, PlaylistJob> targets = new HashMap<>();
+
+        QueryIndex queryIndex = null;
+
+        for (PlaylistSpec spec: playlists)
+        {
+            /*
+             * A query playlist is written from its result, as a single category named by the query text.
+             * A fit playlist is shuffled with a seed taken from its path, so it only changes when the library does.
+             * A shuffle playlist keeps the order it was drawn in.
+             */
+            if (spec.query != null || spec.shuffle != null)
+            {
+                if (queryIndex == null)
+                    queryIndex = QueryIndex.build();
+
+                TrackBitmap queryTracks = (spec.query == null) ? queryIndex.allTracks : spec.query.evaluate(queryIndex);
+                if (spec.targetSeconds > 0)
+                    queryTracks = TrackBitmap.of(DurationFitter.fit(queryTracks.toArray(), PlaylistBuilder.tracks, spec.targetSeconds, spec.playlistPath.hashCode()));
+
+                IntList trackList = queryTracks.toIntList();
+                if (spec.shuffle != null)
+                {
+                    trackList = new IntList(spec.trackCount);
+                    for (int trackId: ShuffleBuilder.shuffle(queryTracks.toArray(), spec.trackCount, spec.shuffle))
+                        trackList.add(trackId);
+                }
+
+                Map<String, IntList> queryMap = Map.of(spec.categories.get(0), trackList);
+                jobs.add(new PlaylistJob(new File(spec.playlistPath).getAbsoluteFile(), queryMap, spec.categories));
+                continue;
+            }
+
+            Map<String, IntList> categoryMap = categoryMap(spec.type);
+            List<String> categories = new ArrayList<>();
+
+            for (String category: spec.categories)
+            {
+                if (category.equals(allCategories))
+                {
+                    List<String> keys = new ArrayList<>(categoryMap.keySet());
+                    Collections.sort(keys);
+                    categories.addAll(keys);
+                }
+                else
+                {
+                    String key = spec.type.equals("folder") ? new File(mediaRoot, category).getPath() : category;
+                    if (categoryMap.containsKey(key))
+                        categories.add(key);
+                    else
+                        System.out.printf("%s: no %s '%s' in the library%n", spec.playlistPath, spec.type, category);
+                }
+            }
+
+            if (spec.playlistPath.contains(categorySlot))
+            {
+                for (String category: categories)
+                {
+                    String fileName = spec.type.equals("folder") ? folderName(category) : category;
+                    File playlistFile = new File(spec.playlistPath.replace(categorySlot, safeFileName(fileName))).getAbsoluteFile();
+                    jobs.add(new PlaylistJob(playlistFile, categoryMap, List.of(category)));
+                }
+            }
+            else
+            {
+                jobs.add(new PlaylistJob(new File(spec.playlistPath).getAbsoluteFile(), categoryMap, categories));
+            }
+        }
+
+        /*
+         * Only the first playlist for a file is written, the others are reported one by one
+         */
+        collisions = 0;
+        List<PlaylistJob> uniqueJobs = new ArrayList<>(jobs.size());
+        for (PlaylistJob job: jobs)
+        {
+            PlaylistJob first = targets.putIfAbsent(job.playlistFile, job);
+            if (first == null)
+            {
+                uniqueJobs.add(job);
+            }
+            else
+            {
+                System.out.printf("* * * Playlist %s is named by both %s and %s, only the first is written * * *%n",
+                        job.playlistFile, describe(first), describe(job));
+                collisions++;
+            }
+        }
+
+        return uniqueJobs;
+    }
+
+    /*
+     * Name of a folder playlist: the folder path below the media root, the root itself by its own name
+     */
+    private String folderName(String folder)
+    {
+        Path rootPath = mediaRoot.toPath();
+        Path folderPath = Path.of(folder);
+
+        if (!folderPath.startsWith(rootPath))
+            return folderPath.getFileName().toString();
+        if (folderPath.equals(rootPath))
+            return mediaRoot.getName();
+
+        return rootPath.relativize(folderPath).toString();
+    }
+
+    /*
+     * Categories of a playlist, for messages
+     */
+    private static String describe(PlaylistJob job)
+    {
+        return (job.categories.size() == 1) ? "'" + job.categories.get(0) + "'" : job.categories.size() + " categories";
+    }
+
+    /**
+     * Write the playlists in parallel
+     * @param jobs Playlists to write
+     * @param threads Number of playlists written at the same time
+     * @return Number of playlists that could not be written
+     */
+    static int writeAll(List<PlaylistJob> jobs, int threads)
+    {
+        ExecutorService writers = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, jobs.size())));
+        List<Future<Boolean>> results = new ArrayList<>();
+
+        for (PlaylistJob job: jobs)
+            results.add(writers.submit(() -> write(job)));
+
+        int failed = 0;
+        for (Future<Boolean> result: results)
+        {
+            try
+            {
+                if (!result.get())
+                    failed++;
+            }
+            catch (ExecutionException e)
+            {
+                e.getCause().printStackTrace();
+                failed++;
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                failed++;
+            }
+        }
+
+        writers.shutdown();
+        return failed;
+    }
+
+    /*
+     * One playlist, written the way PlaylistDriver writes a new playlist file
+     */
+    private static boolean write(PlaylistJob job)
+    {
+        File playlistFile = job.playlistFile;
+
+        if (!PlaylistBuilder.validPlaylistPath(playlistFile))
+        {
+            System.out.printf("Path to the playlist file '%s' is invalid, it must be at the same node level as the media file root%n", playlistFile);
+            return false;
+        }
+
+        try (PlaylistWriter playlistWriter = PlaylistWriter.open(playlistFile, false))
+        {
+            playlistWriter.newLine();
+            playlistWriter.write("#EXTM3U");
+
+            if (!PlaylistBuilder.fileWriter(job.categories, job.categoryMap, playlistWriter, playlistFile.getName(), PlaylistBuilder.pathPrefix(playlistFile), false))
+                return false;
+        }
+        catch (IOException e)
+        {
+            System.out.printf("Cannot write to playlist file: %s: %s%n", playlistFile, e.getMessage());
+            return false;
+        }
+
+        if (DebugLog.enabled(DebugLog.Level.INFO))
+            DebugLog.log(DebugLog.Level.INFO, "PlaylistBatch: wrote %s (%d categories)%n", playlistFile, job.categories.size());
+
+        return true;
+    }
+
+    /*
+     * Category values may contain characters that are not allowed in file names
+     */
+    static String safeFileName(String category)
+    {
+        return category.replaceAll("[\\\\/:*?\"<>|]", "_");
+    }
+}
@@ -1,34 +1,41 @@
 package com.apps.geo;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.Instant;
-import java.time.Duration;
-import java.time.LocalTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Scanner;
-import java.util.concurrent.Callable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
 import org.apache.tika.exception.TikaException;
 import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
 import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
 import org.apache.tika.parser.mp3.Mp3Parser;
 import org.xml.sax.*;
 import org.xml.sax.helpers.DefaultHandler;
@@ -46,29 +53,38 @@ public class PlaylistBuilder {
     static String propValue = "";
     static String progressBar = "";
 
-    static String[] mp3FileSplit = null;
-
     static int mp3PathLen = 0;
+    static String mediaRootPath = "";
+    static String mediaRootName = "";
+    static String mediaRootCanonical = "";
     static int playlistPathLen = 0;
     static long fileTotal = 0;
-    static long fileProgress = 0;
+    static final AtomicLong fileProgress = new AtomicLong();
     static int progressBarStep = 20;
+    static int estimateSample = 8;
     static long timeStart = 0;
 
     static ArrayList<String> artistListing = new ArrayList<>();
     static ArrayList<String> genreListing = new ArrayList<>();
     static ArrayList<String> folderListing = new ArrayList<>();
-    static ArrayList<String> timeLog = new ArrayList<>();
-    static ArrayList<String> fileErrors = new ArrayList<>();
+    static CategoryIndex genreIndex = CategoryIndex.empty;
+    static CategoryIndex artistIndex = CategoryIndex.empty;
+    static CategoryIndex folderIndex = CategoryIndex.empty;
+    static ConcurrentLinkedQueue<String> fileErrors = new ConcurrentLinkedQueue<>();
 
     static Pattern pAll = Pattern.compile(REGEXAll);
     static Pattern pMP3 = Pattern.compile(REGEXMP3);
     static Pattern pM3U = Pattern.compile(REGEXM3U);
     static Pattern pCustom = Pattern.compile(REGEXCUSTOM);
     static Matcher m = null;
-    static HashMap<String, ArrayList<String>> artistMap = new HashMap<>();
-    static HashMap<String, ArrayList<String>> genreMap = new HashMap<>();
-    static HashMap<String, ArrayList<String>> folderMap = new HashMap<>();
+    static TrackTable tracks = new TrackTable();
+    static ConcurrentHashMap<String, IntList> artistMap = new ConcurrentHashMap<>();
+    static ConcurrentHashMap<String, IntList> genreMap = new ConcurrentHashMap<>();
+    static ConcurrentHashMap<String, IntList> folderMap = new ConcurrentHashMap<>();
+
+    // Genre and artist values, the category map keys are the canonical names from these
+    static TagDictionary genreTags = new TagDictionary(true, TagDictionary.allFolds);
+    static TagDictionary artistTags = new TagDictionary(false, TagDictionary.allFolds);
 
     static ContentHandler handler = new DefaultHandler();
     static Metadata meta = new Metadata();
@@ -76,15 +92,38 @@ public class PlaylistBuilder {
     static ParseContext parseCtx = new ParseContext();
     static InputStream input = null;
 
+    static final int scanThreads = 10;
+    static final int scanOpenFiles = 64;
+    static final int scanQueueCapacity = 1000;
+    static final String endOfScan = "";
+
+    /*
+     * Scan mode and limit.  The limit is the number of worker threads in pool mode,
+     * and the number of files being read at once in virtual mode.
+     */
+    static boolean virtualScan = false;
+    static int scanLimit = scanThreads;
+
     static ExecutorService executor;
-    static {
-        executor = Executors.newFixedThreadPool(10);
-    }
 
-    static final Object lock = new Object();
+    static MediaCatalog catalog = new MediaCatalog();
+
+    /*
+     * Duplicate tracks.  When they are collapsed, the audio of each file is fingerprinted during the scan and
+     * a playlist gets one entry for each group of tracks with the same audio.
+     */
+    static boolean collapseDuplicates = false;
+    static DuplicateIndex duplicates = new DuplicateIndex();
+
+    /*
+     * Bounded-memory mode.  The category maps keep only the category names, the track lists are spilled to
+     * temporary files and read back one category at a time, see CategorySpill.  Null in the default mode.
+     */
+    static final IntList spilledTracks = new IntList(1);
+    static CategorySpill genreSpill = null;
+    static CategorySpill artistSpill = null;
+    static CategorySpill folderSpill = null;
 
-    static boolean debug = true;
-    static boolean onlyFiles = false;
 
     /**
      * Initialize the parser object for a media file.  This is the expensive step for retrieving media properties,
@@ -107,7 +146,7 @@ public class PlaylistBuilder {
             input = new FileInputStream(fileName);
             parser.parse(input, handler, meta, parseCtx);
 
-            if (debug)
+            if (DebugLog.enabled(DebugLog.Level.TRACE))
             {
                 totalSeconds = (System.nanoTime() - startSeconds) / 1000000;
                 barCount = totalSeconds / 10;
@@ -116,8 +155,7 @@ public class PlaylistBuilder {
                 {
                     timeBar.append("#");
                 }
-                if (debug)
-                    timeLog.add(String.format("\t\t%4s ms in PlaylistBuilder.initParser() %s %n", totalSeconds, timeBar));
+                DebugLog.log(DebugLog.Level.TRACE, "\t\t%4s ms in PlaylistBuilder.initParser() %s %n", totalSeconds, timeBar.toString());
             }
 
             input.close();
@@ -129,39 +167,6 @@ public class PlaylistBuilder {
         return returnCode;
     }
 
-    public static void printLog() {
-
-        File outputFile;
-        outputFile = PlaylistDriver.getFilePath("\nSelect path to the log file", "Debug Log", "txt", onlyFiles);
-        if (outputFile == null)
-            return;
-
-        BufferedWriter bw = PlaylistDriver.createWriter(outputFile, true);
-        if (bw == null)
-            System.exit(8);
-
-        timeLog.forEach(entry -> {
-            try
-            {
-                bw.write(entry);
-            }
-            catch (IOException e)
-            {
-                e.printStackTrace();
-            }
-        });
-
-        try
-        {
-            bw.close();
-        }
-        catch (IOException e)
-        {
-            e.printStackTrace();
-        }
-
-    }
-
     /**
      *
      * @param fileName Path to the current media file
@@ -169,8 +174,8 @@ public class PlaylistBuilder {
      */
     public static String fileProps(String fileName, String propName)
     {
-        if (debug)
-            timeLog.add(String.format("\t>> PlaylistBuilder.fileProps(%s, %s): thread '%s'%n", fileName, propName, Thread.currentThread()));
+        if (DebugLog.enabled(DebugLog.Level.TRACE))
+            DebugLog.log(DebugLog.Level.TRACE, "\t>> PlaylistBuilder.fileProps(%s, %s): thread '%s'%n", fileName, propName, Thread.currentThread().getName());
 
         long totalSeconds;
 
@@ -189,33 +194,96 @@ public class PlaylistBuilder {
         }
         catch (Exception e)
         {
-            if (debug)
-                timeLog.add(String.format("\t   PlaylistBuilder.fileProps(%s, %s): exception %s%n", fileName, propName, e.getMessage()));
+            if (DebugLog.enabled(DebugLog.Level.TRACE))
+                DebugLog.log(DebugLog.Level.TRACE, "\t   PlaylistBuilder.fileProps(%s, %s): exception %s%n", fileName, propName, e.getMessage());
         }
 
-        if (debug)
-            timeLog.add(String.format("\t<< PlaylistBuilder.fileProps(%s, %s): return '%s'%n", fileName, propName, propValue));
+        if (DebugLog.enabled(DebugLog.Level.TRACE))
+            DebugLog.log(DebugLog.Level.TRACE, "\t<< PlaylistBuilder.fileProps(%s, %s): return '%s'%n", fileName, propName, propValue);
         return propValue;
     }
 
+    /**
+     * Start bounded-memory mode, before the scan.  The ceiling is shared by the record buffers of the three
+     * category maps, the artist map gets half since most tracks are listed under an artist and an album artist.
+     * The temporary files are removed at exit.
+     * @param ceilingBytes Heap for the track lists of the category maps
+     * @param spillRoot Folder for the temporary files, null for the system temporary folder
+     * @return false if the temporary folder could not be created
+     */
+    public static boolean startSpill(long ceilingBytes, String spillRoot)
+    {
+        Path spillDir;
+        try
+        {
+            spillDir = (spillRoot == null) ? Files.createTempDirectory("playlist-manager-spill")
+                    : Files.createTempDirectory(Path.of(spillRoot), "playlist-manager-spill");
+        }
+        catch (IOException e)
+        {
+            System.out.printf("%n* * * Temporary folder for the category lists could not be created: %s * * *%n", e.getMessage());
+            return false;
+        }
+
+        genreSpill = new CategorySpill("genre", spillDir, ceilingBytes / 4, name -> genreTags.canonicalId(name));
+        artistSpill = new CategorySpill("artist", spillDir, ceilingBytes / 2, name -> artistTags.canonicalId(name));
+        folderSpill = new CategorySpill("folder", spillDir, ceilingBytes / 4, path -> tracks.directories.find(path));
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            genreSpill.close();
+            artistSpill.close();
+            folderSpill.close();
+            spillDir.toFile().delete();
+        }));
+
+        return true;
+    }
+
+    /**
+     * Track IDs of one category.  In bounded-memory mode the track lists of the category maps are read from
+     * their spill, the map itself only holds the category names.
+     * @param categoryMap Category map, or a map built for one playlist
+     * @param category Category name
+     * @return The track IDs, empty if the category is not in the map
+     */
+    public static int[] trackIds(Map<String, IntList> categoryMap, String category)
+    {
+        CategorySpill spill = (categoryMap == genreMap) ? genreSpill
+                : (categoryMap == artistMap) ? artistSpill
+                : (categoryMap == folderMap) ? folderSpill : null;
+
+        if (spill != null)
+            return spill.tracks(category);
+
+        IntList trackList = categoryMap.get(category);
+        return (trackList == null) ? new int[0] : trackList.toArray();
+    }
+
     /**
      * Create the new playlist file.
      * @param categoryArray An array of category (artist | genre) values, used as keys into the hash of collected files
-     * @param bufferedWriter Write object connected to the new output file
+     * @param categoryMap Map of category values to the track IDs of the associated media files
+     * @param playlistWriter Write object connected to the new output file
      */
-    public static boolean fileWriter(ArrayList<String> categoryArray, HashMap<String, ArrayList<String>> categoryMap, BufferedWriter bufferedWriter, String playlistFile) {
-        boolean result = true;
-        boolean finished = false;
-        boolean returnCode = false;
+    public static boolean fileWriter(ArrayList<String> categoryArray, Map<String, IntList> categoryMap, PlaylistWriter playlistWriter, String playlistFile) {
+        return fileWriter(categoryArray, categoryMap, playlistWriter, playlistFile, prefix, true);
+    }
 
-        StringBuilder filePath;
-        String mp3FileDuration;
-        String mp3FileTitle = "";
-        String playlistEntry;
-        File fileObj;
+    /**
+     * Create a playlist file for a given relative path prefix.   Playlists in different folders can be written
+     * at the same time, the track table and category maps are only read.
+     * @param categoryArray Category values to include
+     * @param categoryMap Map of category values to the track IDs of the associated media files
+     * @param playlistWriter Write object connected to the new output file
+     * @param playlistFile Name of the playlist file
+     * @param pathPrefix "." or "..", see pathPrefix()
+     * @param showCategories List the categories and their track counts on the console
+     */
+    public static boolean fileWriter(List<String> categoryArray, Map<String, IntList> categoryMap, PlaylistWriter playlistWriter, String playlistFile, String pathPrefix, boolean showCategories) {
+        String mp3FileName;
 
-        if (debug)
-            timeLog.add(String.format("\t%s: PlaylistBuilder.fileWriter().begin%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS)));
+        if (DebugLog.enabled(DebugLog.Level.DEBUG))
+            DebugLog.log(DebugLog.Level.DEBUG, "\t%s: PlaylistBuilder.fileWriter().begin%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS));
 
         /*
          * Prefix is either "." (if the music root and playlist home path are =) or ".." (if they're not).
@@ -225,186 +293,208 @@ public class PlaylistBuilder {
          * Condition #2:
          * 		Music root = /device/home/music
          * 		Playlist home = /device/home/playlists
+         *
+         * The relative path of a folder is built once from its parent's, the first time a track in it is written:
+         *      ./Passport, ./Passport/Live      or      ../music/Passport, ../music/Passport/Live
          */
-        int pathStart = (mp3PathLen - prefix.length()) + 1;
+        int rootId = tracks.directories.find(mediaRootPath);
+        String rootPrefix = pathPrefix.equals(".") ? pathPrefix : pathPrefix + "/" + mediaRootName;
+        String[] relativeDirs = new String[tracks.directories.size()];
 
         /*
-         * Loop through selected categories
+         * When duplicates are collapsed, a track in several of the selected categories is written once,
+         * and so is a group of tracks with the same audio: the first one reached is written
          */
-        System.out.printf("Added to playlist %s: %n", playlistFile);
-        ArrayList<String> fileList;
-        for (String entry : categoryArray) {
-            /*
-             * Each category value is a key into the hash map.  Returned value is array of file paths: "<mp3 duration>,<file path>"
-             */
-            fileList = categoryMap.get(entry);
-
-            System.out.printf("\t%s (%d)%n", entry, fileList.size());
-            for (String fileEntry : fileList) {
-                int findComma = fileEntry.indexOf(",");
-
-                mp3FileDuration = fileEntry.substring(0, findComma++);
-                fileObj = new File(fileEntry.substring(findComma));
-
-                /*
-                 * Extract the file name and remove the file extension
-                 */
-                try {
-                    mp3FileTitle = fileObj.getName().substring(0, (fileObj.getName().length() - 4));
-                } catch (Exception e) {
-                    System.out.printf("Error file includes a comma in its name, please rename it: '%s' -> '%s'%n", fileEntry, fileObj.getName());
-                }
-
-                filePath = new StringBuilder(prefix);
+        BitSet writtenGroups = collapseDuplicates ? new BitSet(tracks.size()) : null;
 
+        /*
+         * Loop through selected categories
+         */
+        if (showCategories)
+            System.out.printf("Added to playlist %s: %n", playlistFile);
+        int[] trackList;
+        try {
+            for (String entry : categoryArray) {
                 /*
-                 * Tokenize the path to the file
+                 * Each category value is a key into the hash map.  Returned value is the list of track IDs,
+                 * the path and duration of each track are in the track table
                  */
-                try {
-                    mp3FileSplit = fileObj.getCanonicalPath().split(fileSplit);
-                } catch (IOException e) {
-                    System.out.println("Failed to tokenize playlist file path: " + fileEntry.split(",")[1]);
-                    e.printStackTrace();
-                    result = returnCode;
-                    finished = true;
-                    break;
-                }
+                trackList = trackIds(categoryMap, entry);
+
+                if (showCategories)
+                    System.out.printf("\t%s (%d)%n", entry, trackList.length);
+                for (int trackId : trackList) {
+                    if (writtenGroups != null) {
+                        int group = duplicates.group(trackId);
+                        if (writtenGroups.get(group))
+                            continue;
+                        writtenGroups.set(group);
+                    }
 
-                /*
-                 * Rebuild the full path starting with the relative path prefix
-                 */
-                for (int x = pathStart; x < mp3FileSplit.length; x++) {
-                    filePath.append(File.separator).append(mp3FileSplit[x]);
-                }
+                    long writeStart = System.nanoTime();
+                    mp3FileName = tracks.name(trackId);
+
+                    /*
+                     * Write the playlist entry, the title is the file name without the file extension:
+                     *      <blank line>
+                     *      #EXTINF:<seconds>,<title>
+                     *      <relative path>
+                     */
+                    playlistWriter.newLine();
+                    playlistWriter.newLine();
+                    playlistWriter.write("#EXTINF:");
+                    playlistWriter.write(tracks.duration(trackId));
+                    playlistWriter.write(',');
+                    playlistWriter.write(mp3FileName.substring(0, mp3FileName.length() - FormatReaders.extensionLength(mp3FileName)));
+                    playlistWriter.newLine();
+
+                    String relativeDir = relativeDir(tracks.directory(trackId), rootId, rootPrefix, relativeDirs);
+                    if (relativeDir != null) {
+                        playlistWriter.write(relativeDir);
+                        playlistWriter.write('/');
+                        playlistWriter.write(mp3FileName);
+                    }
+                    else {
+                        playlistWriter.write(canonicalRelativePath(tracks.path(trackId), pathPrefix));
+                    }
 
-                /*
-                 * Create the playlist string and write to the file
-                 */
-                playlistEntry = String.format("%s%n#EXTINF:%s,%s%n%s", System.getProperty("line.separator"), mp3FileDuration, mp3FileTitle, filePath.toString().replaceAll(fileSplit, "/"));
-
-                try {
-                    bufferedWriter.write(playlistEntry);
-                } catch (IOException e) {
-                    System.out.println("Cannot write to playlist file: " + fileEntry.split(",")[1]);
-                    e.printStackTrace();
-                    result = false;
-                    finished = true;
-                    break;
+                    ScanMetrics.record(ScanMetrics.Stage.PLAYLIST_WRITE, writeStart);
                 }
             }
-            if (finished) break;
         }
-        if (!finished) {
-            if (debug)
-                timeLog.add(String.format("\t%s: PlaylistBuilder.fileWriter().end%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS)));
-
+        catch (IOException e) {
+            System.out.println("Cannot write to playlist file: " + playlistFile);
+            e.printStackTrace();
+            return false;
         }
-        return result;
+
+        if (DebugLog.enabled(DebugLog.Level.DEBUG))
+            DebugLog.log(DebugLog.Level.DEBUG, "\t%s: PlaylistBuilder.fileWriter().end%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS));
+
+        return true;
     } // end of fileWriter()
 
+    /*
+     * Relative path of a folder below the media root, cached by folder.  Null if the folder is not below the media root.
+     */
+    private static String relativeDir(int dirId, int rootId, String rootPrefix, String[] relativeDirs)
+    {
+        if (dirId == rootId)
+            return rootPrefix;
+
+        if (dirId == PathStore.noParent || rootId == PathStore.noParent)
+            return null;
+
+        if (relativeDirs[dirId] == null)
+        {
+            String parentDir = relativeDir(tracks.directories.parent(dirId), rootId, rootPrefix, relativeDirs);
+            if (parentDir == null)
+                return null;
+
+            relativeDirs[dirId] = parentDir + "/" + tracks.directories.name(dirId);
+        }
+
+        return relativeDirs[dirId];
+    }
+
+    /*
+     * Relative path taken from the canonical path of the file, for files that are not stored below the media root
+     */
+    static String canonicalRelativePath(String mp3FilePath, String pathPrefix) throws IOException
+    {
+        int pathStart = (mp3PathLen - pathPrefix.length()) + 1;
+        String[] mp3FileSplit = new File(mp3FilePath).getCanonicalPath().split(fileSplit);
+
+        StringBuilder filePath = new StringBuilder(pathPrefix);
+        for (int x = pathStart; x < mp3FileSplit.length; x++)
+            filePath.append('/').append(mp3FileSplit[x]);
+
+        return filePath.toString();
+    }
+
     /**
-     * Special routine for genre property.   If available, add it to a hashmap that connects genre names to
-     * the associated media files
+     * Special routine for genre property.   If available, add it to a map that connects genre names to
+     * the track IDs of the associated media files
      * @param fileName Path to the current media file
      * @param mp3Genre String containing the genre value
-     * @param mp3Duration String containing the duration of the file in seconds
+     * @param trackId ID of the file in the track table
      */
-    public static void genreSave(String fileName, String mp3Genre, String mp3Duration)
+    public static void genreSave(String fileName, String mp3Genre, int trackId)
     {
-        if (debug)
-            timeLog.add(String.format(">> %s: PlaylistBuilder.genreSave(%s, %s, %s): thread = '%s'%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileName, mp3Genre, mp3Duration, Thread.currentThread()));
+        if (DebugLog.enabled(DebugLog.Level.TRACE))
+            DebugLog.log(DebugLog.Level.TRACE, ">> %s: PlaylistBuilder.genreSave(%s, %s, %s): thread = '%s'%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileName, mp3Genre, trackId, Thread.currentThread().getName());
 
         if (mp3Genre == null || mp3Genre.isEmpty())
         {
             fileErrors.add(String.format("%s has no genre property", fileName));
-            if (debug)
-                timeLog.add(String.format("<< %s: PlaylistBuilder.genreSave(%s, %s, %s)%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileName, mp3Genre, mp3Duration));
+            if (DebugLog.enabled(DebugLog.Level.TRACE))
+                DebugLog.log(DebugLog.Level.TRACE, "<< %s: PlaylistBuilder.genreSave(%s, %s, %s)%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileName, mp3Genre, trackId);
 
             return;
         }
 
         /*
-         * Store the duration with the file path, so we don't have to make another
-         * call to extract it later
-         */
-        String outputLine = String.format("%s,%s", mp3Duration, fileName);
-
-        /*
-         * Save the file under the specific genre property of the file.
+         * Save the file under the canonical name of the genre property of the file.
          * Genre property could be missing, print an error msg if so.
          * Note, Only one genre property value is processed.
          */
-        if (genreMap.containsKey(mp3Genre))
+        String genre = genreTags.category(mp3Genre);
+        if (genreSpill != null)
         {
-            genreMap.get(mp3Genre).add(outputLine);
-            if (debug)
-                timeLog.add(String.format("   %s: PlaylistBuilder.genreSave(%s, %s, %s): update, %s includes %s%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileName, mp3Genre, mp3Duration, mp3Genre, outputLine));
+            genreMap.putIfAbsent(genre, spilledTracks);
+            genreSpill.add(genreTags.canonical(genreTags.raw(mp3Genre)), trackId);
         }
         else
         {
-            ArrayList<String> fileList = new ArrayList<>();
-
-            fileList.add(outputLine);
-            genreMap.put(mp3Genre, fileList);
-            genreListing.add(mp3Genre);
-
-            if (debug)
-                timeLog.add(String.format("   %s: PlaylistBuilder.genreSave(%s, %s, %s): new, %s = %s%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileName, mp3Genre, mp3Duration, mp3Genre, outputLine));
+            genreMap.computeIfAbsent(genre, key -> new IntList()).add(trackId);
         }
 
-        if (debug)
-            timeLog.add(String.format("<< %s: PlaylistBuilder.genreSave(%s, %s, %s)%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileName, mp3Genre, mp3Duration));
+        if (DebugLog.enabled(DebugLog.Level.TRACE))
+            DebugLog.log(DebugLog.Level.TRACE, "   %s: PlaylistBuilder.genreSave(%s, %s, %s): added to %s%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileName, mp3Genre, trackId, genre);
+
+        if (DebugLog.enabled(DebugLog.Level.TRACE))
+            DebugLog.log(DebugLog.Level.TRACE, "<< %s: PlaylistBuilder.genreSave(%s, %s, %s)%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileName, mp3Genre, trackId);
     }
 
     /**
-     * Special routine for artist property.   If available, add it to a hashmap that connects artist names to
-     * the associated media files
+     * Special routine for artist property.   If available, add it to a map that connects artist names to
+     * the track IDs of the associated media files
      * @param fileName Path to the current media file
      * @param mp3Artist String containing the artist name
-     * @param mp3Duration String containing the duration of the file in seconds
+     * @param trackId ID of the file in the track table
      */
-    public static void artistSave(String fileName, String mp3Artist, String mp3Duration, boolean flagEmpty)
+    public static void artistSave(String fileName, String mp3Artist, int trackId, boolean flagEmpty)
     {
-        if (debug)
-            timeLog.add(String.format(">> %s: PlaylistBuilder.artistSave(%s, %s, %s): thread = '%s'%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileName, mp3Artist, mp3Duration, Thread.currentThread()));
+        if (DebugLog.enabled(DebugLog.Level.TRACE))
+            DebugLog.log(DebugLog.Level.TRACE, ">> %s: PlaylistBuilder.artistSave(%s, %s, %s): thread = '%s'%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileName, mp3Artist, trackId, Thread.currentThread().getName());
 
         if (mp3Artist == null || mp3Artist.isEmpty())
         {
             if (flagEmpty)
                 fileErrors.add(String.format("%s has no artist property", fileName));
 
-            if (debug)
-                timeLog.add(String.format("<< %s: PlaylistBuilder.artistSave(%s, %s, %s)%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileName, mp3Artist, mp3Duration));
+            if (DebugLog.enabled(DebugLog.Level.TRACE))
+                DebugLog.log(DebugLog.Level.TRACE, "<< %s: PlaylistBuilder.artistSave(%s, %s, %s)%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileName, mp3Artist, trackId);
 
             return;
         }
 
         /*
-         * Store the duration with the file path, so we don't have to make another
-         * call to extract it later
-         */
-        String outputLine = String.format("%s,%s", mp3Duration, fileName);
-
-
-        /*
-         * Save it under the specific artist property of the file.
+         * Save it under the canonical name of the artist property of the file.
          * Artist property could be missing, print an error msg if so.
          */
-        if (artistMap.containsKey(mp3Artist))
+        if (artistSpill != null)
         {
-            artistMap.get(mp3Artist).add(outputLine);
+            artistMap.putIfAbsent(artistTags.category(mp3Artist), spilledTracks);
+            artistSpill.add(artistTags.canonical(artistTags.raw(mp3Artist)), trackId);
         }
         else
         {
-            ArrayList<String> fileList = new ArrayList<>();
-
-            fileList.add(outputLine);
-            artistMap.put(mp3Artist, fileList);
-            artistListing.add(mp3Artist);
+            artistMap.computeIfAbsent(artistTags.category(mp3Artist), key -> new IntList()).add(trackId);
         }
 
-        if (debug)
-            timeLog.add(String.format("<< %s: PlaylistBuilder.artistSave(%s, %s, %s)%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileName, mp3Artist, mp3Duration));
+        if (DebugLog.enabled(DebugLog.Level.TRACE))
+            DebugLog.log(DebugLog.Level.TRACE, "<< %s: PlaylistBuilder.artistSave(%s, %s, %s)%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileName, mp3Artist, trackId);
     }
 
     /**
@@ -413,63 +503,95 @@ public class PlaylistBuilder {
      * 		that don't warrant their own separate artist folders
      * @param fileName Path to the current media file
      * @param parentFolder String containing the containing folder
-     * @param mp3Duration String containing the duration of the file in seconds
+     * @param trackId ID of the file in the track table
      */
-    public static void folderSave(String fileName, String parentFolder, String mp3Duration)
+    public static void folderSave(String fileName, String parentFolder, int trackId)
     {
-        if (debug)
-            timeLog.add(String.format(">> %s: PlaylistBuilder.folderSave(%s, %s, %s): thread = '%s'%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileName, parentFolder, mp3Duration, Thread.currentThread()));
-
-        /*
-         * Store the duration with the file path, so we don't have to make another
-         * call to extract it later
-         */
-        String outputLine = String.format("%s,%s", mp3Duration, fileName);
+        if (DebugLog.enabled(DebugLog.Level.TRACE))
+            DebugLog.log(DebugLog.Level.TRACE, ">> %s: PlaylistBuilder.folderSave(%s, %s, %s): thread = '%s'%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileName, parentFolder, trackId, Thread.currentThread().getName());
 
         /*
          * Save it under the specific parent folder of the file.
          */
-        if (folderMap.containsKey(parentFolder))
+        if (folderSpill != null)
         {
-            folderMap.get(parentFolder).add(outputLine);
+            folderMap.putIfAbsent(parentFolder, spilledTracks);
+            folderSpill.add(tracks.directory(trackId), trackId);
         }
         else
         {
-            ArrayList<String> fileList = new ArrayList<>();
-
-            fileList.add(outputLine);
-            folderMap.put(parentFolder, fileList);
-            folderListing.add(parentFolder);
+            folderMap.computeIfAbsent(parentFolder, key -> new IntList()).add(trackId);
         }
 
-        if (debug)
-            timeLog.add(String.format("<< %s: PlaylistBuilder.folderSave(%s, %s, %s)%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileName, parentFolder, mp3Duration));
+        if (DebugLog.enabled(DebugLog.Level.TRACE))
+            DebugLog.log(DebugLog.Level.TRACE, "<< %s: PlaylistBuilder.folderSave(%s, %s, %s)%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileName, parentFolder, trackId);
+    }
+
+    /**
+     * Audio file filter shared by the tree walk and the file estimate
+     * @param filePath Path to a directory entry
+     * @return boolean indicating the entry is a candidate media file
+     */
+    static boolean isAudioFile(String filePath)
+    {
+        return FormatReaders.isAudioFile(filePath);
     }
 
-    public static long fileCount(String fileName)
+    /**
+     * Estimate the number of media files below the root directory, without walking the whole tree.
+     * A sample of the top-level folders is walked and the average is applied to the remaining folders.
+     * @param fileName Path to the root of the media files
+     * @return Estimated number of media files, or 0 if no estimate could be made
+     */
+    public static long fileEstimate(String fileName)
     {
-        if (debug)
-            timeLog.add(String.format(">> %s: PlaylistBuilder.fileCount(%s)%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileName));
+        if (DebugLog.enabled(DebugLog.Level.DEBUG))
+            DebugLog.log(DebugLog.Level.DEBUG, ">> %s: PlaylistBuilder.fileEstimate(%s)%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileName);
 
         long fileNumber = 0;
+        long sampleFiles = 0;
 
         File dirTest = new File(fileName);
-        if (!dirTest.isDirectory())
+        File[] topLevel = dirTest.listFiles();
+        if (topLevel == null)
             return 0;
 
-        try (Stream<Path> walk = Files.walk(Paths.get(fileName))) {
+        /*
+         * Media files at the top level are counted directly, folders are sampled at an even interval
+         */
+        List<File> folders = new ArrayList<>();
+        for (File entry: topLevel)
+        {
+            if (entry.isDirectory())
+                folders.add(entry);
+            else if (isAudioFile(entry.getName()))
+                fileNumber++;
+        }
 
-            List<String> fileNamesList = walk.map(Path::toString)
-                    .filter(f -> f.contains(".mp3")||f.contains(".wma")||f.contains(".MP3")||f.contains(".WMA"))
-                    .toList();
+        if (folders.isEmpty())
+            return fileNumber;
 
-            fileNumber = fileNamesList.size();
-        } catch (IOException e) {
-            e.printStackTrace();
+        int sampleSize = Math.min(estimateSample, folders.size());
+        int sampleStep = folders.size() / sampleSize;
+
+        for (int sample = 0; sample < sampleSize; sample++)
+        {
+            try (Stream<Path> walk = Files.walk(folders.get(sample * sampleStep).toPath()))
+            {
+                sampleFiles += walk.map(Path::toString)
+                        .filter(PlaylistBuilder::isAudioFile)
+                        .count();
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
         }
 
-        if (debug)
-            timeLog.add(String.format("<< %s: PlaylistBuilder.fileCount(%s)%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileName));
+        fileNumber += (sampleFiles * folders.size()) / sampleSize;
+
+        if (DebugLog.enabled(DebugLog.Level.DEBUG))
+            DebugLog.log(DebugLog.Level.DEBUG, "<< %s: PlaylistBuilder.fileEstimate(%s): ~%d%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileName, fileNumber);
         return fileNumber;
     }
 
@@ -485,89 +607,282 @@ public class PlaylistBuilder {
         @Override
         public void run() {
 
-            if (filePath.toLowerCase().contains(".wma"))
-            {
-                fileErrors.add(String.format("%s is in an incompatible format, convert to MP3 format for processing", filePath));
-                return;
-            }
-
-            Instant start = Instant.now();
-            LocalTime startTime = java.time.LocalTime.now();
-            if (debug)
-                timeLog.add(String.format(">> %s: PlaylistBuilder.SaveAudioProperties2.run(%s): thread '%s'%n", startTime.truncatedTo(ChronoUnit.MILLIS), filePath, Thread.currentThread()));
+            long start = System.nanoTime();
+            if (DebugLog.enabled(DebugLog.Level.TRACE))
+                DebugLog.log(DebugLog.Level.TRACE, ">> %s: PlaylistBuilder.SaveAudioProperties2.run(%s): thread '%s'%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), filePath, Thread.currentThread().getName());
 
-            String mp3Duration;
+            int mp3Duration;
             String mp3Genre;
             String mp3Artist;
             String mp3AlbumArtist;
+            AudioFingerprint fingerprint;
+
+            File dirTest = new File(filePath);
+            long fileSize = dirTest.length();
+            long fileModified = dirTest.lastModified();
+
+            /*
+             * Only parse the file if it is new or has changed since the catalog was saved
+             */
+            MediaCatalog.Entry catalogEntry = catalog.lookup(filePath, fileSize, fileModified);
+            if (catalogEntry == null)
+            {
+                /*
+                 * Read the headers with the reader for the file format if possible, the full parse streams the whole file.
+                 * The audio is hashed on the same open channel when duplicates are collapsed.
+                 */
+                Id3TagReader.Tags tags = FormatReaders.read(filePath, collapseDuplicates);
+                fingerprint = (tags != null && tags.fingerprint != null) ? tags.fingerprint
+                        : (collapseDuplicates ? AudioFingerprint.unavailable : null);
+                if (tags != null && tags.lengthMillis >= 0)
+                {
+                    mp3Duration = (int) (tags.lengthMillis / 1000);
+                    mp3Genre = tags.genre;
+                    mp3Artist = tags.artist;
+                    mp3AlbumArtist = tags.albumArtist;
+                }
+                else
+                {
+                    /*
+                     * Files the format readers cannot handle are left to Tika, MP3 files to the MP3 parser and
+                     * anything else to the parsers found on the class path
+                     */
+                    boolean mp3File = filePath.toLowerCase(Locale.ROOT).endsWith(".mp3");
+                    Metadata meta = new Metadata();
+                    Parser parser = mp3File ? new Mp3Parser() : new AutoDetectParser();
+                    ParseContext parseCtx = new ParseContext();
+                    InputStream input;
+
+                    try {
+                        long openStart = System.nanoTime();
+                        input = new FileInputStream(filePath);
+                        ScanMetrics.record(ScanMetrics.Stage.OPEN, openStart);
 
-            Metadata meta = new Metadata();
-            Mp3Parser parser = new Mp3Parser();
-            ParseContext parseCtx = new ParseContext();
-            InputStream input;
+                        // The full parse reads the tags and the length in one pass, it is counted as a tag parse
+                        long parseStart = System.nanoTime();
+                        parser.parse(input, handler, meta, parseCtx);
+                        ScanMetrics.record(ScanMetrics.Stage.TAG_PARSE, parseStart);
 
-            try {
-                input = new FileInputStream(filePath);
-                parser.parse(input, handler, meta, parseCtx);
+                        input.close();
+                    }
+                    catch (IOException | TikaException | SAXException e)
+                    {
+                        e.printStackTrace();
+                    }
 
-                input.close();
+                    // The MP3 parser gives the duration in milliseconds, the other parsers in seconds
+                    String newDuration = meta.get("xmpDM:duration");
+                    if (newDuration == null)
+                    {
+                        fileErrors.add(String.format("%s is in an incompatible format, its length could not be read", filePath));
+                        return;
+                    }
+                    mp3Duration = (int) (Long.parseLong(newDuration.split("[.]")[0]) / (mp3File ? 1000 : 1));
+                    mp3Genre = meta.get("xmpDM:genre");
+                    mp3Artist = meta.get("xmpDM:artist");
+                    mp3AlbumArtist = meta.get("xmpDM:albumArtist");
+                }
+
+                catalog.update(filePath, new MediaCatalog.Entry(fileSize, fileModified, mp3Duration, mp3Genre, mp3Artist, mp3AlbumArtist, fingerprint));
             }
-            catch (IOException | TikaException | SAXException e)
+            else
             {
-                e.printStackTrace();
+                mp3Duration = catalogEntry.duration;
+                mp3Genre = catalogEntry.genre();
+                mp3Artist = catalogEntry.artist();
+                mp3AlbumArtist = catalogEntry.albumArtist();
+                fingerprint = catalogEntry.fingerprint;
             }
 
-            String newDuration = meta.get("xmpDM:duration").split("[.]")[0];
-            mp3Duration = Long.toString((Long.parseLong(newDuration) / 1000));
-            mp3Genre = meta.get("xmpDM:genre");
-            mp3Artist = meta.get("xmpDM:artist");
-            mp3AlbumArtist = meta.get("xmpDM:albumArtist");
+            /*
+             * The category maps take concurrent updates, so no lock is needed to index the file
+             */
+            long insertStart = System.nanoTime();
+            int trackId = tracks.add(filePath, mp3Duration);
+
+            genreSave(filePath, mp3Genre, trackId);
+            artistSave(filePath, mp3Artist, trackId, true);
+            artistSave(filePath, mp3AlbumArtist, trackId, false);
+            folderSave(filePath, dirTest.getParent(), trackId);
+            duplicates.add(fingerprint, trackId);
+            ScanMetrics.record(ScanMetrics.Stage.INDEX_INSERT, insertStart);
+
+            long fileCount = fileProgress.incrementAndGet();
+            if (fileCount%progressBarStep == 0)
+                showProgress();
+
+            if (DebugLog.enabled(DebugLog.Level.TRACE))
+                DebugLog.log(DebugLog.Level.TRACE, "<< %s: PlaylistBuilder.SaveAudioProperties2.run(%s): (%d/%d) thread '%s' finished in %.3f sec%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), filePath, fileCount, fileTotal, Thread.currentThread().getName(), (System.nanoTime() - start) / 1e9);
+        }
+    }
 
-            File dirTest = new File(filePath);
-            synchronized(lock)
-            {
-                genreSave(filePath, mp3Genre, mp3Duration);
-                artistSave(filePath, mp3Artist, mp3Duration, true);
-                artistSave(filePath, mp3AlbumArtist, mp3Duration, false);
-                folderSave(filePath, dirTest.getParent(), mp3Duration);
+    /**
+     * Running count of processed files.  If an estimate of the total is available, show it as well.
+     */
+    static void showProgress()
+    {
+        if (fileTotal > 0)
+            System.out.printf("\r%s: (%d/~%d)", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileProgress.get(), fileTotal);
+        else
+            System.out.printf("\r%s: (%d)", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileProgress.get());
+    }
 
-                ++fileProgress;
-                if (fileProgress%progressBarStep == 0)
-                    System.out.printf("\r%s: (%s/%d)", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), fileProgress, fileTotal);
+    /**
+     * Extract and index the audio properties of one file.
+     * A file that fails to parse must not stop the scan, so runtime errors are recorded as file errors.
+     * @param filePath Path to the media file
+     */
+    static void scanFile(String filePath)
+    {
+        try
+        {
+            new SaveAudioProperties2(filePath).run();
+        }
+        catch (RuntimeException e)
+        {
+            fileErrors.add(String.format("%s could not be processed: %s", filePath, e));
+        }
+    }
 
-                Instant finish = Instant.now();
-                long timeElapsed = Duration.between(start, finish).toMillis();
+    /**
+     * Worker that takes media file paths from the scan queue until it receives the end-of-scan marker
+     */
+    private static class ScanWorker implements Runnable
+    {
+        final BlockingQueue<String> scanQueue;
+
+        public ScanWorker(BlockingQueue<String> queueArg)
+        {
+            scanQueue = queueArg;
+        }
 
-                LocalTime doneTime = java.time.LocalTime.now();
-                if (debug)
-                    timeLog.add(String.format("<< %s: PlaylistBuilder.SaveAudioProperties2.run(%s): (%d/%d) thread '%s' finished in %.3f sec%n", doneTime.truncatedTo(ChronoUnit.MILLIS), filePath, fileProgress, fileTotal, Thread.currentThread(), (timeElapsed / 1000.0)));
+        @Override
+        public void run() {
+            try
+            {
+                String filePath;
+                while (!(filePath = scanQueue.take()).equals(endOfScan))
+                {
+                    scanFile(filePath);
+                }
             }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Executor with one virtual thread per task.  Virtual threads need Java 21, older runtimes get a
+     * cached pool of platform threads, which the scan limit keeps bounded.
+     */
+    static ExecutorService virtualExecutor()
+    {
+        try
+        {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            System.out.println("Virtual threads are not available in this Java runtime, using platform threads");
+            return Executors.newCachedThreadPool();
         }
     }
 
+    /**
+     * Single pass over the media tree.  The calling thread walks the tree and hands each media file to the scan executor:
+     *      Pool mode: a bounded queue drained by a fixed number of scan workers
+     *      Virtual mode: one virtual thread per file, a semaphore caps the number of files being read at once
+     * Either way memory use depends on the scan limit, not on the number of files in the library.
+     * @param treeStart Path to the root of the media files
+     */
     public static void walkFileTreeCall(String treeStart)
     {
-        if (debug)
-            timeLog.add(String.format(">> %s: PlaylistBuilder.walkFileTreeCall(%s)%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), treeStart));
+        if (DebugLog.enabled(DebugLog.Level.DEBUG))
+            DebugLog.log(DebugLog.Level.DEBUG, ">> %s: PlaylistBuilder.walkFileTreeCall(%s): %s mode, limit %d%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), treeStart, virtualScan ? "virtual" : "pool", scanLimit);
 
-        List<Callable<Object>> threadSet = new ArrayList<>((int) PlaylistBuilder.fileTotal);
+        BlockingQueue<String> scanQueue = new ArrayBlockingQueue<>(scanQueueCapacity);
+        Semaphore scanPermits = new Semaphore(scanLimit);
 
         System.out.printf("%s: Starting%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS));
 
+        if (virtualScan)
+        {
+            executor = virtualExecutor();
+        }
+        else
+        {
+            executor = Executors.newFixedThreadPool(scanLimit);
+            for (int worker = 0; worker < scanLimit; worker++)
+                executor.execute(new ScanWorker(scanQueue));
+        }
+
         try (Stream<Path> walk = Files.walk(Paths.get(treeStart)))
         {
-            walk.map(Path::toString)
-                    .filter(f -> f.contains(".mp3")||f.contains(".wma")||f.contains(".MP3")||f.contains(".WMA"))
-                    .forEach(filePath -> threadSet.add(Executors.callable(new SaveAudioProperties2(filePath))));
+            Iterator<String> mediaFiles = walk.map(Path::toString)
+                    .filter(PlaylistBuilder::isAudioFile)
+                    .iterator();
 
-            @SuppressWarnings("unused")
-            List<Future<Object>> answers = executor.invokeAll(threadSet);
-            executor.shutdown();
+            long walkStart = System.nanoTime();
+            while (mediaFiles.hasNext())
+            {
+                String filePath = mediaFiles.next();
+                ScanMetrics.record(ScanMetrics.Stage.WALK, walkStart);
+
+                if (virtualScan)
+                {
+                    scanPermits.acquire();
+                    executor.execute(() -> {
+                        try
+                        {
+                            scanFile(filePath);
+                        }
+                        finally
+                        {
+                            scanPermits.release();
+                        }
+                    });
+                }
+                else
+                {
+                    scanQueue.put(filePath);
+                }
+
+                // The time spent waiting for the scan to take the file is not part of the walk
+                walkStart = System.nanoTime();
+            }
         }
-        catch (IOException | InterruptedException e)
+        catch (IOException | UncheckedIOException e)
         {
             e.printStackTrace();
         }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        /*
+         * In pool mode, one end-of-scan marker per worker.  Then wait for the remaining files to finish.
+         */
+        try
+        {
+            if (!virtualScan)
+            {
+                for (int worker = 0; worker < scanLimit; worker++)
+                    scanQueue.put(endOfScan);
+            }
+
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        showProgress();
+        buildListings();
 
 		/*
 		 *
@@ -607,11 +922,42 @@ public class PlaylistBuilder {
          * catch (IOException e) { e.printStackTrace(); }
          */
 
-        if (debug) {
-            timeLog.add(String.format("<< %s: PlaylistBuilder.walkFileTreeCall(%s)%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), treeStart));
-        } else {
-            return;
+        if (DebugLog.enabled(DebugLog.Level.DEBUG))
+            DebugLog.log(DebugLog.Level.DEBUG, "<< %s: PlaylistBuilder.walkFileTreeCall(%s)%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), treeStart);
+    }
+
+    /**
+     * Category listings for the selection prompts, taken from the map keys once the scan is complete
+     */
+    static void buildListings()
+    {
+        // Tracks indexed under a name that changed later in the scan are moved to the final name
+        genreTags.settle(genreMap);
+        artistTags.settle(artistMap);
+        duplicates.settle();
+
+        // The spilled track lists are merged once the scan has added every track
+        try
+        {
+            for (CategorySpill spill: new CategorySpill[] {genreSpill, artistSpill, folderSpill})
+            {
+                if (spill != null)
+                    spill.finish();
+            }
         }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("Category spill could not be merged", e);
+        }
+
+        genreListing = new ArrayList<>(genreMap.keySet());
+        artistListing = new ArrayList<>(artistMap.keySet());
+        folderListing = new ArrayList<>(folderMap.keySet());
+
+        // Sorted once here, the category selector only searches them
+        genreIndex = new CategoryIndex(genreListing);
+        artistIndex = new CategoryIndex(artistListing);
+        folderIndex = new CategoryIndex(folderListing);
     }
 
     /**
@@ -619,29 +965,61 @@ public class PlaylistBuilder {
      * Set the prefix (current vs parent) based on the path length;
      */
     public static void setPathLengths(File mediaRoot, File playlistRoot)
+    {
+        /*
+         * Calculate the path lengths to know if output paths can be correctly constructed
+         */
+        setMediaRoot(mediaRoot);
+        playlistPathLen = playlistRoot.getParent().split(fileSplit).length;
+
+        /*
+         * If the path to the music folders and the path to the playlist file are the same,
+         * adjust the path prefix
+         */
+        prefix = pathPrefix(playlistRoot);
+    }
+
+    /**
+     * Record the root of the media files, the playlist entries are relative to it
+     * @param mediaRoot Root of the media files, as passed to walkFileTreeCall()
+     */
+    public static void setMediaRoot(File mediaRoot)
     {
         try
         {
-            /*
-             * Calculate the path lengths to know if output paths can be correctly constructed
-             */
-            mp3PathLen = mediaRoot.getCanonicalPath().split(fileSplit).length;
-            playlistPathLen = playlistRoot.getParent().split(fileSplit).length;
-
-            /*
-             * If the path to the music folders and the path to the playlist file are the same,
-             * adjust the path prefix
-             */
-            if (mediaRoot.getCanonicalPath().equals(playlistRoot.getParent()))
-                prefix = ".";
-            else
-                prefix = "..";
+            mediaRootCanonical = mediaRoot.getCanonicalPath();
         }
         catch (IOException e1)
         {
             e1.printStackTrace();
             System.exit(0);
         }
+
+        mp3PathLen = mediaRootCanonical.split(fileSplit).length;
+
+        // The scan stored the media files under the root path as given, the ".." prefix names the canonical root
+        mediaRootPath = mediaRoot.getPath();
+        mediaRootName = new File(mediaRootCanonical).getName();
+    }
+
+    /**
+     * Relative path prefix for a playlist file: "." if it is in the media root, ".." if it is in a sibling folder
+     * @param playlistFile Playlist file
+     * @return The prefix
+     */
+    public static String pathPrefix(File playlistFile)
+    {
+        return mediaRootCanonical.equals(playlistFile.getParent()) ? "." : "..";
+    }
+
+    /**
+     * A playlist file must be at the same folder level as the media root
+     * @param playlistFile Playlist file
+     * @return true if entries relative to the playlist file can be built
+     */
+    public static boolean validPlaylistPath(File playlistFile)
+    {
+        return playlistFile.getParent() != null && playlistFile.getParent().split(fileSplit).length == mp3PathLen;
     }
 
     public static void showMP3Errors()
@@ -694,20 +1072,103 @@ public class PlaylistBuilder {
      */
     public static void showPlayLists(String pathRoot, String[] dirListing, boolean songDetail)
     {
-        int tokenLength;
         String artistName;
-        String line;
-        String[] playlistEntry;
-        String[] playlistRoot;
-        String entryPath;
-
         HashMap<String, List<String>> artistsInPlaylists = new HashMap<>(200);
-        BufferedReader br;
-        File dirObject;
 
-        if (dirListing == null)
+        File playlistDir = playlistDirectory(pathRoot, dirListing);
+        if (playlistDir == null)
             return;
 
+        String[] playlistRoot = playlistDir.list();
+        PlaylistIndex index = playlistIndex(playlistDir, playlistRoot);
+
+        assert playlistRoot != null;
+        for (String dirEntry: playlistRoot)
+        {
+            PlaylistIndex.Playlist playlist = index.playlists.get(dirEntry);
+            if (playlist == null)
+                continue;
+
+            System.out.printf("%nPlaylist: %s %n", dirEntry);
+            artistName = "";
+
+            for (int entry = 0; entry < playlist.tracks.length; entry++)
+            {
+                if (!artistName.equals(playlist.artists[entry]))
+                {
+                    artistName = playlist.artists[entry];
+                    System.out.printf("\tArtist: %s %n", artistName);
+
+                    if (!artistsInPlaylists.containsKey(artistName))
+                    {
+                        List<String> tempList = new ArrayList<>();
+                        tempList.add(dirEntry);
+                        artistsInPlaylists.put(artistName, tempList);
+                    }
+                    else
+                    {
+                        List<String> tempList = artistsInPlaylists.get(artistName);
+                        if (!tempList.contains(dirEntry))
+                            tempList.add(dirEntry);
+                    }
+                }
+                if (songDetail)
+                    System.out.printf("\t\t%s %n", playlist.tracks[entry]);
+            }
+        }
+
+        for (String artist: artistsInPlaylists.keySet())
+        {
+            System.out.printf("%n%s", artist);
+            List<String> tempList = artistsInPlaylists.get(artist);
+            tempList.forEach(playlist -> System.out.printf("%n\t%s", playlist));
+        }
+
+        showIndexErrors();
+    }
+
+    /**
+     * Display the playlists that contain an artist or a track, from the playlist index
+     * @param pathRoot String path root of the music files
+     * @param dirListing String directory listing of the path root
+     * @param artist Artist folder name to look up, or null
+     * @param track Track title or file name to look up, or null
+     */
+    public static void showPlayListsWith(String pathRoot, String[] dirListing, String artist, String track)
+    {
+        File playlistDir = playlistDirectory(pathRoot, dirListing);
+        if (playlistDir == null)
+            return;
+
+        PlaylistIndex index = playlistIndex(playlistDir, playlistDir.list());
+
+        if (artist != null)
+        {
+            System.out.printf("%nPlaylists with artist '%s':", artist);
+            index.playlistsWithArtist(artist).forEach(playlist -> System.out.printf("%n\t%s", playlist));
+        }
+
+        if (track != null)
+        {
+            System.out.printf("%nPlaylists with track '%s':", track);
+            index.playlistsWithTrack(track).forEach(playlist -> System.out.printf("%n\t%s", playlist));
+        }
+
+        System.out.println();
+        showIndexErrors();
+    }
+
+    /*
+     * Folder holding the playlist files, or null if the media folder is empty
+     */
+    private static File playlistDirectory(String pathRoot, String[] dirListing)
+    {
+        String entryPath;
+        File dirObject;
+
+        if (dirListing == null || dirListing.length == 0)
+            return null;
+
         /* Set the default directory listing.
          * This assumes the following structure:
          * 		/root/
@@ -718,7 +1179,6 @@ public class PlaylistBuilder {
          * 			PlaylistOnw.m3u
          * 			PlaylistTwo.m3u
          */
-        playlistRoot = dirListing;
 
         /*
          * Use the first directory entry as the starting point.
@@ -743,84 +1203,34 @@ public class PlaylistBuilder {
          * 				PlaylistTwo.m3u
          */
         if (dirObject.getName().equalsIgnoreCase("Music"))
-        {
-            entryPath = dirObject.getParent() + File.separator + "Playlists";
-            dirObject = new File(entryPath);
-            pathRoot = entryPath;
-            playlistRoot = dirObject.list();
-        }
-
-        assert playlistRoot != null;
-        for (String dirEntry: playlistRoot)
-        {
-            entryPath = pathRoot + File.separator + dirEntry;
-            dirObject = new File(entryPath);
+            dirObject = new File(dirObject.getParent() + File.separator + "Playlists");
 
-            if (!dirObject.isDirectory())
-            {
+        return dirObject.isDirectory() ? dirObject : null;
+    }
 
-                m = pM3U.matcher(dirObject.getName());
+    /*
+     * Saved playlist index, refreshed for the playlists that changed since it was written
+     */
+    private static PlaylistIndex playlistIndex(File playlistDir, String[] playlistRoot)
+    {
+        Path indexPath = PlaylistIndex.defaultPath(playlistDir.toPath());
+        PlaylistIndex index = new PlaylistIndex();
 
-                if (m.matches())
-                {
-                    System.out.printf("%nPlaylist: %s %n", dirObject.getName());
-                    artistName = "";
+        index.load(indexPath);
+        if (index.refresh(playlistDir.toPath(), playlistRoot) || !Files.isRegularFile(indexPath))
+            index.save(indexPath);
 
-                    try {
-                        br = new BufferedReader(new FileReader(dirObject.getCanonicalPath()));
-                        while ((line = br.readLine()) != null)
-                        {
-                            m = pMP3.matcher(line);
-                            if (m.matches())
-                            {
-                                line = line.replace("/", "\\");
-
-                                playlistEntry = line.split(File.separator + File.separator);
-                                tokenLength = playlistEntry.length;
-
-                                if (!artistName.equals(playlistEntry[tokenLength-2]))
-                                {
-                                    artistName = playlistEntry[tokenLength-2];
-                                    System.out.printf("\tArtist: %s %n", artistName);
-
-                                    if (!artistsInPlaylists.containsKey(artistName))
-                                    {
-                                        List<String> tempList = new ArrayList<>();
-                                        tempList.add(dirObject.getName());
-                                        artistsInPlaylists.put(artistName, tempList);
-                                    }
-                                    else
-                                    {
-                                        List<String> tempList = artistsInPlaylists.get(artistName);
-                                        if (!tempList.contains(dirObject.getName()))
-                                        {
-                                            tempList.add(dirObject.getName());
-                                            artistsInPlaylists.put(artistName, tempList);
-                                        }
-                                    }
-                                }
-                                if (songDetail)
-                                    System.out.printf("\t\t%s %n", playlistEntry[tokenLength-1]);
-                            }
-                        }
+        if (DebugLog.enabled(DebugLog.Level.INFO))
+            DebugLog.log(DebugLog.Level.INFO, "Playlist index: %d unchanged, %d parsed, %d removed%n", index.reused, index.parsed, index.removed);
 
-                        br.close();
-                    }
-                    catch (IOException e)
-                    {
-                        e.printStackTrace();
-                        return;
-                    }
-                }
-            }
+        return index;
+    }
 
-        }
+    private static void showIndexErrors()
+    {
+        if (fileErrors.isEmpty())
+            return;
 
-        for (String artist: artistsInPlaylists.keySet())
-        {
-            System.out.printf("%n%s", artist);
-            List<String> tempList = artistsInPlaylists.get(artist);
-            tempList.forEach(playlist -> System.out.printf("%n\t%s", playlist));
-        }
+        showMP3Errors();
     }
 }
@@ -33,34 +33,57 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
 
 import javax.swing.JFileChooser;
 //import javax.swing.filechooser.FileFilter;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 public class PlaylistDriver {
-    static boolean debug = true;
     static long timeStart = 0;
 
     static final String selectAll = "1";
     static final String selectGenre = "2";
     static final String selectArtist = "3";
     static final String selectFolder = "4";
+    static final String selectQuery = "5";
+    static final String selectFit = "6";
+    static final String selectShuffle = "7";
     static final String selectExit = "99";
+    static final int categoryPageSize = 60;
 
     static final String argHelp = "-h";
-    //static final String argDebug = "-d";
+    static final String argDebug = "-d";
+    static final String argDebugLevel = "-d=";
+    static final String argLogFile = "-log=";
     static final String argSaveGenres = "-g";
     static final String argSaveArtists = "-a";
     static final String argShowProps = "-p";
     static final String argShowPlaylistSummary = "-ys";
     static final String argShowPlaylistDetail = "-yd";
+    static final String argFindArtist = "-ya=";
+    static final String argFindTrack = "-yt=";
+    static final String argEstimate = "-e";
+    static final String argRescan = "-r";
+    static final String argVirtualScan = "-v";
+    static final String argScanLimit = "-l=";
+    static final String argBatch = "-b=";
+    static final String argWatch = "-w=";
+    static final String argMetrics = "-m";
+    static final String argMetricsFile = "-m=";
+    static final String argTagFolding = "-n=";
+    static final String argCollapseDuplicates = "-u";
+    static final String argMemoryCeiling = "-x=";
+    static final String argSpillFolder = "-xt=";
+    static final String argCatalogMenus = "-c";
     static boolean onlyFolders = true;
     static boolean onlyFiles = false;
     static File cancelled = null;
@@ -72,8 +95,10 @@ public class PlaylistDriver {
     public static void main(String[] args) {
 
         Scanner keyboard;
-        BufferedWriter bufferedWriter;
+        PlaylistWriter playlistWriter;
         ArrayList<String> selectedCategory = new ArrayList<>();
+        QueryIndex queryIndex = null;
+        Map<String, IntList> queryMap = Map.of();
 
         String fileSplit;
         String playlistType;
@@ -84,6 +109,22 @@ public class PlaylistDriver {
         boolean showFileProps = false;
         boolean showPlayListSummary = false;
         boolean showPlayListDetail = false;
+        boolean estimateFiles = false;
+        boolean fullRescan = false;
+        boolean virtualScan = false;
+        int scanLimit = 0;
+        DebugLog.Level logLevel = DebugLog.Level.OFF;
+        String logFile = DebugLog.defaultLogName;
+        String metricsFile = null;
+        String batchSpec = null;
+        boolean watchLibrary = false;
+        String findArtist = null;
+        String findTrack = null;
+        Set<TagDictionary.Fold> tagFolds = TagDictionary.allFolds;
+        int memoryCeiling = 0;
+        String spillFolder = null;
+        boolean catalogMenus = false;
+        CatalogFile savedCatalog = null;
         boolean fileNew = true;
 
         /*
@@ -110,10 +151,98 @@ public class PlaylistDriver {
                 case argShowProps -> showFileProps = true;
                 case argShowPlaylistSummary -> showPlayListSummary = true;
                 case argShowPlaylistDetail -> showPlayListDetail = true;
-                default -> { }
+                case argEstimate -> estimateFiles = true;
+                case argRescan -> fullRescan = true;
+                case argVirtualScan -> virtualScan = true;
+                case argDebug -> logLevel = DebugLog.Level.DEBUG;
+                case argMetrics -> metricsFile = ScanMetrics.defaultPrefix;
+                case argCollapseDuplicates -> PlaylistBuilder.collapseDuplicates = true;
+                case argCatalogMenus -> catalogMenus = true;
+                default -> {
+                    if (runtimeArg.startsWith(argScanLimit))
+                        scanLimit = parseLimit(runtimeArg.substring(argScanLimit.length()));
+                    else if (runtimeArg.startsWith(argDebugLevel))
+                        logLevel = DebugLog.parseLevel(runtimeArg.substring(argDebugLevel.length()));
+                    else if (runtimeArg.startsWith(argLogFile))
+                        logFile = runtimeArg.substring(argLogFile.length());
+                    else if (runtimeArg.startsWith(argMetricsFile))
+                        metricsFile = runtimeArg.substring(argMetricsFile.length());
+                    else if (runtimeArg.startsWith(argBatch))
+                        batchSpec = runtimeArg.substring(argBatch.length());
+                    else if (runtimeArg.startsWith(argWatch))
+                    {
+                        batchSpec = runtimeArg.substring(argWatch.length());
+                        watchLibrary = true;
+                    }
+                    else if (runtimeArg.startsWith(argFindArtist))
+                        findArtist = runtimeArg.substring(argFindArtist.length());
+                    else if (runtimeArg.startsWith(argFindTrack))
+                        findTrack = runtimeArg.substring(argFindTrack.length());
+                    else if (runtimeArg.startsWith(argTagFolding))
+                        tagFolds = TagDictionary.parseFolds(runtimeArg.substring(argTagFolding.length()));
+                    else if (runtimeArg.startsWith(argSpillFolder))
+                        spillFolder = runtimeArg.substring(argSpillFolder.length());
+                    else if (runtimeArg.startsWith(argMemoryCeiling))
+                        memoryCeiling = parseLimit(runtimeArg.substring(argMemoryCeiling.length()));
+                }
+            }
+        }
+
+        /*
+         * Debug messages are written to the log file in the background while the application runs
+         */
+        DebugLog.start(logLevel, Path.of(logFile));
+
+        /*
+         * Stage metrics are always collected, the files are written at exit if requested
+         */
+        if (metricsFile != null)
+            ScanMetrics.exportOnExit(metricsFile);
+
+        /*
+         * Scan mode, the limit defaults to the thread count in pool mode and the open file count in virtual mode
+         */
+        PlaylistBuilder.virtualScan = virtualScan;
+        if (scanLimit > 0)
+            PlaylistBuilder.scanLimit = scanLimit;
+        else if (virtualScan)
+            PlaylistBuilder.scanLimit = PlaylistBuilder.scanOpenFiles;
+
+        /*
+         * Genre and artist values that fold to the same form are indexed as one category
+         */
+        if (tagFolds == null)
+            System.exit(2);
+        PlaylistBuilder.genreTags = new TagDictionary(true, tagFolds);
+        PlaylistBuilder.artistTags = new TagDictionary(false, tagFolds);
+
+        /*
+         * Bounded-memory mode, the track lists of the category maps are kept on disk
+         */
+        if (memoryCeiling > 0)
+        {
+            if (watchLibrary)
+            {
+                System.out.printf("%n* * * The library cannot be watched with a memory ceiling, the track lists on disk are not updated * * *%n");
+                System.exit(2);
+            }
+
+            if (!PlaylistBuilder.startSpill(memoryCeiling * 1024L * 1024L, spillFolder))
+                System.exit(2);
+        }
+
+        /*
+         * Headless mode, everything comes from the spec file
+         */
+        if (batchSpec != null)
+        {
+            if (catalogMenus)
+            {
+                System.out.printf("%n* * * The saved catalog can only be used in the interactive mode, batch mode always scans * * *%n");
+                System.exit(2);
             }
-            debug = true;
-            PlaylistBuilder.debug = true;
+
+            System.exit(runBatch(batchSpec, fullRescan, estimateFiles, watchLibrary));
         }
 
         keyboard = new Scanner(System.in);
@@ -149,27 +278,41 @@ public class PlaylistDriver {
             System.exit(0);
         }
 
+        if (findArtist != null || findTrack != null)
+        {
+            PlaylistBuilder.showPlayListsWith(headDirectory.getPath(), fileListing, findArtist, findTrack);
+            System.exit(0);
+        }
+
         /*
          * Create a list of files in memory for subsequent processing
          */
         timeStart = System.nanoTime();
 
-        if (debug)
-            PlaylistBuilder.timeLog.add(String.format("%s: PlaylistDriver.main().begin %n", java.time.LocalTime.now()));
-
-        System.out.print("\nGenerating internal list of media files\n");
-
-        long counter = PlaylistBuilder.fileCount(headDirectory.getPath());
-        PlaylistBuilder.fileTotal = counter;
+        if (DebugLog.enabled(DebugLog.Level.DEBUG))
+            DebugLog.log(DebugLog.Level.DEBUG, "%s: PlaylistDriver.main().begin %n", java.time.LocalTime.now());
 
         /*
-         * Starting at the provided root directory, process each entry in the directory tree and extract audio properties
+         * The categories of the last scan can be used straight from the saved catalog, without scanning
          */
-        PlaylistBuilder.walkFileTreeCall(headDirectory.getPath());
-        PlaylistBuilder.timeLog.add(String.format("\rAudio file count: %s%n", counter));
+        if (catalogMenus)
+        {
+            savedCatalog = openCatalog(headDirectory.getPath());
+            if (savedCatalog == null)
+                System.exit(2);
+
+            if (saveGenreMap || saveArtistMap)
+                System.out.printf("%n* * * The genre and artist summaries need a scan, they are not saved with %s * * *%n", argCatalogMenus);
+            saveGenreMap = false;
+            saveArtistMap = false;
+        }
+        else
+        {
+            scanLibrary(headDirectory.getPath(), fullRescan, estimateFiles);
+        }
 
-        if (debug)
-            PlaylistBuilder.timeLog.add(String.format(">> %s PlaylistDriver.main().media files stored in %4s ms %n", java.time.LocalTime.now(), (System.nanoTime() - timeStart) / 1000000));
+        if (DebugLog.enabled(DebugLog.Level.DEBUG))
+            DebugLog.log(DebugLog.Level.DEBUG, ">> %s PlaylistDriver.main().media files stored in %4s ms %n", java.time.LocalTime.now(), (System.nanoTime() - timeStart) / 1000000);
 
         /*
          * Write collected genre and/or artist values to a file if requested
@@ -186,8 +329,8 @@ public class PlaylistDriver {
             writeCategoryFile(artistFile.getPath(), PlaylistBuilder.artistMap, false);
         }
 
-        if (debug)
-            PlaylistBuilder.timeLog.add(String.format("%s: PlaylistDriver.main().Done writing genre/artist files %n", java.time.LocalTime.now()));
+        if (DebugLog.enabled(DebugLog.Level.DEBUG))
+            DebugLog.log(DebugLog.Level.DEBUG, "%s: PlaylistDriver.main().Done writing genre/artist files %n", java.time.LocalTime.now());
 
         /*
          * Main user interaction loop.
@@ -196,8 +339,8 @@ public class PlaylistDriver {
         boolean sessionStop;
         do
         {
-            if (debug)
-                PlaylistBuilder.timeLog.add(String.format("%s: PlaylistDriver.main().process get playlist file path %n", java.time.LocalTime.now()));
+            if (DebugLog.enabled(DebugLog.Level.DEBUG))
+                DebugLog.log(DebugLog.Level.DEBUG, "%s: PlaylistDriver.main().process get playlist file path %n", java.time.LocalTime.now());
 
             /*
              * Retrieve path to the playlist file
@@ -218,8 +361,15 @@ public class PlaylistDriver {
 
             playlistType = getPlaylistType(keyboard);
 
-            if (debug)
-                PlaylistBuilder.timeLog.add(String.format("%s: PlaylistDriver.main(): get selected categories from user %n", java.time.LocalTime.now()));
+            // Queries are evaluated on the category maps, which only a scan builds
+            while (savedCatalog != null && List.of(selectQuery, selectFit, selectShuffle).contains(playlistType))
+            {
+                System.out.printf("Queries, timed and shuffled playlists need a scan, run without %s for them%n", argCatalogMenus);
+                playlistType = getPlaylistType(keyboard);
+            }
+
+            if (DebugLog.enabled(DebugLog.Level.DEBUG))
+                DebugLog.log(DebugLog.Level.DEBUG, "%s: PlaylistDriver.main(): get selected categories from user %n", java.time.LocalTime.now());
 
             /*
              * Check playlist type, collect selected categories from user
@@ -228,63 +378,139 @@ public class PlaylistDriver {
             switch (playlistType) {
                 case selectAll -> {
                     /*
-                     * If all songs are requested for the playlist, use the keys in the genre mapping HashMap
+                     * If all songs are requested for the playlist, use the keys in the genre mapping
                      * to create a master list of genre values.   This will be used to create the master playlist.
                      */
-                    String[] keys = PlaylistBuilder.genreMap
-                            .keySet()
-                            .toArray(new String[PlaylistBuilder.genreListing.size()]);
-                    Collections.addAll(selectedCategory, keys);
+                    if (savedCatalog != null)
+                    {
+                        for (int categoryNumber = 1; categoryNumber <= savedCatalog.genres.size(); categoryNumber++)
+                            selectedCategory.add(savedCatalog.genres.get(categoryNumber));
+                    }
+                    else
+                    {
+                        String[] keys = PlaylistBuilder.genreMap
+                                .keySet()
+                                .toArray(new String[PlaylistBuilder.genreListing.size()]);
+                        Collections.addAll(selectedCategory, keys);
+                    }
                 }
                 case selectGenre -> {
-                    Collections.sort(PlaylistBuilder.genreListing);
-                    selectedCategory = getCategory(keyboard, PlaylistBuilder.genreListing, playlistFile.getName());
+                    selectedCategory = getCategory(keyboard, (savedCatalog != null) ? savedCatalog.genres : PlaylistBuilder.genreIndex, playlistFile.getName());
                 }
                 case selectArtist -> {
-                    Collections.sort(PlaylistBuilder.artistListing);
-                    selectedCategory = getCategory(keyboard, PlaylistBuilder.artistListing, playlistFile.getName());
+                    selectedCategory = getCategory(keyboard, (savedCatalog != null) ? savedCatalog.artists : PlaylistBuilder.artistIndex, playlistFile.getName());
                 }
                 case selectFolder -> {
-                    Collections.sort(PlaylistBuilder.folderListing);
-                    selectedCategory = getCategory(keyboard, PlaylistBuilder.folderListing, playlistFile.getName());
+                    selectedCategory = getCategory(keyboard, (savedCatalog != null) ? savedCatalog.folders : PlaylistBuilder.folderIndex, playlistFile.getName());
+                }
+                case selectQuery -> {
+                    /*
+                     * The query result is written as a single category, named by the query text
+                     */
+                    if (queryIndex == null)
+                        queryIndex = QueryIndex.build();
+
+                    TrackQuery query = getQuery(keyboard);
+                    TrackBitmap queryTracks = query.evaluate(queryIndex);
+                    System.out.printf("Query matches %d tracks%n", queryTracks.cardinality());
+
+                    queryMap = Map.of(query.text, queryTracks.toIntList());
+                    selectedCategory = new ArrayList<>(List.of(query.text));
+                }
+                case selectFit -> {
+                    /*
+                     * Tracks from the query result, chosen to fill the requested length
+                     */
+                    if (queryIndex == null)
+                        queryIndex = QueryIndex.build();
+
+                    TrackQuery query = getQuery(keyboard);
+                    int targetSeconds = getLength(keyboard);
+
+                    int[] fitTracks = DurationFitter.fit(query.evaluate(queryIndex).toArray(), PlaylistBuilder.tracks, targetSeconds, System.nanoTime());
+                    System.out.printf("Chose %d tracks, %s of %s%n", fitTracks.length,
+                            DurationFitter.formatTime(DurationFitter.totalSeconds(fitTracks, PlaylistBuilder.tracks)), DurationFitter.formatTime(targetSeconds));
+
+                    String category = String.format("%s (%s)", query.text, DurationFitter.formatTime(targetSeconds));
+                    queryMap = Map.of(category, TrackBitmap.of(fitTracks).toIntList());
+                    selectedCategory = new ArrayList<>(List.of(category));
+                }
+                case selectShuffle -> {
+                    /*
+                     * Tracks from the query result, or the whole library, in shuffled order
+                     */
+                    if (queryIndex == null)
+                        queryIndex = QueryIndex.build();
+
+                    TrackQuery query = getOptionalQuery(keyboard);
+                    int trackCount = getCount(keyboard);
+                    ShuffleBuilder.Options shuffle = getShuffle(keyboard);
+
+                    TrackBitmap candidates = (query == null) ? queryIndex.allTracks : query.evaluate(queryIndex);
+                    int[] shuffleTracks = ShuffleBuilder.shuffle(candidates.toArray(), trackCount, shuffle);
+                    System.out.printf("Chose %d of %d tracks, seed=%d%n", shuffleTracks.length, candidates.cardinality(), shuffle.seed);
+
+                    IntList trackList = new IntList(shuffleTracks.length);
+                    for (int trackId: shuffleTracks)
+                        trackList.add(trackId);
+
+                    String category = String.format("Shuffle of %s (%d)", (query == null) ? "all tracks" : query.text, trackCount);
+                    queryMap = Map.of(category, trackList);
+                    selectedCategory = new ArrayList<>(List.of(category));
                 }
                 default -> { }
             }
 
-            if (debug)
-                PlaylistBuilder.timeLog.add(String.format("%s: PlaylistDriver.main().process create writer for playlist file %n", java.time.LocalTime.now()));
+            if (DebugLog.enabled(DebugLog.Level.DEBUG))
+                DebugLog.log(DebugLog.Level.DEBUG, "%s: PlaylistDriver.main().process create writer for playlist file %n", java.time.LocalTime.now());
 
             /*
              * Create the playlist output file
              */
-            bufferedWriter = createWriter(playlistFile, fileNew);
-            if (bufferedWriter == null)
+            playlistWriter = createWriter(playlistFile, fileNew);
+            if (playlistWriter == null)
                 System.exit(8);
 
             try
             {
                 if (fileNew)
-                    bufferedWriter.write("#EXTM3U");
+                    playlistWriter.write("#EXTM3U");
             }
             catch (IOException e1)
             {
                 e1.printStackTrace();
             }
 
-            if (debug)
-                PlaylistBuilder.timeLog.add(String.format("%s: PlaylistDriver.main().process write playlist file %n", java.time.LocalTime.now()));
+            if (DebugLog.enabled(DebugLog.Level.DEBUG))
+                DebugLog.log(DebugLog.Level.DEBUG, "%s: PlaylistDriver.main().process write playlist file %n", java.time.LocalTime.now());
             /*
              * Write the new playlist file
              */
-            HashMap<String, ArrayList<String>> newPlaylistMap =
-            switch (playlistType) {
-                case selectAll, selectGenre -> PlaylistBuilder.genreMap;
-                case selectArtist -> PlaylistBuilder.artistMap;
-                case selectFolder -> PlaylistBuilder.folderMap;
-                default -> throw new IllegalStateException("Unexpected value: " + playlistType);
-            };
-            if (!PlaylistBuilder.fileWriter(selectedCategory, newPlaylistMap, bufferedWriter, playlistFile.getName()))
-                System.out.println("Failed to write playlist file");
+            if (savedCatalog != null)
+            {
+                CatalogFile.Categories savedCategories =
+                switch (playlistType) {
+                    case selectAll, selectGenre -> savedCatalog.genres;
+                    case selectArtist -> savedCatalog.artists;
+                    case selectFolder -> savedCatalog.folders;
+                    default -> throw new IllegalStateException("Unexpected value: " + playlistType);
+                };
+                if (!savedCatalog.writePlaylist(selectedCategory, savedCategories, playlistWriter, playlistFile.getName(), PlaylistBuilder.prefix))
+                    System.out.println("Failed to write playlist file");
+            }
+            else
+            {
+                Map<String, IntList> newPlaylistMap =
+                switch (playlistType) {
+                    case selectAll, selectGenre -> PlaylistBuilder.genreMap;
+                    case selectArtist -> PlaylistBuilder.artistMap;
+                    case selectFolder -> PlaylistBuilder.folderMap;
+                    case selectQuery, selectFit, selectShuffle -> queryMap;
+                    default -> throw new IllegalStateException("Unexpected value: " + playlistType);
+                };
+                if (!PlaylistBuilder.fileWriter(selectedCategory, newPlaylistMap, playlistWriter, playlistFile.getName()))
+                    System.out.println("Failed to write playlist file");
+            }
 
             /*
              * Write the new playlist file
@@ -292,33 +518,33 @@ public class PlaylistDriver {
             /*
             switch (playlistType) {
                 case selectAll, selectGenre -> {
-                    if (!PlaylistBuilder.fileWriter(selectedCategory, PlaylistBuilder.genreMap, bufferedWriter, playlistFile.getName())) {
+                    if (!PlaylistBuilder.fileWriter(selectedCategory, PlaylistBuilder.genreMap, playlistWriter, playlistFile.getName())) {
                         System.out.println("Failed to write playlist file");
                     }
                 }
                 case selectArtist -> {
-                    if (!PlaylistBuilder.fileWriter(selectedCategory, PlaylistBuilder.artistMap, bufferedWriter, playlistFile.getName())) {
+                    if (!PlaylistBuilder.fileWriter(selectedCategory, PlaylistBuilder.artistMap, playlistWriter, playlistFile.getName())) {
                         System.out.println("Failed to write playlist file");
                     }
                 }
                 case selectFolder -> {
-                    if (!PlaylistBuilder.fileWriter(selectedCategory, PlaylistBuilder.folderMap, bufferedWriter, playlistFile.getName())) {
+                    if (!PlaylistBuilder.fileWriter(selectedCategory, PlaylistBuilder.folderMap, playlistWriter, playlistFile.getName())) {
                         System.out.println("Failed to write playlist file");
                     }
                 }
             }
              */
 
-            if (debug)
-                PlaylistBuilder.timeLog.add(String.format("%s: PlaylistDriver.main().process write playlist file %n", java.time.LocalTime.now()));
+            if (DebugLog.enabled(DebugLog.Level.DEBUG))
+                DebugLog.log(DebugLog.Level.DEBUG, "%s: PlaylistDriver.main().process write playlist file %n", java.time.LocalTime.now());
 
             /*
-             * Close resources.  Closing the BufferedWriter is necessary so the buffer is
+             * Close resources.  Closing the PlaylistWriter is necessary so the buffer is
              * flushed with the last set of lines.   Otherwise, the output file may be truncated.
              */
             try
             {
-                bufferedWriter.close();
+                playlistWriter.close();
             }
             catch (Exception e)
             {
@@ -342,11 +568,139 @@ public class PlaylistDriver {
          */
         PlaylistBuilder.showMP3Errors();
 
-        if (debug)
-            PlaylistBuilder.printLog();
+        DebugLog.close();
 
     } // end of main()
 
+    /**
+     * Scan the media tree once, reusing the catalog of a previous run unless a full rescan is requested
+     * @param mediaRoot Path to the root of the media files
+     * @param fullRescan Ignore the saved catalog and parse every media file
+     * @param estimateFiles Show an estimated file total with the scan progress
+     */
+    static void scanLibrary(String mediaRoot, boolean fullRescan, boolean estimateFiles)
+    {
+        System.out.print("\nGenerating internal list of media files\n");
+
+        if (estimateFiles)
+            PlaylistBuilder.fileTotal = PlaylistBuilder.fileEstimate(mediaRoot);
+
+        /*
+         * Properties saved by a previous run are reused for files that have not changed
+         */
+        Path catalogPath = MediaCatalog.defaultPath(mediaRoot);
+        if (!fullRescan)
+            PlaylistBuilder.catalog.load(catalogPath);
+
+        /*
+         * Starting at the provided root directory, process each entry in the directory tree and extract audio properties
+         */
+        PlaylistBuilder.walkFileTreeCall(mediaRoot);
+        DebugLog.log(DebugLog.Level.INFO, "Audio file count: %s%n", PlaylistBuilder.fileProgress.get());
+
+        int pruned = PlaylistBuilder.catalog.prune();
+        PlaylistBuilder.catalog.save(catalogPath);
+        System.out.printf("%nCatalog: %d unchanged, %d parsed, %d removed%n", PlaylistBuilder.catalog.reused, PlaylistBuilder.catalog.parsed, pruned);
+
+        if (PlaylistBuilder.collapseDuplicates)
+            showDuplicates();
+    }
+
+    /**
+     * Map the catalog saved by the last scan of the media tree, for the category selector
+     * @param mediaRoot Path to the root of the media files
+     * @return The mapped catalog, or null if there is none or it cannot be used
+     */
+    static CatalogFile openCatalog(String mediaRoot)
+    {
+        long openStart = System.nanoTime();
+        Path catalogPath = MediaCatalog.defaultPath(mediaRoot);
+
+        if (!Files.isRegularFile(catalogPath))
+        {
+            System.out.printf("%n* * * There is no saved catalog in %s, run once without %s to build it * * *%n", mediaRoot, argCatalogMenus);
+            return null;
+        }
+
+        try
+        {
+            CatalogFile savedCatalog = CatalogFile.open(catalogPath);
+            System.out.printf("%nCatalog: %d tracks, %d genres, %d artists, %d folders, opened in %.1f ms%n", savedCatalog.tracks(),
+                    savedCatalog.genres.size(), savedCatalog.artists.size(), savedCatalog.folders.size(), (System.nanoTime() - openStart) / 1e6);
+            return savedCatalog;
+        }
+        catch (IOException e)
+        {
+            System.out.printf("%n* * * The saved catalog cannot be used, run once without %s to build it: %s * * *%n", argCatalogMenus, e.getMessage());
+            return null;
+        }
+    }
+
+    /*
+     * Summary of the tracks with the same audio, the groups themselves go to the debug log
+     */
+    static void showDuplicates()
+    {
+        List<int[]> duplicates = PlaylistBuilder.duplicates.duplicates();
+        System.out.printf("Duplicates: %d tracks with %d extra copies%n", duplicates.size(), PlaylistBuilder.duplicates.extraCopies());
+
+        if (DebugLog.enabled(DebugLog.Level.INFO))
+        {
+            for (int[] trackIds: duplicates)
+            {
+                DebugLog.log(DebugLog.Level.INFO, "Same audio:%n");
+                for (int trackId: trackIds)
+                    DebugLog.log(DebugLog.Level.INFO, "\t%s%n", PlaylistBuilder.tracks.path(trackId));
+            }
+        }
+    }
+
+    /**
+     * Headless run: scan the library once, then write every playlist named in the spec file.
+     * No dialogs or prompts are shown.
+     * @param specFile Path to the spec file, see PlaylistBatch
+     * @param fullRescan Ignore the saved catalog and parse every media file
+     * @param estimateFiles Show an estimated file total with the scan progress
+     * @param watchLibrary Keep running and write the playlists again as the media files change, see LibraryWatcher
+     * @return Exit code: 0 if every playlist was written, 1 if some failed, 2 if the spec file is invalid
+     */
+    static int runBatch(String specFile, boolean fullRescan, boolean estimateFiles, boolean watchLibrary)
+    {
+        PlaylistBatch batch = PlaylistBatch.load(Path.of(specFile));
+        if (batch == null)
+            return 2;
+
+        timeStart = System.nanoTime();
+        scanLibrary(batch.mediaRoot.getPath(), fullRescan, estimateFiles);
+
+        PlaylistBuilder.setMediaRoot(batch.mediaRoot);
+        List<PlaylistBatch.PlaylistJob> jobs = batch.expand();
+
+        // A playlist left out because its file was taken counts as failed
+        long writeStart = System.nanoTime();
+        int failed = PlaylistBatch.writeAll(jobs, Runtime.getRuntime().availableProcessors()) + batch.collisions;
+
+        System.out.printf("%nWrote %d of %d playlists in %.1f sec, total run %.1f sec%n", jobs.size() + batch.collisions - failed, jobs.size() + batch.collisions,
+                (System.nanoTime() - writeStart) / 1e9, (System.nanoTime() - timeStart) / 1e9);
+
+        PlaylistBuilder.showMP3Errors();
+
+        if (watchLibrary)
+        {
+            try
+            {
+                new LibraryWatcher(batch, jobs).run();
+            }
+            catch (IOException e)
+            {
+                System.out.printf("%n* * * The media folder cannot be watched: %s * * *%n", e.getMessage());
+                return 1;
+            }
+        }
+
+        return (failed == 0) ? 0 : 1;
+    }
+
     /*
         Prompt for location of new playlist file.  If a selection is made, validate its location with respect to the audio files.
      */
@@ -386,8 +740,7 @@ public class PlaylistDriver {
 
             PlaylistBuilder.showMP3Errors();
 
-            if (debug)
-                PlaylistBuilder.printLog();
+            DebugLog.close();
 
             returnState = true;
         }
@@ -402,16 +755,15 @@ public class PlaylistDriver {
      * 			.../Candy Dulfer/Freak Out.mp3
      *
      * @param outputCategoryMapPath String path to the output file
-     * @param categoryMap HashMap where the category values are keys to arraylists of associated media files
+     * @param categoryMap Map where the category values are keys to the track IDs of associated media files
      */
-    public static void writeCategoryFile(String outputCategoryMapPath, HashMap<String, ArrayList<String>> categoryMap, boolean onlySummary)
+    public static void writeCategoryFile(String outputCategoryMapPath, Map<String, IntList> categoryMap, boolean onlySummary)
     {
         String currentCategory;
         String mediaParent;
-        File currentFile;
 
-        if (debug)
-            PlaylistBuilder.timeLog.add(String.format("%s: PlaylistDriver.writeCategoryFile().begin create BufferedWriter for '%s'%n", java.time.LocalTime.now(), outputCategoryMapPath));
+        if (DebugLog.enabled(DebugLog.Level.DEBUG))
+            DebugLog.log(DebugLog.Level.DEBUG, "%s: PlaylistDriver.writeCategoryFile().begin create BufferedWriter for '%s'%n", java.time.LocalTime.now(), outputCategoryMapPath);
 
         BufferedWriter bufferedWriter = null;
 
@@ -429,18 +781,18 @@ public class PlaylistDriver {
             System.exit(0);
         }
 
-        if (debug)
-            PlaylistBuilder.timeLog.add(String.format("%s: PlaylistDriver.writeCategoryFile().process retrieve keys %n", java.time.LocalTime.now()));
+        if (DebugLog.enabled(DebugLog.Level.DEBUG))
+            DebugLog.log(DebugLog.Level.DEBUG, "%s: PlaylistDriver.writeCategoryFile().process retrieve keys %n", java.time.LocalTime.now());
 
         /*
-         * Retrieve the category keys from the HashMap and sort them
+         * Retrieve the category keys from the map and sort them
          */
         String[] keys = categoryMap.keySet().toArray(new String[0]);
         List<String> sortedKeys = Arrays.asList(keys);
         Collections.sort(sortedKeys);
 
-        if (debug)
-            PlaylistBuilder.timeLog.add(String.format("%s: PlaylistDriver.writeCategoryFile().process write inventory file %n", java.time.LocalTime.now()));
+        if (DebugLog.enabled(DebugLog.Level.DEBUG))
+            DebugLog.log(DebugLog.Level.DEBUG, "%s: PlaylistDriver.writeCategoryFile().process write inventory file %n", java.time.LocalTime.now());
 
         /*
          * Loop through the keys.   Each entry value is an ArrayList of file names
@@ -453,24 +805,25 @@ public class PlaylistDriver {
                 bufferedWriter.newLine();
 
                 currentCategory = "";
-                for (String fileName: categoryMap.get(mapKey))
+                for (int trackId: PlaylistBuilder.trackIds(categoryMap, mapKey))
                 {
                     if (onlySummary)
                     {
-                        currentFile = new File(fileName);
-                        mediaParent = currentFile.getParent();
-                        currentFile = new File(mediaParent);
+                        /*
+                         * Only the name of the parent folder is needed, so the full path is not rebuilt
+                         */
+                        mediaParent = PlaylistBuilder.tracks.directories.name(PlaylistBuilder.tracks.directory(trackId));
 
-                        if (!currentFile.getName().equals(currentCategory))
+                        if (!mediaParent.equals(currentCategory))
                         {
-                            currentCategory = currentFile.getName();
+                            currentCategory = mediaParent;
                             bufferedWriter.write(String.format("\t%s", currentCategory));
                             bufferedWriter.newLine();
                         }
                     }
                     else
                     {
-                        bufferedWriter.write(String.format("\t%s", fileName));
+                        bufferedWriter.write(String.format("\t%s", PlaylistBuilder.tracks.path(trackId)));
                         bufferedWriter.newLine();
                     }
 
@@ -478,19 +831,19 @@ public class PlaylistDriver {
             }
             catch (IOException e)
             {
-                PlaylistBuilder.timeLog.add("PlaylistDriver.writeCategoryFileCategory(): mapping file could not be written to");
-                PlaylistBuilder.timeLog.add(e.getMessage());
+                DebugLog.log(DebugLog.Level.ERROR, "PlaylistDriver.writeCategoryFileCategory(): mapping file could not be written to%n");
+                DebugLog.log(DebugLog.Level.ERROR, "%s%n", e.getMessage());
 
                 System.exit(0);
             }
             catch (NullPointerException en)
             {
-                PlaylistBuilder.timeLog.add("PlaylistDriver.writeCategoryFileCategory(): Found null map key");
+                DebugLog.log(DebugLog.Level.ERROR, "PlaylistDriver.writeCategoryFileCategory(): Found null map key%n");
             }
         }
 
-        if (debug)
-            PlaylistBuilder.timeLog.add(String.format("%s: PlaylistDriver.writeCategoryFile().end close bufferedwriter %n", java.time.LocalTime.now()));
+        if (DebugLog.enabled(DebugLog.Level.DEBUG))
+            DebugLog.log(DebugLog.Level.DEBUG, "%s: PlaylistDriver.writeCategoryFile().end close bufferedwriter %n", java.time.LocalTime.now());
 
         /*
          * Close resources.  Closing the BufferedWriter is necessary so the buffer is
@@ -504,15 +857,15 @@ public class PlaylistDriver {
         {
             e.printStackTrace();
         }
-    } // end of writeCategoryFile(String outputCategoryMapPath, HashMap<String, ArrayList<String>> categoryMap)
+    } // end of writeCategoryFile(String outputCategoryMapPath, Map<String, IntList> categoryMap)
 
     /*
      * Prompt user for playlist file path using new jFileChooser window
      */
     public static File getFilePath(String userPrompt, String fileDesc, String fileExt, boolean selectMode)
     {
-        if (debug)
-            PlaylistBuilder.timeLog.add(String.format("%s: PlaylistDriver.getFilePath().begin for '%s'%n", java.time.LocalTime.now(), userPrompt.trim()));
+        if (DebugLog.enabled(DebugLog.Level.DEBUG))
+            DebugLog.log(DebugLog.Level.DEBUG, "%s: PlaylistDriver.getFilePath().begin for '%s'%n", java.time.LocalTime.now(), userPrompt.trim());
 
         /*
          * Prompt for path to the playlist file
@@ -542,8 +895,8 @@ public class PlaylistDriver {
             outputPath = null;
         }
 
-        if (debug)
-            PlaylistBuilder.timeLog.add(String.format("%s: PlaylistDriver.getFilePath().end%n", java.time.LocalTime.now()));
+        if (DebugLog.enabled(DebugLog.Level.DEBUG))
+            DebugLog.log(DebugLog.Level.DEBUG, "%s: PlaylistDriver.getFilePath().end%n", java.time.LocalTime.now());
 
         return outputPath;
 
@@ -565,6 +918,9 @@ public class PlaylistDriver {
             System.out.printf("%s. Genre-based%n", selectGenre);
             System.out.printf("%s. Artist-based%n", selectArtist);
             System.out.printf("%s. Folder-based%n", selectFolder);
+            System.out.printf("%s. Query (genre, artist, folder and duration)%n", selectQuery);
+            System.out.printf("%s. Timed (query result fitted to a length)%n", selectFit);
+            System.out.printf("%s. Shuffled (random tracks, weighted by genre or artist)%n", selectShuffle);
             System.out.println("99. Exit");
             System.out.print("> ");
 
@@ -576,6 +932,9 @@ public class PlaylistDriver {
                 case selectGenre:
                 case selectArtist:
                 case selectFolder:
+                case selectQuery:
+                case selectFit:
+                case selectShuffle:
                 case selectExit:
                     break;
                 default:
@@ -587,24 +946,131 @@ public class PlaylistDriver {
     } // end of getPlaylistType(Scanner keyboard)
 
     /**
-     * Display four-column list of categories and prompt user for selections
+     * Prompt for a playlist query until a valid one is entered, see TrackQuery for the syntax
+     * @param keyboard Scanner object for user interaction
+     * @return The compiled query
+     */
+    public static TrackQuery getQuery(Scanner keyboard)
+    {
+        TrackQuery query = null;
+
+        do
+        {
+            System.out.println("Enter a query, for example: genre:Jazz AND NOT artist:\"Miles Davis\" AND duration < 6:00");
+            System.out.print("> ");
+
+            String queryText = keyboard.nextLine();
+            if (!queryText.isBlank())
+                query = TrackQuery.compile(queryText.trim());
+        } while (query == null);
+
+        return query;
+    }
+
+    /**
+     * Prompt for an optional playlist query until a valid one or an empty line is entered
+     * @param keyboard Scanner object for user interaction
+     * @return The compiled query, or null for every track
+     */
+    public static TrackQuery getOptionalQuery(Scanner keyboard)
+    {
+        while (true)
+        {
+            System.out.println("Enter a query, or an empty line for every track");
+            System.out.print("> ");
+
+            String queryText = keyboard.nextLine();
+            if (queryText.isBlank())
+                return null;
+
+            TrackQuery query = TrackQuery.compile(queryText.trim());
+            if (query != null)
+                return query;
+        }
+    }
+
+    /**
+     * Prompt for a number of tracks until a valid one is entered
+     * @param keyboard Scanner object for user interaction
+     * @return The number of tracks
+     */
+    public static int getCount(Scanner keyboard)
+    {
+        String count;
+
+        do
+        {
+            System.out.print("Number of tracks> ");
+            count = keyboard.nextLine().trim();
+        } while (!count.matches("0*[1-9]\\d{0,8}"));
+
+        return Integer.parseInt(count);
+    }
+
+    /**
+     * Prompt for shuffle settings until valid ones are entered, see ShuffleBuilder.Options.  Without a seed
+     * setting a new seed is chosen, it is shown afterwards so the playlist can be drawn again.
+     * @param keyboard Scanner object for user interaction
+     * @return The settings
+     */
+    public static ShuffleBuilder.Options getShuffle(Scanner keyboard)
+    {
+        ShuffleBuilder.Options shuffle;
+
+        do
+        {
+            System.out.println("Shuffle settings, or an empty line for a plain shuffle: by=track|genre|artist weights=Rock:3,Jazz:1 spread=N seed=N");
+            System.out.print("> ");
+            shuffle = ShuffleBuilder.Options.parse(keyboard.nextLine(), System.nanoTime());
+        } while (shuffle == null);
+
+        return shuffle;
+    }
+
+    /**
+     * Prompt for a playlist length until a valid one is entered
+     * @param keyboard Scanner object for user interaction
+     * @return The length in seconds
+     */
+    public static int getLength(Scanner keyboard)
+    {
+        int targetSeconds;
+
+        do
+        {
+            System.out.print("Playlist length (h:mm:ss, m:ss or seconds)> ");
+            targetSeconds = TrackQuery.parseTime(keyboard.nextLine().trim());
+        } while (targetSeconds <= 0);
+
+        return targetSeconds;
+    }
+
+    /**
+     * Display a page of categories in four columns and prompt user for selections.  The page shows the categories
+     * that start with the current prefix.  Input is one of:
+     *      numbers separated by spaces, to select by number
+     *      =name, to select by name, with a choice by number when several categories have the name
+     *      /prefix, to show the categories starting with the prefix, or / to show all of them
+     *      + or an empty line for the next page, - for the previous page
+     *      0 when finished
      * @param keyboard Scanner object for user interaction
-     * @param categoryList ArrayList of the available categories
+     * @param categoryIndex Sorted categories
      * @return The ArrayList of selected categories
      */
-    public static ArrayList<String> getCategory(Scanner keyboard, ArrayList<String> categoryList, String playlistFile)
+    public static ArrayList<String> getCategory(Scanner keyboard, CategoryIndex categoryIndex, String playlistFile)
     {
         ArrayList<String> selectedCategory = new ArrayList<String>();
 
         String categorySubstring;
         String firstCol = "\n";
         String secondCol = "\t";
-        String tabOver = firstCol;
-        String[] categories = null;
+        String tabOver;
+        String prefix = "";
 
-        int categorySelectIndex = 0;
-        int categoryKeyIndex = 0;
-        int colNumber = 1;
+        int[] matches = categoryIndex.prefixRange(prefix);
+        int pageStart = matches[0];
+        int colNumber;
+        boolean finished = false;
 
         /*
          * Prompt user for category values.
@@ -612,39 +1078,34 @@ public class PlaylistDriver {
         do
         {
             // Start with the exit option
+            int pageEnd = Math.min(pageStart + categoryPageSize, matches[1]);
             System.out.printf("%nSelect category(s) for playlist file %s:%n", playlistFile);
-            System.out.println("\n  0. Finished with selection(s)");
+            System.out.printf("%n  0. Finished with selection(s)    %s%d-%d of %d%n", prefix.isEmpty() ? "" : "'" + prefix + "...': ",
+                    pageEnd > pageStart ? pageStart - matches[0] + 1 : 0, pageEnd - matches[0], matches[1] - matches[0]);
 
             /*
-             * Print out the categories in a four-column format.
+             * Print out the page of categories in a four-column format.
              * Left-justify the odd-numbered options and tab over the even-numbered options.
              */
-            categorySelectIndex = 1;
             tabOver = firstCol;
             colNumber = 1;
-            String showCategory;
 
-            for (String categorySelection: categoryList)
+            for (int categoryNumber = pageStart; categoryNumber < pageEnd; categoryNumber++)
             {
-                if (categorySelection != null)
-                {
-                    showCategory = (categorySelection.contains(File.separator)) ? new File(categorySelection).getName() : categorySelection;
-                    categorySubstring = (showCategory.length() > 26) ? showCategory.substring(0, 23) + "...": showCategory;
+                String showCategory = CategoryIndex.displayName(categoryIndex.get(categoryNumber));
+                categorySubstring = (showCategory.length() > 26) ? showCategory.substring(0, 23) + "...": showCategory;
 
-                    System.out.printf("%s%3d. %-26s", tabOver, categorySelectIndex, categorySubstring);
+                System.out.printf("%s%5d. %-26s", tabOver, categoryNumber, categorySubstring);
 
-                    switch (colNumber) {
-                        case 1, 2, 3 -> {
-                            tabOver = secondCol;
-                            colNumber++;
-                        }
-                        case 4 -> {
-                            tabOver = firstCol;
-                            colNumber = 1;
-                        }
+                switch (colNumber) {
+                    case 1, 2, 3 -> {
+                        tabOver = secondCol;
+                        colNumber++;
+                    }
+                    case 4 -> {
+                        tabOver = firstCol;
+                        colNumber = 1;
                     }
-
-                    categorySelectIndex++;
                 }
             }
 
@@ -656,7 +1117,7 @@ public class PlaylistDriver {
                 System.out.print("\n(Already selected:");
                 for (String entry: selectedCategory)
                 {
-                    System.out.printf(" '%s'", entry);
+                    System.out.printf(" '%s'", CategoryIndex.displayName(entry));
                 }
                 System.out.print(")");
             }
@@ -664,35 +1125,99 @@ public class PlaylistDriver {
             /*
              * Prompt for next category
              */
-            System.out.print("\n> ");
-            categories = keyboard.nextLine().split(" ");
-            for (String newCategory: categories)
+            System.out.print("\n(numbers, =name, /prefix, + next page, - previous page)> ");
+            String response = keyboard.nextLine().trim();
+
+            if (response.isEmpty() || response.equals("+"))
+            {
+                if (pageEnd < matches[1])
+                    pageStart = pageEnd;
+            }
+            else if (response.equals("-"))
+            {
+                pageStart = Math.max(matches[0], pageStart - categoryPageSize);
+            }
+            else if (response.startsWith("/"))
+            {
+                prefix = response.substring(1);
+                matches = categoryIndex.prefixRange(prefix);
+                pageStart = matches[0];
+            }
+            else if (response.startsWith("="))
             {
-                try
+                String name = response.substring(1).trim();
+                int[] named = categoryIndex.nameRange(name);
+
+                // A prefix that only one category starts with also selects it
+                int[] prefixed = categoryIndex.prefixRange(name);
+                if (named[0] == named[1] && prefixed[1] - prefixed[0] == 1)
+                    named = prefixed;
+
+                if (named[0] == named[1])
                 {
-                    categoryKeyIndex = Integer.parseInt(newCategory.trim());
+                    System.out.printf("No category named '%s'%n", name);
                 }
-                catch (NumberFormatException ne)
+                else if (named[1] - named[0] == 1)
                 {
-                    categoryKeyIndex = 999;
-                    continue;
+                    if (!selectedCategory.contains(categoryIndex.get(named[0])))
+                        selectedCategory.add(categoryIndex.get(named[0]));
                 }
+                else
+                {
+                    /*
+                     * Several categories have the name, such as "Disc 1" folders, so the full values are listed
+                     * and one is picked by its number
+                     */
+                    System.out.printf("%n%d categories are named '%s':%n", named[1] - named[0], name);
+                    for (int categoryNumber = named[0]; categoryNumber < named[1]; categoryNumber++)
+                        System.out.printf("%5d. %s%n", categoryNumber, categoryIndex.get(categoryNumber));
 
-                if (categoryKeyIndex == 0)
-                    break;
+                    System.out.print("(number, or Enter for none)> ");
+                    try
+                    {
+                        int categoryNumber = Integer.parseInt(keyboard.nextLine().trim());
+                        if (categoryNumber >= named[0] && categoryNumber < named[1] && !selectedCategory.contains(categoryIndex.get(categoryNumber)))
+                            selectedCategory.add(categoryIndex.get(categoryNumber));
+                    }
+                    catch (NumberFormatException ne)
+                    {
+                        // Nothing selected
+                    }
+                }
+            }
+            else
+            {
+                for (String newCategory: response.split(" "))
+                {
+                    int categoryKeyIndex;
+                    try
+                    {
+                        categoryKeyIndex = Integer.parseInt(newCategory.trim());
+                    }
+                    catch (NumberFormatException ne)
+                    {
+                        continue;
+                    }
 
-                if (categoryKeyIndex >= categorySelectIndex)
-                    continue;
+                    if (categoryKeyIndex == 0)
+                    {
+                        finished = true;
+                        break;
+                    }
+
+                    if (categoryKeyIndex < 0 || categoryKeyIndex > categoryIndex.size())
+                        continue;
 
-                // Only add category if it hasn't already been selected
-                if (!selectedCategory.contains(categoryList.get(categoryKeyIndex - 1)))
-                    selectedCategory.add(categoryList.get(categoryKeyIndex - 1));
+                    // Only add category if it hasn't already been selected
+                    if (!selectedCategory.contains(categoryIndex.get(categoryKeyIndex)))
+                        selectedCategory.add(categoryIndex.get(categoryKeyIndex));
+                }
             }
 
-        } while (categoryKeyIndex > 0);
+        } while (!finished);
 
         return selectedCategory;
-    } // end of getCategory(Scanner keyboard, ArrayList<String> categoryList)
+    } // end of getCategory(Scanner keyboard, CategoryIndex categoryIndex)
 
 
     /**
@@ -700,27 +1225,21 @@ public class PlaylistDriver {
      * @param outputFile
      * @param fileNew
      */
-    public static BufferedWriter createWriter(File outputFile, boolean fileNew)
+    public static PlaylistWriter createWriter(File outputFile, boolean fileNew)
     {
-        FileWriter writer;
-        BufferedWriter bufferedWriter;
+        PlaylistWriter playlistWriter;
 
         /*
          * Create and initialize the playlist output file
          */
         try
         {
-            if (fileNew)
-                writer = new FileWriter(outputFile, false);
-            else
-                writer = new FileWriter(outputFile, true);
-
-            bufferedWriter = new BufferedWriter(writer);
+            playlistWriter = PlaylistWriter.open(outputFile, !fileNew);
 
             // initialize new files
             if (fileNew)
             {
-                bufferedWriter.newLine();
+                playlistWriter.newLine();
             }
         }
         catch (IOException e)
@@ -728,10 +1247,26 @@ public class PlaylistDriver {
             System.out.printf("%n* * * Output file path %s is invalid * * *%n", outputFile);
             e.printStackTrace();
 
-            bufferedWriter = null;
+            playlistWriter = null;
         }
 
-        return bufferedWriter;
+        return playlistWriter;
+    }
+
+    /*
+     * Numeric value of a runtime option, 0 if it is not a positive number
+     */
+    private static int parseLimit(String value)
+    {
+        try
+        {
+            return Math.max(0, Integer.parseInt(value));
+        }
+        catch (NumberFormatException e)
+        {
+            System.out.printf("Ignoring invalid limit '%s'%n", value);
+            return 0;
+        }
     }
 
     private static void showHelp()
@@ -747,11 +1282,26 @@ public class PlaylistDriver {
         System.out.println("\nThe program also has the option of saving summaries of found genres and artists, and of displaying existing playlists.");
         System.out.println("\nThe runtime options are:");
         System.out.println("\t-h this Help summary");
-        System.out.println("\t-d : debug");
+        System.out.println("\t-d : debug log, -d=<level> for error, info, debug or trace");
+        System.out.println("\t-log=<file> : debug log file, playlist-manager.log by default");
+        System.out.println("\t-b=<spec file> : headless batch mode, scan once and write every playlist in the spec file");
+        System.out.println("\t-w=<spec file> : batch mode that keeps running and rewrites the playlists as the media files change");
+        System.out.println("\t-m : save stage timings at exit, -m=<prefix> to name the files (playlist-manager-metrics.json and .prom by default)");
         System.out.println("\t-g : summarize and save collected genres to a text file");
         System.out.println("\t-a : summarize and save collected artists to a text file");
         System.out.println("\t-p <file name without delimiters> : show mp3 file properties (for debugging)");
         System.out.println("\t-ys : show playlists with artist listing");
         System.out.println("\t-yd : show playlists with artist and song detail");
+        System.out.println("\t-ya=<artist> : show the playlists with a track by the artist");
+        System.out.println("\t-yt=<track> : show the playlists containing the track");
+        System.out.println("\t-e : show an estimated file total with the scan progress");
+        System.out.println("\t-r : ignore the saved catalog and parse every media file");
+        System.out.println("\t-c : show the genres, artists and folders of the last scan from the saved catalog, without scanning (no queries)");
+        System.out.println("\t-v : scan with one virtual thread per file instead of the fixed thread pool");
+        System.out.println("\t-l=<n> : scan limit, threads in the fixed pool or files open at once with -v");
+        System.out.println("\t-u : write each track once per playlist, copies of the same audio in other folders included (reads every media file once to fingerprint it)");
+        System.out.println("\t-x=<MB> : memory ceiling for the category track lists, larger lists are kept in temporary files (not with -w)");
+        System.out.println("\t-xt=<folder> : folder for the temporary files of -x, the system temporary folder by default");
+        System.out.println("\t-n=<rules> : genre and artist values that match under the rules are one category, any of case, space, punct, the, or all (default) or none");
     }
 }
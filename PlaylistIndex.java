@@ -0,0 +1,375 @@
+package com.apps.geo;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Persistent index of the existing playlist files.  Each playlist is parsed once into its artist and track entries,
+ * and is only parsed again when its size or last-modified time changes.  Changed playlists are parsed in parallel.
+ * The reverse index, artist or track to the playlists that contain it, is built from the saved entries.
+ *
+ * The index is a tab-separated text file in the playlist folder.  Each playlist line is followed by its entries:
+ *      playlist    size    modified    entry count
+ *      artist      track
+ *
+ * @author geo
+ */
+public class PlaylistIndex {
+
+    static final String indexName = ".playlist-manager.playlists";
+    static final String indexHeader = "#playlist-manager playlist index v2";
+    static final String playlistExt = ".m3u";
+
+    /**
+     * Media entries of one playlist file, in file order, along with the file attributes used to detect changes
+     */
+    static class Playlist
+    {
+        final long size;
+        final long modified;
+        final String[] artists;
+        final String[] tracks;
+
+        Playlist(long size, long modified, String[] artists, String[] tracks)
+        {
+            this.size = size;
+            this.modified = modified;
+            this.artists = artists;
+            this.tracks = tracks;
+        }
+    }
+
+    final Map<String, Playlist> playlists = new ConcurrentHashMap<>();
+    final Map<String, List<String>> artistIndex = new HashMap<>();
+    final Map<String, List<String>> trackIndex = new HashMap<>();
+
+    int reused = 0;
+    int parsed = 0;
+    int removed = 0;
+
+    /**
+     * Location of the index file, beside the playlists
+     * @param playlistDir Folder holding the playlist files
+     * @return Path to the index file
+     */
+    public static Path defaultPath(Path playlistDir)
+    {
+        return playlistDir.resolve(indexName);
+    }
+
+    /**
+     * Read a saved index.  A missing or unreadable index leaves the index empty, so every playlist is parsed.
+     * @param indexPath Path to the index file
+     */
+    public void load(Path indexPath)
+    {
+        if (!Files.isRegularFile(indexPath))
+            return;
+
+        try (BufferedReader br = Files.newBufferedReader(indexPath, StandardCharsets.UTF_8))
+        {
+            String line = br.readLine();
+            if (line == null || !line.equals(indexHeader))
+            {
+                PlaylistBuilder.fileErrors.add(String.format("%s is not a playlist index, ignoring it", indexPath));
+                return;
+            }
+
+            while ((line = br.readLine()) != null)
+            {
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 4)
+                    throw new IOException("invalid playlist line '" + line + "'");
+
+                int entryCount = Integer.parseInt(fields[3]);
+                String[] artists = new String[entryCount];
+                String[] tracks = new String[entryCount];
+
+                for (int entry = 0; entry < entryCount; entry++)
+                {
+                    String[] entryFields = (line = br.readLine()) == null ? null : line.split("\t", -1);
+                    if (entryFields == null || entryFields.length != 2)
+                        throw new IOException("playlist " + fields[0] + " is truncated");
+
+                    artists[entry] = MediaCatalog.unescape(entryFields[0]);
+                    tracks[entry] = MediaCatalog.unescape(entryFields[1]);
+                }
+
+                playlists.put(MediaCatalog.unescape(fields[0]), new Playlist(Long.parseLong(fields[1]), Long.parseLong(fields[2]), artists, tracks));
+            }
+        }
+        catch (IOException | NumberFormatException e)
+        {
+            playlists.clear();
+            PlaylistBuilder.fileErrors.add(String.format("%s could not be read, all playlists will be parsed: %s", indexPath, e.getMessage()));
+        }
+    }
+
+    /**
+     * Write the index under a temporary name and move it into place
+     * @param indexPath Path to the index file
+     */
+    public void save(Path indexPath)
+    {
+        Path tempPath = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+
+        try (BufferedWriter bw = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8))
+        {
+            bw.write(indexHeader);
+            bw.newLine();
+
+            for (Map.Entry<String, Playlist> mapEntry: playlists.entrySet())
+            {
+                Playlist playlist = mapEntry.getValue();
+
+                bw.write(MediaCatalog.escape(mapEntry.getKey()));
+                bw.write('\t');
+                bw.write(Long.toString(playlist.size));
+                bw.write('\t');
+                bw.write(Long.toString(playlist.modified));
+                bw.write('\t');
+                bw.write(Integer.toString(playlist.tracks.length));
+                bw.newLine();
+
+                for (int entry = 0; entry < playlist.tracks.length; entry++)
+                {
+                    bw.write(MediaCatalog.escape(playlist.artists[entry]));
+                    bw.write('\t');
+                    bw.write(MediaCatalog.escape(playlist.tracks[entry]));
+                    bw.newLine();
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            PlaylistBuilder.fileErrors.add(String.format("%s could not be written: %s", indexPath, e.getMessage()));
+            return;
+        }
+
+        try
+        {
+            Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            PlaylistBuilder.fileErrors.add(String.format("%s could not be replaced: %s", indexPath, e.getMessage()));
+        }
+    }
+
+    /**
+     * Bring the index up to date with the playlist folder.  Playlists that are new or have changed are parsed
+     * in parallel, playlists that no longer exist are dropped, and the reverse index is rebuilt.
+     * @param playlistDir Folder holding the playlist files
+     * @param fileNames Names of the folder entries
+     * @return true if the index changed and should be saved
+     */
+    public boolean refresh(Path playlistDir, String[] fileNames)
+    {
+        if (DebugLog.enabled(DebugLog.Level.DEBUG))
+            DebugLog.log(DebugLog.Level.DEBUG, ">> %s: PlaylistIndex.refresh(%s)%n", java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), playlistDir);
+
+        Map<String, Future<Playlist>> changed = new HashMap<>();
+        List<String> current = new ArrayList<>();
+        ExecutorService parsers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+        for (String fileName: fileNames)
+        {
+            if (!fileName.endsWith(playlistExt))
+                continue;
+
+            Path playlistPath = playlistDir.resolve(fileName);
+            BasicFileAttributes attributes;
+            try
+            {
+                attributes = Files.readAttributes(playlistPath, BasicFileAttributes.class);
+            }
+            catch (IOException e)
+            {
+                continue;
+            }
+
+            if (attributes.isDirectory())
+                continue;
+
+            current.add(fileName);
+
+            long size = attributes.size();
+            long modified = attributes.lastModifiedTime().toMillis();
+            Playlist playlist = playlists.get(fileName);
+
+            if (playlist != null && playlist.size == size && playlist.modified == modified)
+                reused++;
+            else
+                changed.put(fileName, parsers.submit(() -> parse(playlistPath, size, modified)));
+        }
+
+        for (Map.Entry<String, Future<Playlist>> result: changed.entrySet())
+        {
+            try
+            {
+                playlists.put(result.getKey(), result.getValue().get());
+                parsed++;
+            }
+            catch (ExecutionException e)
+            {
+                playlists.remove(result.getKey());
+                PlaylistBuilder.fileErrors.add(String.format("%s could not be read: %s", result.getKey(), e.getCause()));
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        parsers.shutdown();
+
+        int before = playlists.size();
+        playlists.keySet().retainAll(current);
+        removed = before - playlists.size();
+
+        buildReverseIndex();
+
+        if (DebugLog.enabled(DebugLog.Level.DEBUG))
+            DebugLog.log(DebugLog.Level.DEBUG, "<< %s: PlaylistIndex.refresh(%s): %d unchanged, %d parsed, %d removed%n",
+                    java.time.LocalTime.now().truncatedTo(ChronoUnit.MILLIS), playlistDir, reused, parsed, removed);
+
+        return parsed > 0 || removed > 0;
+    }
+
+    /**
+     * Read the media entries of a playlist file.  The entry's parent folder is taken as the artist, which is the
+     * layout fileWriter() produces.  Entries are written with '/', older playlists may use '\'.
+     * @param playlistPath Path to the playlist file
+     * @param size File size when the attributes were read
+     * @param modified Last-modified time when the attributes were read
+     * @return The parsed playlist
+     */
+    static Playlist parse(Path playlistPath, long size, long modified) throws IOException
+    {
+        // Playlists are written in the platform encoding
+        String text = new String(Files.readAllBytes(playlistPath), Charset.defaultCharset());
+
+        List<String> artists = new ArrayList<>();
+        List<String> tracks = new ArrayList<>();
+        int lineStart = 0;
+
+        while (lineStart < text.length())
+        {
+            int lineEnd = lineStart;
+            while (lineEnd < text.length() && text.charAt(lineEnd) != '\n' && text.charAt(lineEnd) != '\r')
+                lineEnd++;
+
+            if (lineEnd > lineStart && text.charAt(lineStart) != '#' && FormatReaders.isAudioFile(text, lineStart, lineEnd))
+            {
+                int trackStart = lastSeparator(text, lineStart, lineEnd);
+                if (trackStart >= lineStart)
+                {
+                    int artistStart = lastSeparator(text, lineStart, trackStart);
+                    artists.add(text.substring(artistStart + 1, trackStart));
+                    tracks.add(text.substring(trackStart + 1, lineEnd));
+                }
+            }
+
+            // A "\r\n" line break is one break
+            if (lineEnd + 1 < text.length() && text.charAt(lineEnd) == '\r' && text.charAt(lineEnd + 1) == '\n')
+                lineEnd++;
+
+            lineStart = lineEnd + 1;
+        }
+
+        return new Playlist(size, modified, artists.toArray(new String[0]), tracks.toArray(new String[0]));
+    }
+
+    /*
+     * Position of the last '/' or '\' in text[start, end), or start - 1 if there is none
+     */
+    private static int lastSeparator(String text, int start, int end)
+    {
+        int position = end - 1;
+        while (position >= start && text.charAt(position) != '/' && text.charAt(position) != '\\')
+            position--;
+
+        return position;
+    }
+
+    /*
+     * Artist and track to playlist names, keyed without case.  A track is keyed by its title, without the extension.
+     */
+    private void buildReverseIndex()
+    {
+        artistIndex.clear();
+        trackIndex.clear();
+
+        for (Map.Entry<String, Playlist> mapEntry: playlists.entrySet())
+        {
+            String playlistName = mapEntry.getKey();
+            Playlist playlist = mapEntry.getValue();
+
+            for (int entry = 0; entry < playlist.tracks.length; entry++)
+            {
+                addReference(artistIndex, key(playlist.artists[entry]), playlistName);
+                addReference(trackIndex, trackKey(playlist.tracks[entry]), playlistName);
+            }
+        }
+
+        artistIndex.values().forEach(names -> names.sort(String.CASE_INSENSITIVE_ORDER));
+        trackIndex.values().forEach(names -> names.sort(String.CASE_INSENSITIVE_ORDER));
+    }
+
+    private static void addReference(Map<String, List<String>> index, String key, String playlistName)
+    {
+        List<String> names = index.computeIfAbsent(key, k -> new ArrayList<>(2));
+
+        // Entries of one playlist are added together, so a repeat is always the last name
+        if (names.isEmpty() || !names.get(names.size() - 1).equals(playlistName))
+            names.add(playlistName);
+    }
+
+    private static String key(String name)
+    {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    private static String trackKey(String track)
+    {
+        String key = key(track);
+        return FormatReaders.isAudioFile(key) ? key.substring(0, key.length() - FormatReaders.extensionLength(key)) : key;
+    }
+
+    /**
+     * @param artist Artist folder name, in any case
+     * @return Names of the playlists with a track by the artist, empty if there are none
+     */
+    public List<String> playlistsWithArtist(String artist)
+    {
+        return artistIndex.getOrDefault(key(artist), List.of());
+    }
+
+    /**
+     * @param track Track title or file name, in any case
+     * @return Names of the playlists containing the track, empty if there are none
+     */
+    public List<String> playlistsWithTrack(String track)
+    {
+        return trackIndex.getOrDefault(trackKey(track), List.of());
+    }
+}
@@ -0,0 +1,138 @@
+package com.apps.geo;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Buffered text output for playlist files.  Text is collected in a large character buffer, encoded in blocks
+ * and written straight to the channel, so a playlist with hundreds of thousands of entries takes a few large
+ * writes.  The encoding and line separator are the platform defaults, the same bytes FileWriter would write.
+ *
+ * @author geo
+ */
+public class PlaylistWriter implements Closeable {
+
+    static final int bufferChars = 256 * 1024;
+    static final int bufferBytes = 1024 * 1024;
+    static final String lineSeparator = System.lineSeparator();
+
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder;
+    private final CharBuffer chars = CharBuffer.allocate(bufferChars);
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(bufferBytes);
+
+    public PlaylistWriter(WritableByteChannel channel)
+    {
+        this.channel = channel;
+        this.encoder = Charset.defaultCharset().newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Open a playlist file for writing
+     * @param playlistFile Playlist file
+     * @param append Add to the end of an existing file instead of replacing it
+     * @return The writer
+     */
+    public static PlaylistWriter open(File playlistFile, boolean append) throws IOException
+    {
+        FileChannel channel = append
+                ? FileChannel.open(playlistFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+                : FileChannel.open(playlistFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        return new PlaylistWriter(channel);
+    }
+
+    public void write(String text) throws IOException
+    {
+        int offset = 0;
+        while (offset < text.length())
+        {
+            if (!chars.hasRemaining())
+                encode(false);
+
+            int count = Math.min(chars.remaining(), text.length() - offset);
+            chars.put(text, offset, offset + count);
+            offset += count;
+        }
+    }
+
+    public void write(char c) throws IOException
+    {
+        if (!chars.hasRemaining())
+            encode(false);
+
+        chars.put(c);
+    }
+
+    public void write(int value) throws IOException
+    {
+        write(Integer.toString(value));
+    }
+
+    public void newLine() throws IOException
+    {
+        write(lineSeparator);
+    }
+
+    /**
+     * Write the buffered text to the channel
+     */
+    public void flush() throws IOException
+    {
+        encode(false);
+        writeBytes();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try (channel)
+        {
+            encode(true);
+            while (encoder.flush(bytes).isOverflow())
+                writeBytes();
+
+            writeBytes();
+        }
+    }
+
+    /*
+     * Encode the buffered characters.  A surrogate pair split at the end of the buffer is kept for the next block.
+     */
+    private void encode(boolean endOfInput) throws IOException
+    {
+        chars.flip();
+
+        while (true)
+        {
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            if (!result.isOverflow())
+                break;
+
+            writeBytes();
+        }
+
+        chars.compact();
+    }
+
+    private void writeBytes() throws IOException
+    {
+        bytes.flip();
+        while (bytes.hasRemaining())
+            channel.write(bytes);
+
+        bytes.clear();
+    }
+}
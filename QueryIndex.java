@@ -0,0 +1,167 @@
+package com.apps.geo;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bitmap view of the category maps for playlist queries.  Each category is converted to a TrackBitmap the first
+ * time a query names it, and the durations are kept in a sorted index for range filters.
+ * The index is a snapshot, build a new one after the category maps change.
+ *
+ * @author geo
+ */
+public class QueryIndex {
+
+    final Map<String, IntList> genreMap;
+    final Map<String, IntList> artistMap;
+    final Map<String, IntList> folderMap;
+
+    private final Map<String, TrackBitmap> genreBitmaps = new ConcurrentHashMap<>();
+    private final Map<String, TrackBitmap> artistBitmaps = new ConcurrentHashMap<>();
+    private final Map<String, TrackBitmap> folderBitmaps = new ConcurrentHashMap<>();
+
+    // Every indexed track, the set a NOT is taken from
+    final TrackBitmap allTracks;
+
+    // Track IDs sorted by duration, and the matching durations
+    private final int[] durationTracks;
+    private final int[] durations;
+
+    /**
+     * Index the tracks in the category maps of the last scan
+     * @return The index
+     */
+    public static QueryIndex build()
+    {
+        return new QueryIndex(PlaylistBuilder.genreMap, PlaylistBuilder.artistMap, PlaylistBuilder.folderMap, PlaylistBuilder.tracks);
+    }
+
+    QueryIndex(Map<String, IntList> genreMap, Map<String, IntList> artistMap, Map<String, IntList> folderMap, TrackTable tracks)
+    {
+        this.genreMap = genreMap;
+        this.artistMap = artistMap;
+        this.folderMap = folderMap;
+
+        /*
+         * Every indexed track is in exactly one folder.  Tracks dropped by the library watcher are still in the
+         * track table, but no longer in a folder.
+         */
+        IntList allTrackIds = new IntList(tracks.size());
+        for (String folder: folderMap.keySet())
+        {
+            for (int trackId: PlaylistBuilder.trackIds(folderMap, folder))
+                allTrackIds.add(trackId);
+        }
+
+        int[] trackIds = allTrackIds.toArray();
+        int trackCount = trackIds.length;
+        allTracks = TrackBitmap.of(trackIds);
+
+        /*
+         * Duration in the high half and track ID in the low half, so one sort orders by duration
+         */
+        long[] sortKeys = new long[trackCount];
+        for (int track = 0; track < trackCount; track++)
+            sortKeys[track] = ((long) tracks.duration(trackIds[track]) << 32) | trackIds[track];
+        Arrays.sort(sortKeys);
+
+        durationTracks = new int[trackCount];
+        durations = new int[trackCount];
+        for (int track = 0; track < trackCount; track++)
+        {
+            durations[track] = (int) (sortKeys[track] >>> 32);
+            durationTracks[track] = (int) sortKeys[track];
+        }
+    }
+
+    public TrackBitmap genre(String genre)
+    {
+        return category(genreMap, genreBitmaps, genre, PlaylistBuilder.genreTags, false);
+    }
+
+    public TrackBitmap artist(String artist)
+    {
+        return category(artistMap, artistBitmaps, artist, PlaylistBuilder.artistTags, false);
+    }
+
+    /**
+     * @param folder Folder path, or a path relative to the media root
+     * @return Tracks in the folder
+     */
+    public TrackBitmap folder(String folder)
+    {
+        return category(folderMap, folderBitmaps, folder, null, true);
+    }
+
+    /**
+     * Tracks with a duration in a range
+     * @param minSeconds Shortest duration, inclusive
+     * @param maxSeconds Longest duration, inclusive
+     * @return Tracks in the range
+     */
+    public TrackBitmap duration(int minSeconds, int maxSeconds)
+    {
+        if (minSeconds > maxSeconds)
+            return TrackBitmap.empty;
+
+        return TrackBitmap.of(durationTracks, firstAtLeast(minSeconds), firstAtLeast(maxSeconds + 1L));
+    }
+
+    /*
+     * Position of the first duration that is not below the value
+     */
+    private int firstAtLeast(long seconds)
+    {
+        int low = 0;
+        int high = durations.length;
+
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (durations[middle] < seconds)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        return low;
+    }
+
+    /*
+     * Category values are matched exactly, then without case, then by the tag folding rules, so genre:hip-hop finds
+     * "Hip-Hop" and genre:17 finds "Rock".  Folders may also be named relative to the media root.
+     */
+    private static TrackBitmap category(Map<String, IntList> categoryMap, Map<String, TrackBitmap> bitmaps, String value, TagDictionary tags, boolean folder)
+    {
+        TrackBitmap bitmap = bitmaps.get(value);
+        if (bitmap != null)
+            return bitmap;
+
+        String key = findKey(categoryMap, value);
+        if (key == null && tags != null)
+            key = tags.find(value);
+        if (key == null && folder)
+            key = findKey(categoryMap, PlaylistBuilder.mediaRootPath + File.separator + value);
+
+        bitmap = (key == null) ? TrackBitmap.empty : TrackBitmap.of(PlaylistBuilder.trackIds(categoryMap, key));
+
+        bitmaps.put(value, bitmap);
+        return bitmap;
+    }
+
+    private static String findKey(Map<String, IntList> categoryMap, String value)
+    {
+        if (categoryMap.containsKey(value))
+            return value;
+
+        for (String key: categoryMap.keySet())
+        {
+            if (key.equalsIgnoreCase(value))
+                return key;
+        }
+
+        return null;
+    }
+}
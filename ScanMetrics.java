@@ -0,0 +1,194 @@
+package com.apps.geo;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for each stage of a run.  A stage is timed by the caller:
+ *
+ *      long stageStart = System.nanoTime();
+ *      ...
+ *      ScanMetrics.record(ScanMetrics.Stage.TAG_PARSE, stageStart);
+ *
+ * Each histogram has power-of-two buckets from 1 microsecond up to about 67 seconds.  At the end of the run
+ * the metrics are written as JSON and in the Prometheus text format:
+ *      <prefix>.json
+ *      <prefix>.prom
+ *
+ * @author geo
+ */
+public class ScanMetrics {
+
+    public enum Stage
+    {
+        WALK("walk"),                       // directory walk, per media file found
+        OPEN("open"),                       // opening a media file
+        TAG_PARSE("tag_parse"),             // reading the tags, the full parse when the header-only reader cannot be used
+        DURATION("duration"),               // computing the length from the MPEG frame headers
+        FINGERPRINT("fingerprint"),         // hashing the audio payload, only when duplicates are collapsed
+        INDEX_INSERT("index_insert"),       // adding a file to the track table and the category maps
+        PLAYLIST_WRITE("playlist_write");   // writing one playlist entry
+
+        final String metricName;
+
+        Stage(String metricName)
+        {
+            this.metricName = metricName;
+        }
+    }
+
+    static final int bucketCount = 28;
+    static final String defaultPrefix = "playlist-manager-metrics";
+    static final String metricPrefix = "playlist_manager_stage";
+
+    /**
+     * Count, total and maximum time and latency histogram of one stage
+     */
+    private static class StageMetrics
+    {
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+
+        // Bucket n holds the samples up to 2^n microseconds, the last bucket holds everything longer
+        final AtomicLongArray buckets = new AtomicLongArray(bucketCount);
+    }
+
+    private static final StageMetrics[] stages = new StageMetrics[Stage.values().length];
+
+    static {
+        for (Stage stage: Stage.values())
+            stages[stage.ordinal()] = new StageMetrics();
+    }
+
+    /**
+     * Record one sample that started at the given time and ends now
+     * @param stage Stage of the run
+     * @param startNanos Start of the sample, from System.nanoTime()
+     */
+    public static void record(Stage stage, long startNanos)
+    {
+        long elapsed = System.nanoTime() - startNanos;
+        StageMetrics metrics = stages[stage.ordinal()];
+
+        metrics.count.increment();
+        metrics.totalNanos.add(elapsed);
+        metrics.buckets.incrementAndGet(bucket(elapsed));
+
+        if (elapsed > metrics.maxNanos.get())
+            metrics.maxNanos.accumulateAndGet(elapsed, Math::max);
+    }
+
+    static int bucket(long nanos)
+    {
+        long micros = nanos / 1000;
+        if (micros <= 1)
+            return 0;
+
+        return Math.min(64 - Long.numberOfLeadingZeros(micros - 1), bucketCount - 1);
+    }
+
+    /*
+     * Upper bound of a bucket in seconds, the last bucket has no bound
+     */
+    static double bucketBound(int bucket)
+    {
+        return (1L << bucket) / 1e6;
+    }
+
+    /**
+     * Write the metrics files when the application exits, including the paths that end with System.exit()
+     * @param prefix Path and name of the metrics files, without the extension
+     */
+    public static void exportOnExit(String prefix)
+    {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> export(prefix)));
+    }
+
+    /**
+     * Write the metrics as JSON and as Prometheus text
+     * @param prefix Path and name of the metrics files, without the extension
+     */
+    public static void export(String prefix)
+    {
+        writeFile(Path.of(prefix + ".json"), toJson());
+        writeFile(Path.of(prefix + ".prom"), toPrometheus());
+    }
+
+    private static void writeFile(Path metricsPath, String content)
+    {
+        try (BufferedWriter bw = Files.newBufferedWriter(metricsPath, StandardCharsets.UTF_8))
+        {
+            bw.write(content);
+        }
+        catch (IOException e)
+        {
+            System.out.printf("%n* * * Metrics file %s could not be written: %s * * *%n", metricsPath, e.getMessage());
+        }
+    }
+
+    static String toJson()
+    {
+        StringBuilder json = new StringBuilder("{\n  \"stages\": {\n");
+
+        for (Stage stage: Stage.values())
+        {
+            StageMetrics metrics = stages[stage.ordinal()];
+
+            json.append(String.format(Locale.ROOT, "    \"%s\": {\"count\": %d, \"total_seconds\": %.6f, \"max_seconds\": %.6f, \"buckets\": [",
+                    stage.metricName, metrics.count.sum(), metrics.totalNanos.sum() / 1e9, metrics.maxNanos.get() / 1e9));
+
+            for (int bucket = 0; bucket < bucketCount; bucket++)
+            {
+                String bound = (bucket == bucketCount - 1) ? "\"+Inf\"" : String.format(Locale.ROOT, "%.6f", bucketBound(bucket));
+                json.append(String.format("%s{\"le\": %s, \"count\": %d}", (bucket == 0) ? "" : ", ", bound, metrics.buckets.get(bucket)));
+            }
+
+            json.append((stage.ordinal() == stages.length - 1) ? "]}\n" : "]},\n");
+        }
+
+        return json.append("  }\n}\n").toString();
+    }
+
+    /*
+     * Prometheus histograms use cumulative buckets.  The text format needs '\n' line ends on every platform.
+     */
+    static String toPrometheus()
+    {
+        StringBuilder prom = new StringBuilder();
+
+        prom.append(String.format("# HELP %s_seconds Time spent in each stage of the run\n", metricPrefix));
+        prom.append(String.format("# TYPE %s_seconds histogram\n", metricPrefix));
+
+        for (Stage stage: Stage.values())
+        {
+            StageMetrics metrics = stages[stage.ordinal()];
+            long cumulative = 0;
+
+            for (int bucket = 0; bucket < bucketCount; bucket++)
+            {
+                cumulative += metrics.buckets.get(bucket);
+                String bound = (bucket == bucketCount - 1) ? "+Inf" : String.format(Locale.ROOT, "%.6f", bucketBound(bucket));
+                prom.append(String.format("%s_seconds_bucket{stage=\"%s\",le=\"%s\"} %d\n", metricPrefix, stage.metricName, bound, cumulative));
+            }
+
+            prom.append(String.format(Locale.ROOT, "%s_seconds_sum{stage=\"%s\"} %.6f\n", metricPrefix, stage.metricName, metrics.totalNanos.sum() / 1e9));
+            prom.append(String.format("%s_seconds_count{stage=\"%s\"} %d\n", metricPrefix, stage.metricName, cumulative));
+        }
+
+        prom.append(String.format("# HELP %s_max_seconds Longest single sample of each stage\n", metricPrefix));
+        prom.append(String.format("# TYPE %s_max_seconds gauge\n", metricPrefix));
+
+        for (Stage stage: Stage.values())
+            prom.append(String.format(Locale.ROOT, "%s_max_seconds{stage=\"%s\"} %.6f\n", metricPrefix, stage.metricName, stages[stage.ordinal()].maxNanos.get() / 1e9));
+
+        return prom.toString();
+    }
+}
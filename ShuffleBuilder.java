@@ -0,0 +1,297 @@
+package com.apps.geo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+/**
+ * Random playlists drawn from a set of candidate tracks.  Tracks are drawn without replacement:
+ *      by track: every candidate is equally likely
+ *      by genre or artist: a category is chosen with an alias table over the category weights, then one of its
+ *          tracks, so every category gets its share of the playlist whatever its size
+ * An artist spread of N keeps an artist from playing again within N tracks where the candidates allow it.
+ *
+ * Every choice comes from one seeded random source, the categories are taken in sorted order and the tracks of
+ * each group in path order, so the same seed, options and library give the same playlist whatever order the scan
+ * gave the track IDs.
+ *
+ * @author geo
+ */
+public class ShuffleBuilder {
+
+    static final String byTrack = "track";
+    static final String byGenre = "genre";
+    static final String byArtist = "artist";
+
+    // Draws rejected by the artist spread before a track is taken anyway
+    static final int spreadAttempts = 64;
+
+    /**
+     * Shuffle settings
+     */
+    static class Options
+    {
+        String by = byTrack;
+        Map<String, Double> weights = Map.of();
+        double defaultWeight = 1.0;
+        int spread = 0;
+        long seed = 0;
+
+        /**
+         * Read settings from space separated words: by=track|genre|artist weights=Rock:3,Jazz:0.5 spread=N seed=N
+         * @param text Settings
+         * @param seed Seed used when the settings do not name one
+         * @return The settings, or null if a word is not understood.  The reason is shown on the console.
+         */
+        static Options parse(String text, long seed)
+        {
+            Options options = new Options();
+            options.seed = seed;
+
+            for (String word: text.trim().split("\\s+"))
+            {
+                if (word.isEmpty())
+                    continue;
+
+                int equals = word.indexOf('=');
+                String name = (equals < 0) ? word : word.substring(0, equals);
+                String value = (equals < 0) ? "" : word.substring(equals + 1);
+
+                try
+                {
+                    switch (name) {
+                        case "by" -> {
+                            if (!value.equals(byTrack) && !value.equals(byGenre) && !value.equals(byArtist))
+                                throw new IllegalArgumentException("by must be track, genre or artist");
+                            options.by = value;
+                        }
+                        case "weights" -> options.weights = parseWeights(value);
+                        case "spread" -> options.spread = Integer.parseInt(value);
+                        case "seed" -> options.seed = Long.parseLong(value);
+                        default -> throw new IllegalArgumentException("unknown setting");
+                    }
+                }
+                catch (IllegalArgumentException e)
+                {
+                    System.out.printf("%n* * * Shuffle setting '%s' is invalid: %s * * *%n", word, e.getMessage());
+                    return null;
+                }
+            }
+
+            return options;
+        }
+
+        /*
+         * Category:weight pairs separated by commas.  Category names with spaces use '_' in place of the spaces.
+         */
+        private static Map<String, Double> parseWeights(String value)
+        {
+            Map<String, Double> weights = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (String pair: value.split(","))
+            {
+                int colon = pair.lastIndexOf(':');
+                if (colon <= 0)
+                    throw new IllegalArgumentException("weights are category:weight pairs");
+
+                double weight = Double.parseDouble(pair.substring(colon + 1));
+                if (!(weight >= 0) || Double.isInfinite(weight))
+                    throw new IllegalArgumentException("a weight must be zero or more");
+
+                weights.put(pair.substring(0, colon).replace('_', ' '), weight);
+            }
+            return weights;
+        }
+    }
+
+    /**
+     * Draw a random playlist
+     * @param candidates Candidate track IDs, ascending
+     * @param count Number of tracks wanted, fewer are returned if there are not enough candidates
+     * @param options Shuffle settings
+     * @return Track IDs in play order
+     */
+    public static int[] shuffle(int[] candidates, int count, Options options)
+    {
+        SplittableRandom random = new SplittableRandom(options.seed);
+        int[] trackArtists = (options.spread > 0) ? trackArtists() : null;
+
+        /*
+         * Group the candidates by category, or one group holding every candidate
+         */
+        List<int[]> groups = new ArrayList<>();
+        List<Double> groupWeights = new ArrayList<>();
+
+        if (options.by.equals(byTrack))
+        {
+            groups.add(PlaylistBuilder.tracks.inPathOrder(candidates));
+            groupWeights.add(1.0);
+        }
+        else
+        {
+            Map<String, IntList> categoryMap = options.by.equals(byGenre) ? PlaylistBuilder.genreMap : PlaylistBuilder.artistMap;
+            BitSet isCandidate = new BitSet();
+            for (int trackId: candidates)
+                isCandidate.set(trackId);
+
+            for (String category: new TreeMap<>(categoryMap).keySet())
+            {
+                double weight = options.weights.getOrDefault(category, options.defaultWeight);
+                int[] groupTracks = Arrays.stream(PlaylistBuilder.trackIds(categoryMap, category)).filter(isCandidate::get).toArray();
+
+                if (groupTracks.length > 0 && weight > 0)
+                {
+                    groups.add(PlaylistBuilder.tracks.inPathOrder(groupTracks));
+                    groupWeights.add(weight);
+                }
+            }
+        }
+
+        /*
+         * Each group is drawn from the front of a partial Fisher-Yates shuffle, remaining[g] tracks are still unplayed
+         */
+        int[] remaining = groups.stream().mapToInt(group -> group.length).toArray();
+        double[] weights = groupWeights.stream().mapToDouble(Double::doubleValue).toArray();
+        GroupSampler sampler = new GroupSampler(weights, remaining);
+
+        int[] playlist = new int[Math.min(count, candidates.length)];
+        int played = 0;
+        BitSet isPlayed = new BitSet();
+        int[] lastPlayed = (trackArtists == null) ? null : new int[PlaylistBuilder.artistMap.size() + 1];
+        if (lastPlayed != null)
+            Arrays.fill(lastPlayed, Integer.MIN_VALUE / 2);
+
+        int rejected = 0;
+        while (played < playlist.length && sampler.hasGroups())
+        {
+            int group = sampler.sample(random);
+            int[] groupTracks = groups.get(group);
+
+            int pick = random.nextInt(remaining[group]);
+            int trackId = groupTracks[pick];
+            groupTracks[pick] = groupTracks[remaining[group] - 1];
+            groupTracks[remaining[group] - 1] = trackId;
+            remaining[group]--;
+
+            // A track by two artists is in both artist groups
+            if (isPlayed.get(trackId))
+            {
+                sampler.update(group);
+                continue;
+            }
+
+            if (trackArtists != null && rejected < spreadAttempts)
+            {
+                int artist = trackArtists[trackId];
+                if (artist >= 0 && played - lastPlayed[artist] <= options.spread)
+                {
+                    // Put the track back, it may still be played later
+                    remaining[group]++;
+                    rejected++;
+                    continue;
+                }
+            }
+
+            sampler.update(group);
+            isPlayed.set(trackId);
+            playlist[played] = trackId;
+            if (trackArtists != null && trackArtists[trackId] >= 0)
+                lastPlayed[trackArtists[trackId]] = played;
+
+            played++;
+            rejected = 0;
+        }
+
+        return Arrays.copyOf(playlist, played);
+    }
+
+    /*
+     * Artist number of each track, -1 for tracks without an artist.  Artists are numbered in sorted order,
+     * and a track listed under two artists takes the first.
+     */
+    private static int[] trackArtists()
+    {
+        int[] trackArtists = new int[PlaylistBuilder.tracks.size()];
+        Arrays.fill(trackArtists, -1);
+
+        int artist = 0;
+        for (String category: new TreeMap<>(PlaylistBuilder.artistMap).keySet())
+        {
+            for (int trackId: PlaylistBuilder.trackIds(PlaylistBuilder.artistMap, category))
+            {
+                if (trackArtists[trackId] < 0)
+                    trackArtists[trackId] = artist;
+            }
+            artist++;
+        }
+
+        return trackArtists;
+    }
+
+    /*
+     * Alias table over the groups that still have tracks.  An emptied group stays in the table and is skipped
+     * when drawn, until the emptied groups hold half the weight and the table is rebuilt without them.
+     */
+    private static class GroupSampler
+    {
+        final double[] weights;
+        final int[] remaining;
+        int[] liveGroups;
+        AliasTable table;
+        double liveWeight;
+        double emptiedWeight;
+
+        GroupSampler(double[] weights, int[] remaining)
+        {
+            this.weights = weights;
+            this.remaining = remaining;
+            rebuild();
+        }
+
+        boolean hasGroups()
+        {
+            return liveGroups.length > 0;
+        }
+
+        int sample(SplittableRandom random)
+        {
+            while (true)
+            {
+                int group = liveGroups[table.sample(random)];
+                if (remaining[group] > 0)
+                    return group;
+            }
+        }
+
+        // Called after a track is taken from a group
+        void update(int group)
+        {
+            if (remaining[group] > 0)
+                return;
+
+            emptiedWeight += weights[group];
+            if (emptiedWeight * 2 >= liveWeight)
+                rebuild();
+        }
+
+        private void rebuild()
+        {
+            liveGroups = IntStream.range(0, weights.length).filter(group -> remaining[group] > 0).toArray();
+            liveWeight = 0;
+            emptiedWeight = 0;
+
+            double[] liveWeights = new double[liveGroups.length];
+            for (int index = 0; index < liveGroups.length; index++)
+            {
+                liveWeights[index] = weights[liveGroups[index]];
+                liveWeight += liveWeights[index];
+            }
+
+            table = liveGroups.length > 0 ? new AliasTable(liveWeights) : null;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.apps.geo;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared dictionary of the values of one tag, genre or artist.  Each distinct raw value is stored once and given a
+ * raw ID, so the catalog holds small ints instead of a String for every file.  Raw values that only differ by the
+ * folding rules, "Hip-Hop" and "hip hop" or "(17)" and "Rock", are given the same canonical ID, and the tracks of
+ * all of them are indexed under one category name.
+ *
+ * The category name of a canonical ID is the standard ID3 genre name if there is one, otherwise the best of its
+ * raw values: mixed case before all upper or lower case, "The X" before "X, The", then the first in sort order.
+ * The choice does not depend on the order the files were scanned in.  Names are fixed by settle() once the scan
+ * is complete, later values do not rename a category.
+ *
+ * Raw values are added by the scan threads.  A new value takes a lock, a value that is already known is a map lookup.
+ *
+ * @author geo
+ */
+public class TagDictionary {
+
+    /**
+     * Folding rules, applied to a raw value to find its canonical form
+     */
+    enum Fold
+    {
+        CASE,           // Upper and lower case are the same
+        SPACE,          // Leading and trailing spaces are dropped, runs of spaces are one space
+        PUNCTUATION,    // '-' and '_' are spaces, '.' and '\'' are dropped
+        THE             // A leading "The " or a trailing ", The" is dropped
+    }
+
+    static final Set<Fold> allFolds = EnumSet.allOf(Fold.class);
+
+    private final boolean id3Genres;
+    private final Set<Fold> folds;
+
+    // Raw value to raw ID, and canonical form to canonical ID
+    private final Map<String, Integer> rawIds = new ConcurrentHashMap<>();
+    private final Map<String, Integer> canonicalIds = new ConcurrentHashMap<>();
+
+    // Columns indexed by raw ID and by canonical ID, replaced when they grow
+    private volatile String[] rawValues = new String[64];
+    private volatile int[] rawCanonical = new int[64];
+    private volatile String[] names = new String[64];
+    private int rawCount = 0;
+    private int canonicalCount = 0;
+    private boolean settled = false;
+
+    // Canonical forms of the standard ID3 genres, to name a canonical genre
+    private final Map<String, String> standardNames = new ConcurrentHashMap<>();
+
+    /**
+     * @param id3Genres Resolve ID3v1 genre numbers, "(17)" or "17", to their names
+     * @param folds Folding rules
+     */
+    public TagDictionary(boolean id3Genres, Set<Fold> folds)
+    {
+        this.id3Genres = id3Genres;
+        this.folds = folds.isEmpty() ? EnumSet.noneOf(Fold.class) : EnumSet.copyOf(folds);
+
+        if (id3Genres)
+        {
+            for (String genre: Id3TagReader.genres)
+                standardNames.putIfAbsent(fold(genre), genre);
+        }
+    }
+
+    /**
+     * Read folding rules from a comma separated list: case, space, punct, the, all or none
+     * @param text Rule list
+     * @return The rules, or null if a rule is not known.  The reason is shown on the console.
+     */
+    static Set<Fold> parseFolds(String text)
+    {
+        Set<Fold> folds = EnumSet.noneOf(Fold.class);
+
+        for (String rule: text.toLowerCase(Locale.ROOT).split(","))
+        {
+            switch (rule.trim()) {
+                case "case" -> folds.add(Fold.CASE);
+                case "space" -> folds.add(Fold.SPACE);
+                case "punct" -> folds.add(Fold.PUNCTUATION);
+                case "the" -> folds.add(Fold.THE);
+                case "all" -> folds.addAll(allFolds);
+                case "none", "" -> { }
+                default -> {
+                    System.out.printf("%n* * * Unknown tag folding rule '%s', use case, space, punct, the, all or none * * *%n", rule.trim());
+                    return null;
+                }
+            }
+        }
+
+        return folds;
+    }
+
+    /**
+     * Store a raw value
+     * @param value Tag value as read from the file
+     * @return The raw ID, or -1 for a missing or empty value
+     */
+    public int raw(String value)
+    {
+        if (value == null || value.isEmpty())
+            return -1;
+
+        Integer rawId = rawIds.get(value);
+        return (rawId != null) ? rawId : addRaw(value);
+    }
+
+    /**
+     * @param rawId Raw ID, or -1
+     * @return The raw value, or null for -1
+     */
+    public String value(int rawId)
+    {
+        return (rawId < 0) ? null : rawValues[rawId];
+    }
+
+    /**
+     * @param rawId Raw ID, or -1
+     * @return The canonical ID, or -1 for -1
+     */
+    public int canonical(int rawId)
+    {
+        return (rawId < 0) ? -1 : rawCanonical[rawId];
+    }
+
+    /**
+     * @param canonicalId Canonical ID
+     * @return The category name
+     */
+    public String name(int canonicalId)
+    {
+        return names[canonicalId];
+    }
+
+    /**
+     * Category name of a raw value, the key it is indexed under in the category map
+     * @param value Tag value as read from the file
+     * @return The category name, or null for a missing or empty value
+     */
+    public String category(String value)
+    {
+        int rawId = raw(value);
+        return (rawId < 0) ? null : names[rawCanonical[rawId]];
+    }
+
+    /**
+     * Find the category a value folds to, without adding the value
+     * @param value Tag value
+     * @return The category name, or null if no stored value folds to it
+     */
+    public String find(String value)
+    {
+        if (value == null || value.isEmpty())
+            return null;
+
+        Integer canonicalId = canonicalIds.get(fold(resolve(value)));
+        return (canonicalId == null) ? null : names[canonicalId];
+    }
+
+    /**
+     * Canonical ID of the category a value folds to, without adding the value
+     * @param value Tag value or category name
+     * @return The canonical ID, or -1 if no stored value folds to it
+     */
+    public int canonicalId(String value)
+    {
+        if (value == null || value.isEmpty())
+            return -1;
+
+        Integer canonicalId = canonicalIds.get(fold(resolve(value)));
+        return (canonicalId == null) ? -1 : canonicalId;
+    }
+
+    public synchronized int size()
+    {
+        return canonicalCount;
+    }
+
+    /**
+     * Move the tracks of the category map to the final category names, and fix the names.  Tracks indexed while
+     * a name was still changing are under an earlier raw value of the same canonical ID.
+     * @param categoryMap Category map whose keys are names from this dictionary
+     */
+    public synchronized void settle(Map<String, IntList> categoryMap)
+    {
+        for (String key: categoryMap.keySet().toArray(new String[0]))
+        {
+            String name = category(key);
+            if (name.equals(key))
+                continue;
+
+            IntList moved = categoryMap.remove(key);
+            IntList trackList = categoryMap.computeIfAbsent(name, newKey -> new IntList(moved.size()));
+            for (int trackId: moved.toArray())
+                trackList.add(trackId);
+        }
+
+        settled = true;
+    }
+
+    private synchronized int addRaw(String value)
+    {
+        Integer rawId = rawIds.get(value);
+        if (rawId != null)
+            return rawId;
+
+        String resolved = resolve(value);
+        String canonical = fold(resolved);
+        String display = folds.contains(Fold.SPACE) ? collapseSpaces(resolved) : resolved;
+
+        Integer canonicalId = canonicalIds.get(canonical);
+        if (canonicalId == null)
+        {
+            canonicalId = canonicalCount++;
+            if (canonicalId == names.length)
+                names = Arrays.copyOf(names, canonicalId * 2);
+
+            names[canonicalId] = standardNames.getOrDefault(canonical, display);
+            canonicalIds.put(canonical, canonicalId);
+        }
+        else if (!settled && !standardNames.containsKey(canonical) && preferred(display, names[canonicalId]))
+        {
+            names[canonicalId] = display;
+        }
+
+        int newId = rawCount++;
+        if (newId == rawValues.length)
+        {
+            rawCanonical = Arrays.copyOf(rawCanonical, newId * 2);
+            rawValues = Arrays.copyOf(rawValues, newId * 2);
+        }
+
+        rawCanonical[newId] = canonicalId;
+        rawValues[newId] = value;
+
+        // Published last, a reader that finds the ID also finds the columns that hold it
+        rawIds.put(value, newId);
+        return newId;
+    }
+
+    /*
+     * ID3v1 genre numbers are replaced by the genre name
+     */
+    private String resolve(String value)
+    {
+        return id3Genres ? Id3TagReader.resolveGenre(value.trim()) : value;
+    }
+
+    /*
+     * Canonical form of a value under the folding rules
+     */
+    String fold(String value)
+    {
+        String folded = value;
+
+        if (folds.contains(Fold.PUNCTUATION))
+            folded = folded.replace('-', ' ').replace('_', ' ').replace(".", "").replace("'", "");
+        if (folds.contains(Fold.SPACE) || folds.contains(Fold.PUNCTUATION))
+            folded = collapseSpaces(folded);
+        if (folds.contains(Fold.CASE))
+            folded = folded.toLowerCase(Locale.ROOT);
+
+        if (folds.contains(Fold.THE))
+        {
+            if (folded.regionMatches(true, 0, "the ", 0, 4) && folded.length() > 4)
+                folded = folded.substring(4);
+            else if (folded.regionMatches(true, folded.length() - 5, ", the", 0, 5) && folded.length() > 5)
+                folded = folded.substring(0, folded.length() - 5);
+        }
+
+        return folded.isEmpty() ? value : folded;
+    }
+
+    /*
+     * Whether a value makes a better category name than the current one
+     */
+    private static boolean preferred(String value, String current)
+    {
+        boolean valueMixed = !value.equals(value.toUpperCase(Locale.ROOT)) && !value.equals(value.toLowerCase(Locale.ROOT));
+        boolean currentMixed = !current.equals(current.toUpperCase(Locale.ROOT)) && !current.equals(current.toLowerCase(Locale.ROOT));
+        if (valueMixed != currentMixed)
+            return valueMixed;
+
+        boolean valueTrailing = value.regionMatches(true, value.length() - 5, ", the", 0, 5);
+        boolean currentTrailing = current.regionMatches(true, current.length() - 5, ", the", 0, 5);
+        if (valueTrailing != currentTrailing)
+            return currentTrailing;
+
+        return value.compareTo(current) < 0;
+    }
+
+    private static String collapseSpaces(String value)
+    {
+        return value.strip().replaceAll("\\s+", " ");
+    }
+}
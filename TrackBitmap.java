@@ -0,0 +1,294 @@
+package com.apps.geo;
+
+import java.util.Arrays;
+
+/**
+ * Immutable compressed set of track IDs.  The ID range is split into blocks of 65536 IDs, and only blocks that
+ * hold tracks are stored.  A sparse block is a sorted array of the low 16 bits of its IDs, a dense block is a
+ * 1024-word bitmap.  AND, OR and AND NOT work block by block on the bitmap words, so a million tracks take a few
+ * thousand word operations.
+ *
+ * @author geo
+ */
+public class TrackBitmap {
+
+    static final int blockBits = 16;
+    static final int blockMask = (1 << blockBits) - 1;
+    static final int blockWords = 1 << (blockBits - 6);
+
+    // A sorted array is smaller than the bitmap up to this many IDs
+    static final int arrayLimit = 4096;
+
+    static final TrackBitmap empty = new TrackBitmap(new char[0], new Object[0], new int[0], 0);
+
+    // High bits of the IDs in each block, ascending.  A block is a char[] of low bits or a long[] bitmap.
+    private final char[] keys;
+    private final Object[] blocks;
+    private final int[] counts;
+    private final int blockCount;
+
+    private TrackBitmap(char[] keys, Object[] blocks, int[] counts, int blockCount)
+    {
+        this.keys = keys;
+        this.blocks = blocks;
+        this.counts = counts;
+        this.blockCount = blockCount;
+    }
+
+    /**
+     * Set of track IDs, in any order
+     * @param trackIds Track IDs
+     * @param from First ID to take
+     * @param to End of the IDs to take, exclusive
+     * @return The set
+     */
+    public static TrackBitmap of(int[] trackIds, int from, int to)
+    {
+        if (from >= to)
+            return empty;
+
+        int maxId = 0;
+        for (int index = from; index < to; index++)
+            maxId = Math.max(maxId, trackIds[index]);
+
+        long[][] words = new long[(maxId >>> blockBits) + 1][];
+        for (int index = from; index < to; index++)
+        {
+            int trackId = trackIds[index];
+            int block = trackId >>> blockBits;
+
+            if (words[block] == null)
+                words[block] = new long[blockWords];
+
+            words[block][(trackId & blockMask) >>> 6] |= 1L << trackId;
+        }
+
+        Builder builder = new Builder(words.length);
+        for (int block = 0; block < words.length; block++)
+        {
+            if (words[block] != null)
+                builder.add(block, words[block]);
+        }
+
+        return builder.build();
+    }
+
+    public static TrackBitmap of(int[] trackIds)
+    {
+        return of(trackIds, 0, trackIds.length);
+    }
+
+    public int cardinality()
+    {
+        int cardinality = 0;
+        for (int block = 0; block < blockCount; block++)
+            cardinality += counts[block];
+
+        return cardinality;
+    }
+
+    public boolean isEmpty()
+    {
+        return blockCount == 0;
+    }
+
+    public TrackBitmap and(TrackBitmap other)
+    {
+        return combine(this, other, Op.AND);
+    }
+
+    public TrackBitmap or(TrackBitmap other)
+    {
+        return combine(this, other, Op.OR);
+    }
+
+    public TrackBitmap andNot(TrackBitmap other)
+    {
+        return combine(this, other, Op.AND_NOT);
+    }
+
+    /**
+     * @return The track IDs, ascending
+     */
+    public int[] toArray()
+    {
+        int[] trackIds = new int[cardinality()];
+        int index = 0;
+
+        for (int block = 0; block < blockCount; block++)
+        {
+            int high = keys[block] << blockBits;
+
+            if (blocks[block] instanceof char[] lows)
+            {
+                for (char low: lows)
+                    trackIds[index++] = high | low;
+            }
+            else
+            {
+                long[] words = (long[]) blocks[block];
+                for (int word = 0; word < blockWords; word++)
+                {
+                    long bits = words[word];
+                    while (bits != 0)
+                    {
+                        trackIds[index++] = high | (word << 6) | Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+                    }
+                }
+            }
+        }
+
+        return trackIds;
+    }
+
+    /**
+     * @return The track IDs in ascending order, as a posting list for fileWriter()
+     */
+    public IntList toIntList()
+    {
+        int[] trackIds = toArray();
+        IntList trackList = new IntList(trackIds.length);
+        for (int trackId: trackIds)
+            trackList.add(trackId);
+
+        return trackList;
+    }
+
+    private enum Op {AND, OR, AND_NOT}
+
+    /*
+     * Walk the two block lists in key order.  Blocks in only one set are kept or dropped depending on the operation,
+     * blocks in both sets are combined word by word.
+     */
+    private static TrackBitmap combine(TrackBitmap left, TrackBitmap right, Op op)
+    {
+        Builder builder = new Builder(left.blockCount + right.blockCount);
+        int leftBlock = 0;
+        int rightBlock = 0;
+
+        while (leftBlock < left.blockCount || rightBlock < right.blockCount)
+        {
+            int leftKey = leftBlock < left.blockCount ? left.keys[leftBlock] : Integer.MAX_VALUE;
+            int rightKey = rightBlock < right.blockCount ? right.keys[rightBlock] : Integer.MAX_VALUE;
+
+            if (leftKey < rightKey)
+            {
+                if (op != Op.AND)
+                    builder.copy(leftKey, left.blocks[leftBlock], left.counts[leftBlock]);
+                leftBlock++;
+            }
+            else if (rightKey < leftKey)
+            {
+                if (op == Op.OR)
+                    builder.copy(rightKey, right.blocks[rightBlock], right.counts[rightBlock]);
+                rightBlock++;
+            }
+            else
+            {
+                long[] leftWords = words(left.blocks[leftBlock++]);
+                long[] rightWords = words(right.blocks[rightBlock++]);
+                long[] result = new long[blockWords];
+
+                switch (op) {
+                    case AND -> {
+                        for (int word = 0; word < blockWords; word++)
+                            result[word] = leftWords[word] & rightWords[word];
+                    }
+                    case OR -> {
+                        for (int word = 0; word < blockWords; word++)
+                            result[word] = leftWords[word] | rightWords[word];
+                    }
+                    case AND_NOT -> {
+                        for (int word = 0; word < blockWords; word++)
+                            result[word] = leftWords[word] & ~rightWords[word];
+                    }
+                }
+
+                builder.add(leftKey, result);
+            }
+        }
+
+        return builder.build();
+    }
+
+    /*
+     * Bitmap words of a block.  A dense block is returned as is, so the result must not be changed.
+     */
+    private static long[] words(Object block)
+    {
+        if (block instanceof long[] words)
+            return words;
+
+        long[] words = new long[blockWords];
+        for (char low: (char[]) block)
+            words[low >>> 6] |= 1L << low;
+
+        return words;
+    }
+
+    /*
+     * Collects blocks in key order and stores each one in its smaller form
+     */
+    private static class Builder
+    {
+        char[] keys;
+        Object[] blocks;
+        int[] counts;
+        int blockCount = 0;
+
+        Builder(int capacity)
+        {
+            keys = new char[capacity];
+            blocks = new Object[capacity];
+            counts = new int[capacity];
+        }
+
+        void add(int key, long[] words)
+        {
+            int count = 0;
+            for (long word: words)
+                count += Long.bitCount(word);
+
+            if (count == 0)
+                return;
+
+            if (count > arrayLimit)
+            {
+                copy(key, words, count);
+                return;
+            }
+
+            char[] lows = new char[count];
+            int index = 0;
+            for (int word = 0; word < blockWords; word++)
+            {
+                long bits = words[word];
+                while (bits != 0)
+                {
+                    lows[index++] = (char) ((word << 6) | Long.numberOfTrailingZeros(bits));
+                    bits &= bits - 1;
+                }
+            }
+
+            copy(key, lows, count);
+        }
+
+        // Blocks are never changed once built, so they are shared between sets
+        void copy(int key, Object block, int count)
+        {
+            keys[blockCount] = (char) key;
+            blocks[blockCount] = block;
+            counts[blockCount] = count;
+            blockCount++;
+        }
+
+        TrackBitmap build()
+        {
+            if (blockCount == 0)
+                return empty;
+
+            return new TrackBitmap(Arrays.copyOf(keys, blockCount), Arrays.copyOf(blocks, blockCount), Arrays.copyOf(counts, blockCount), blockCount);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.apps.geo;
+
+import java.util.Locale;
+
+/**
+ * Playlist query over the genre, artist and folder categories and the track durations.  A query is compiled once
+ * and evaluated against a QueryIndex, each category becomes a bitmap and the operators are bitmap operations.
+ *
+ * Query syntax, keywords are not case sensitive and AND binds tighter than OR:
+ *      query      := term { OR term }
+ *      term       := factor { AND factor }
+ *      factor     := NOT factor | ( query ) | category | duration
+ *      category   := genre:value | artist:value | folder:value
+ *      duration   := duration op time        op is <, <=, >, >= or =, time is seconds, m:ss or h:mm:ss
+ *
+ * A value with spaces is quoted, "Miles Davis".  A folder is a path, or a path relative to the media root.
+ * For example:
+ *      genre:Jazz AND NOT artist:"Miles Davis" AND duration < 6:00
+ *
+ * @author geo
+ */
+public class TrackQuery {
+
+    /**
+     * Compiled part of a query
+     */
+    interface Node
+    {
+        TrackBitmap evaluate(QueryIndex index);
+    }
+
+    final String text;
+    private final Node root;
+
+    // Parser state
+    private int position = 0;
+
+    private TrackQuery(String text)
+    {
+        this.text = text;
+        this.root = parseQuery();
+
+        skipSpaces();
+        if (position < text.length())
+            throw error("unexpected '" + text.charAt(position) + "'");
+    }
+
+    /**
+     * Compile a query
+     * @param text Query text
+     * @return The query, or null if the text is not a valid query.  The reason is shown on the console.
+     */
+    public static TrackQuery compile(String text)
+    {
+        try
+        {
+            return new TrackQuery(text);
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.out.printf("%n* * * Invalid query: %s * * *%n", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @param index Bitmap index of the library
+     * @return Tracks matching the query
+     */
+    public TrackBitmap evaluate(QueryIndex index)
+    {
+        return root.evaluate(index);
+    }
+
+    private Node parseQuery()
+    {
+        Node left = parseTerm();
+        while (keyword("OR"))
+        {
+            Node first = left;
+            Node second = parseTerm();
+            left = index -> first.evaluate(index).or(second.evaluate(index));
+        }
+        return left;
+    }
+
+    private Node parseTerm()
+    {
+        Node left = parseFactor();
+        while (keyword("AND"))
+        {
+            Node first = left;
+
+            // AND NOT is evaluated as one operation, without building the complement
+            if (keyword("NOT"))
+            {
+                Node excluded = parseFactor();
+                left = index -> first.evaluate(index).andNot(excluded.evaluate(index));
+            }
+            else
+            {
+                Node second = parseFactor();
+                left = index -> first.evaluate(index).and(second.evaluate(index));
+            }
+        }
+        return left;
+    }
+
+    private Node parseFactor()
+    {
+        skipSpaces();
+
+        if (keyword("NOT"))
+        {
+            Node excluded = parseFactor();
+            return index -> index.allTracks.andNot(excluded.evaluate(index));
+        }
+
+        if (symbol("("))
+        {
+            Node query = parseQuery();
+            if (!symbol(")"))
+                throw error("missing ')'");
+            return query;
+        }
+
+        String field = word().toLowerCase(Locale.ROOT);
+        switch (field) {
+            case "genre", "artist", "folder" -> {
+                if (!symbol(":"))
+                    throw error("expected ':' after " + field);
+
+                String value = value();
+                return switch (field) {
+                    case "genre" -> index -> index.genre(value);
+                    case "artist" -> index -> index.artist(value);
+                    default -> index -> index.folder(value);
+                };
+            }
+            case "duration" -> {
+                return parseDuration();
+            }
+            default -> throw error(field.isEmpty() ? "expected a category or duration" : "unknown field '" + field + "'");
+        }
+    }
+
+    private Node parseDuration()
+    {
+        String op;
+        if (symbol("<="))
+            op = "<=";
+        else if (symbol(">="))
+            op = ">=";
+        else if (symbol("<"))
+            op = "<";
+        else if (symbol(">"))
+            op = ">";
+        else if (symbol("="))
+            op = "=";
+        else
+            throw error("expected a comparison after duration");
+
+        int seconds = time();
+        return switch (op) {
+            case "<" -> index -> index.duration(Integer.MIN_VALUE, seconds - 1);
+            case "<=" -> index -> index.duration(Integer.MIN_VALUE, seconds);
+            case ">" -> index -> index.duration(seconds + 1, Integer.MAX_VALUE);
+            case ">=" -> index -> index.duration(seconds, Integer.MAX_VALUE);
+            default -> index -> index.duration(seconds, seconds);
+        };
+    }
+
+    private int time()
+    {
+        skipSpaces();
+        int start = position;
+        while (position < text.length() && (Character.isDigit(text.charAt(position)) || text.charAt(position) == ':'))
+            position++;
+
+        int seconds = parseTime(text.substring(start, position));
+        if (seconds < 0)
+            throw error("expected a time");
+
+        return seconds;
+    }
+
+    /**
+     * Read a length of time
+     * @param time Seconds, m:ss or h:mm:ss
+     * @return The length in seconds, or -1 if the text is not a time
+     */
+    public static int parseTime(String time)
+    {
+        if (!time.matches("\\d{1,9}(:\\d{1,9}){0,2}"))
+            return -1;
+
+        long seconds = 0;
+        for (String field: time.split(":"))
+            seconds = seconds * 60 + Long.parseLong(field);
+
+        return (seconds > Integer.MAX_VALUE / 2) ? -1 : (int) seconds;
+    }
+
+    private String value()
+    {
+        skipSpaces();
+        if (position < text.length() && text.charAt(position) == '"')
+        {
+            int end = text.indexOf('"', position + 1);
+            if (end < 0)
+                throw error("missing '\"'");
+
+            String value = text.substring(position + 1, end);
+            position = end + 1;
+            return value;
+        }
+
+        int start = position;
+        while (position < text.length() && !Character.isWhitespace(text.charAt(position)) && text.charAt(position) != ')')
+            position++;
+
+        if (start == position)
+            throw error("expected a value");
+
+        return text.substring(start, position);
+    }
+
+    private String word()
+    {
+        skipSpaces();
+        int start = position;
+        while (position < text.length() && Character.isLetter(text.charAt(position)))
+            position++;
+
+        return text.substring(start, position);
+    }
+
+    /*
+     * Consume a keyword if it is next, as a whole word
+     */
+    private boolean keyword(String keyword)
+    {
+        skipSpaces();
+        int end = position + keyword.length();
+
+        if (!text.regionMatches(true, position, keyword, 0, keyword.length()))
+            return false;
+        if (end < text.length() && Character.isLetter(text.charAt(end)))
+            return false;
+
+        position = end;
+        return true;
+    }
+
+    private boolean symbol(String symbol)
+    {
+        skipSpaces();
+        if (!text.startsWith(symbol, position))
+            return false;
+
+        position += symbol.length();
+        return true;
+    }
+
+    private void skipSpaces()
+    {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position)))
+            position++;
+    }
+
+    private IllegalArgumentException error(String message)
+    {
+        return new IllegalArgumentException(String.format("%s at position %d of '%s'", message, position + 1, text));
+    }
+
+    @Override
+    public String toString()
+    {
+        return text;
+    }
+}
@@ -0,0 +1,119 @@
+package com.apps.geo;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Central table of the scanned tracks.  Each track gets an int ID, and its directory, file name and duration
+ * are stored in columns indexed by that ID.  Directories are kept in a PathStore and file names in a NameArena,
+ * so a track costs its name bytes and three ints.  The category maps only hold posting lists of track IDs.
+ *
+ * The columns are allocated in fixed-size chunks, so adding a track never copies the table and
+ * scan threads can add tracks without taking a lock.  Tracks are read once the scan has finished.
+ *
+ * @author geo
+ */
+public class TrackTable {
+
+    static final int chunkBits = 12;
+    static final int chunkSize = 1 << chunkBits;
+    static final int chunkMask = chunkSize - 1;
+    static final int maxChunks = 1 << 16;
+
+    private final AtomicInteger trackCount = new AtomicInteger();
+    final PathStore directories = new PathStore();
+    final NameArena names = new NameArena();
+    private final AtomicReferenceArray<int[]> directoryChunks = new AtomicReferenceArray<>(maxChunks);
+    private final AtomicReferenceArray<int[]> nameChunks = new AtomicReferenceArray<>(maxChunks);
+    private final AtomicReferenceArray<int[]> durationChunks = new AtomicReferenceArray<>(maxChunks);
+
+    /**
+     * Add a track to the table
+     * @param filePath Path to the media file
+     * @param duration Duration of the track in seconds
+     * @return The track ID
+     */
+    public int add(String filePath, int duration)
+    {
+        File fileObj = new File(filePath);
+        int dirId = directories.directory(fileObj.getParent());
+
+        int trackId = trackCount.getAndIncrement();
+        int chunk = trackId >>> chunkBits;
+
+        if (chunk >= maxChunks)
+            throw new IllegalStateException("Track table is full");
+
+        if (directoryChunks.get(chunk) == null)
+            directoryChunks.compareAndSet(chunk, null, new int[chunkSize]);
+        if (nameChunks.get(chunk) == null)
+            nameChunks.compareAndSet(chunk, null, new int[chunkSize]);
+        if (durationChunks.get(chunk) == null)
+            durationChunks.compareAndSet(chunk, null, new int[chunkSize]);
+
+        directoryChunks.get(chunk)[trackId & chunkMask] = dirId;
+        nameChunks.get(chunk)[trackId & chunkMask] = names.add(fileObj.getName());
+        durationChunks.get(chunk)[trackId & chunkMask] = duration;
+
+        return trackId;
+    }
+
+    /**
+     * Full path of a track, rebuilt from the directory tree
+     * @param trackId Track ID
+     * @return Path to the media file
+     */
+    public String path(int trackId)
+    {
+        return directories.path(directory(trackId), name(trackId));
+    }
+
+    public int directory(int trackId)
+    {
+        return directoryChunks.get(trackId >>> chunkBits)[trackId & chunkMask];
+    }
+
+    public String name(int trackId)
+    {
+        return names.get(nameChunks.get(trackId >>> chunkBits)[trackId & chunkMask]);
+    }
+
+    public int duration(int trackId)
+    {
+        return durationChunks.get(trackId >>> chunkBits)[trackId & chunkMask];
+    }
+
+    public int size()
+    {
+        return trackCount.get();
+    }
+
+    /**
+     * Sort tracks by path.  Track IDs follow the order the scan threads found the files, which changes from run
+     * to run, so seeded choices start from this order to give the same result for the same library.
+     * @param trackIds Track IDs
+     * @return The track IDs sorted by path, the same path by ID
+     */
+    public int[] inPathOrder(int[] trackIds)
+    {
+        String[] paths = new String[trackIds.length];
+        Integer[] order = new Integer[trackIds.length];
+        for (int index = 0; index < trackIds.length; index++)
+        {
+            paths[index] = path(trackIds[index]);
+            order[index] = index;
+        }
+
+        // Each path is built once, not on every comparison
+        Arrays.sort(order, Comparator.<Integer, String>comparing(index -> paths[index]).thenComparingInt(index -> trackIds[index]));
+
+        int[] sorted = new int[trackIds.length];
+        for (int index = 0; index < trackIds.length; index++)
+            sorted[index] = trackIds[order[index]];
+
+        return sorted;
+    }
+}
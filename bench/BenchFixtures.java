@@ -0,0 +1,125 @@
+package com.apps.geo;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Fixed fixture data for the benchmarks.  Everything is generated from constants, so every run on every
+ * machine works on the same bytes:
+ *      A 4 minute 128 kbps CBR MP3 with an ID3v2.3 tag and an ID3v1 trailer, see LibraryGenerator
+ *      Synthetic track paths, see syntheticPath()
+ *      M3U playlists in the format written by PlaylistBuilder.fileWriter()
+ *
+ * @author geo
+ */
+public class BenchFixtures {
+
+    static final int fixtureSeconds = 240;
+    static final String fixtureGenre = "(17)";
+    static final String fixtureArtist = "Fixture Artist";
+    static final String fixtureAlbumArtist = "Fixture Album Artist";
+
+    static final PrintStream nullOut = new PrintStream(OutputStream.nullOutputStream());
+
+    // Synthetic tree of the generated paths
+    static final String mediaRoot = File.separator + "mnt" + File.separator + "nas" + File.separator + "Music";
+    static final int albumsPerArtist = 5;
+    static final int tracksPerAlbum = 20;
+
+    /**
+     * Path of a file in the synthetic tree, only generated in memory:
+     *      <root>/Artist nnnnn/Album nn/nn - Track title nn.mp3
+     * @param fileNumber File number, starting at 0
+     * @return The path
+     */
+    static String syntheticPath(int fileNumber)
+    {
+        int album = fileNumber / tracksPerAlbum;
+        int artist = album / albumsPerArtist;
+        int track = fileNumber % tracksPerAlbum + 1;
+
+        return String.format("%s%sArtist %05d%sAlbum %02d%s%02d - Track title %02d.mp3",
+                mediaRoot, File.separator, artist, File.separator, album % albumsPerArtist + 1, File.separator, track, track);
+    }
+
+    /**
+     * Write the fixture MP3 file
+     * @param mp3Path Path to the new file
+     */
+    static void writeMp3(Path mp3Path) throws IOException
+    {
+        LibraryGenerator.Track track = new LibraryGenerator.Track();
+        track.title = "Fixture Track";
+        track.artist = fixtureArtist;
+        track.albumArtist = fixtureAlbumArtist;
+        track.album = "Fixture Album";
+        track.genre = fixtureGenre;
+        track.v1Genre = 17;
+        track.seconds = fixtureSeconds;
+        track.bitrate = 128;
+
+        Files.write(mp3Path, LibraryGenerator.mp3Bytes(track));
+    }
+
+    /**
+     * Write M3U playlists of synthetic tracks, in the format written by fileWriter()
+     * @param playlistDir Directory for the playlists
+     * @param playlistCount Number of playlists
+     * @param entryCount Number of entries in each playlist
+     */
+    static void writePlaylists(Path playlistDir, int playlistCount, int entryCount) throws IOException
+    {
+        for (int playlist = 0; playlist < playlistCount; playlist++)
+        {
+            try (BufferedWriter bw = Files.newBufferedWriter(playlistDir.resolve(String.format("Playlist %02d.m3u", playlist)), StandardCharsets.UTF_8))
+            {
+                bw.write("#EXTM3U");
+                for (int entry = 0; entry < entryCount; entry++)
+                {
+                    int fileNumber = playlist * entryCount + entry;
+                    String relativePath = syntheticPath(fileNumber)
+                            .substring(mediaRoot.length())
+                            .replace(File.separatorChar, '/');
+
+                    bw.write(String.format("%n%n#EXTINF:%d,%s%n..%s", fixtureSeconds, new File(relativePath).getName().replace(".mp3", ""), relativePath));
+                }
+            }
+        }
+    }
+
+    /**
+     * Fresh scan state, so every iteration indexes into empty maps and parses every file
+     */
+    static void resetScanState()
+    {
+        PlaylistBuilder.tracks = new TrackTable();
+        PlaylistBuilder.catalog = new MediaCatalog();
+        PlaylistBuilder.genreMap.clear();
+        PlaylistBuilder.artistMap.clear();
+        PlaylistBuilder.folderMap.clear();
+        PlaylistBuilder.fileErrors.clear();
+        PlaylistBuilder.fileProgress.set(0);
+    }
+
+    static Path createTempDir() throws IOException
+    {
+        return Files.createTempDirectory("playlist-manager-bench");
+    }
+
+    static void deleteTree(Path dirPath) throws IOException
+    {
+        try (Stream<Path> walk = Files.walk(dirPath))
+        {
+            for (Path entry: walk.sorted(Comparator.reverseOrder()).toList())
+                Files.delete(entry);
+        }
+    }
+}
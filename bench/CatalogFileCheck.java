@@ -0,0 +1,191 @@
+package com.apps.geo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Round trip check of the binary catalog.  A generated library is scanned, the catalog entries are written with
+ * CatalogFile.write() and mapped again with open(), and every lookup of the mapped file is compared with the
+ * scan: find() and entry() against MediaCatalog.entries, and the genre, artist and folder tables and their
+ * records() against the category maps.  Then single bytes of the file are changed, and a truncated copy is made,
+ * and each damaged file must be rejected by open().
+ *
+ *  Typical run (java -cp bench/target/benchmarks.jar com.apps.geo.CatalogFileCheck):
+ *      Catalog: 2974 entries, 2974 records, 28 genres, 244 artists, 349 folders, identical
+ *      Damaged: 9 of 9 files rejected
+ *
+ * @author geo
+ */
+public class CatalogFileCheck {
+
+    static final int libraryFiles = 3000;
+
+    static int mismatches = 0;
+
+    public static void main(String[] args) throws IOException
+    {
+        Path workDir = BenchFixtures.createTempDir();
+        Path mediaRoot = workDir.resolve("Music");
+
+        LibraryGenerator.Options options = new LibraryGenerator.Options();
+        options.wmaPercent = 1;
+        LibraryGenerator.generate(mediaRoot, libraryFiles, options);
+
+        /*
+         * Scan with fingerprints, so the fingerprint fields are written too
+         */
+        BenchFixtures.resetScanState();
+        PlaylistBuilder.fileSplit = File.separator;
+        PlaylistBuilder.collapseDuplicates = true;
+
+        PrintStream savedOut = System.out;
+        System.setOut(BenchFixtures.nullOut);
+        PlaylistBuilder.walkFileTreeCall(mediaRoot.toString());
+        System.setOut(savedOut);
+
+        Path catalogPath = workDir.resolve("catalog.bin");
+        CatalogFile.write(catalogPath, PlaylistBuilder.catalog.entries);
+        CatalogFile catalog = CatalogFile.open(catalogPath);
+
+        compareEntries(catalog, PlaylistBuilder.catalog.entries);
+        compareCategories("genre", catalog, catalog.genres, PlaylistBuilder.genreMap);
+        compareCategories("artist", catalog, catalog.artists, PlaylistBuilder.artistMap);
+        compareCategories("folder", catalog, catalog.folders, PlaylistBuilder.folderMap);
+
+        System.out.printf("Catalog: %d entries, %d records, %d genres, %d artists, %d folders, %s%n", PlaylistBuilder.catalog.entries.size(),
+                catalog.tracks(), catalog.genres.size(), catalog.artists.size(), catalog.folders.size(),
+                (mismatches == 0) ? "identical" : mismatches + " mismatches");
+
+        int damagedCount = 0;
+        int rejected = 0;
+        byte[] fileBytes = Files.readAllBytes(catalogPath);
+        Path damagedPath = workDir.resolve("damaged.bin");
+
+        /*
+         * The magic, version, checksum and a section size in the header, then bytes spread over the body
+         */
+        int[] positions = {CatalogFile.headerMagic, CatalogFile.headerVersion + 3, CatalogFile.headerChecksum, CatalogFile.headerTracks + 3,
+                CatalogFile.headerSize, fileBytes.length / 3, fileBytes.length / 2, fileBytes.length - 1};
+        for (int position: positions)
+        {
+            byte[] damaged = fileBytes.clone();
+            damaged[position] ^= 0x10;
+            Files.write(damagedPath, damaged);
+
+            damagedCount++;
+            rejected += rejects(damagedPath, "byte " + position);
+        }
+
+        Files.write(damagedPath, Arrays.copyOf(fileBytes, fileBytes.length - CatalogFile.recordSize));
+        damagedCount++;
+        rejected += rejects(damagedPath, "truncated");
+
+        System.out.printf("Damaged: %d of %d files rejected%n", rejected, damagedCount);
+
+        BenchFixtures.deleteTree(workDir);
+
+        if (mismatches > 0 || rejected < damagedCount)
+            System.exit(1);
+    }
+
+    /*
+     * Every entry is found by its path and reads back the same, and a path that was not scanned is not found
+     */
+    private static void compareEntries(CatalogFile catalog, Map<String, MediaCatalog.Entry> entries)
+    {
+        if (catalog.tracks() != entries.size())
+            mismatch("%d records for %d entries", catalog.tracks(), entries.size());
+
+        for (Map.Entry<String, MediaCatalog.Entry> mapEntry: entries.entrySet())
+        {
+            int record = catalog.find(mapEntry.getKey());
+            if (record < 0)
+            {
+                mismatch("%s is not found", mapEntry.getKey());
+                continue;
+            }
+
+            MediaCatalog.Entry expected = mapEntry.getValue();
+            MediaCatalog.Entry entry = catalog.entry(record);
+
+            if (entry.size != expected.size || entry.modified != expected.modified || entry.duration != expected.duration
+                    || !Objects.equals(entry.genre(), expected.genre()) || !Objects.equals(entry.artist(), expected.artist())
+                    || !Objects.equals(entry.albumArtist(), expected.albumArtist()) || !Objects.equals(entry.fingerprint, expected.fingerprint))
+                mismatch("%s reads back different properties", mapEntry.getKey());
+        }
+
+        String missingPath = entries.keySet().iterator().next() + ".missing";
+        if (catalog.find(missingPath) >= 0)
+            mismatch("%s is found", missingPath);
+    }
+
+    /*
+     * The table lists the categories of the map in the selector's order, and each category holds the records of
+     * its tracks in the map's order
+     */
+    private static void compareCategories(String type, CatalogFile catalog, CatalogFile.Categories categories, Map<String, IntList> categoryMap)
+    {
+        CategoryIndex expected = new CategoryIndex(categoryMap.keySet());
+        if (categories.size() != expected.size())
+        {
+            mismatch("%d %s categories, %d expected", categories.size(), type, expected.size());
+            return;
+        }
+
+        List<String> prefixes = new ArrayList<>(List.of("", "a", "the", "z", "/"));
+        for (int number = 1; number <= expected.size(); number++)
+        {
+            String category = expected.get(number);
+            if (!category.equals(categories.get(number)))
+                mismatch("%s %d is '%s', expected '%s'", type, number, categories.get(number), category);
+
+            int[] trackIds = PlaylistBuilder.trackIds(categoryMap, category);
+            int[] records = new int[trackIds.length];
+            for (int index = 0; index < trackIds.length; index++)
+                records[index] = catalog.find(PlaylistBuilder.tracks.path(trackIds[index]));
+
+            if (!Arrays.equals(categories.records(category), records))
+                mismatch("%s '%s' has %d records, %d expected", type, category, categories.records(category).length, records.length);
+
+            if (number % 5 == 0)
+                prefixes.add(CategoryIndex.displayName(category).substring(0, Math.min(3, CategoryIndex.displayName(category).length())));
+        }
+
+        for (String prefix: prefixes)
+        {
+            if (!Arrays.equals(categories.prefixRange(prefix), expected.prefixRange(prefix)) || !Arrays.equals(categories.nameRange(prefix), expected.nameRange(prefix)))
+                mismatch("%s prefix '%s' finds a different range", type, prefix);
+        }
+
+        if (categories.records("no such " + type).length != 0)
+            mismatch("an unknown %s has records", type);
+    }
+
+    private static int rejects(Path damagedPath, String label)
+    {
+        try
+        {
+            CatalogFile.open(damagedPath);
+            System.out.printf("Damaged file is accepted: %s%n", label);
+            return 0;
+        }
+        catch (IOException e)
+        {
+            return 1;
+        }
+    }
+
+    private static void mismatch(String format, Object... args)
+    {
+        System.out.printf(format + "%n", args);
+        mismatches++;
+    }
+}
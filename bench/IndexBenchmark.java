@@ -0,0 +1,90 @@
+package com.apps.geo;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Category map inserts under contention.  Each operation files one track under its genre, artist,
+ * album artist and folder, the same calls SaveAudioProperties2 makes.  The tracks come from a fixed
+ * synthetic library of 40 genres, 2000 artists and 10000 folders.
+ *
+ * @author geo
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@Threads(8)
+public class IndexBenchmark {
+
+    static final int libraryFiles = 200_000;
+    static final int genreCount = 40;
+
+    @State(Scope.Benchmark)
+    public static class Library
+    {
+        String[] filePaths = new String[libraryFiles];
+        String[] folders = new String[libraryFiles];
+        String[] genres = new String[libraryFiles];
+        String[] artists = new String[libraryFiles];
+
+        @Setup(Level.Trial)
+        public void createLibrary()
+        {
+            for (int fileNumber = 0; fileNumber < libraryFiles; fileNumber++)
+            {
+                filePaths[fileNumber] = BenchFixtures.syntheticPath(fileNumber);
+                folders[fileNumber] = new File(filePaths[fileNumber]).getParent();
+                genres[fileNumber] = Id3TagReader.genres[fileNumber % genreCount];
+                artists[fileNumber] = new File(folders[fileNumber]).getParentFile().getName();
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void resetMaps()
+        {
+            BenchFixtures.resetScanState();
+        }
+    }
+
+    /**
+     * Each thread starts at a different point of the library, so the threads hit different and shared keys
+     */
+    @State(Scope.Thread)
+    public static class Cursor
+    {
+        int trackId;
+
+        @Setup(Level.Iteration)
+        public void start()
+        {
+            trackId = (int) (Thread.currentThread().getId() * 7919) % libraryFiles;
+        }
+    }
+
+    @Benchmark
+    public void saveCategories(Library library, Cursor cursor)
+    {
+        int trackId = cursor.trackId;
+        cursor.trackId = (trackId + 1) % libraryFiles;
+
+        PlaylistBuilder.genreSave(library.filePaths[trackId], library.genres[trackId], trackId);
+        PlaylistBuilder.artistSave(library.filePaths[trackId], library.artists[trackId], trackId, true);
+        PlaylistBuilder.artistSave(library.filePaths[trackId], library.artists[trackId], trackId, false);
+        PlaylistBuilder.folderSave(library.filePaths[trackId], library.folders[trackId], trackId);
+    }
+}
@@ -0,0 +1,624 @@
+package com.apps.geo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Synthetic music library for load and scaling tests.  The library is built from a seed, so the same
+ * arguments always give the same tree:
+ *
+ *      <root>/<Artist>/<Album>/nn - <Title>.mp3                 most albums
+ *      <root>/<Artist>/nn - <Title>.mp3                         singles
+ *      <root>/<Artist>/<Album>/Disc n/nn - <Title>.mp3          multi-disc albums
+ *      <root>/Compilations/<Album>/nn - <Title>.mp3             "Various Artists" albums
+ *
+ * Tracks per artist and genres follow a Zipf-like distribution, a few artists own most of the tracks
+ * and most tracks are in a few genres.  The MP3 files are small but valid: an ID3v2.3 or ID3v2.4 tag,
+ * silent constant bitrate frames, optionally a Xing/Info header and an ID3v1 trailer.
+ * Corrupt files, WMA files and names with commas can be mixed in.
+ *
+ *  Typical run (java -cp bench/target/benchmarks.jar com.apps.geo.LibraryGenerator /tmp/library 20000 -wma=1):
+ *      Library /tmp/library: 20000 files, 500 artists, 2302 folders, 0.3 GB
+ *          184 corrupt, 197 WMA, 461 with commas
+ *
+ * @author geo
+ */
+public class LibraryGenerator {
+
+    static final String argSeed = "-seed=";
+    static final String argSeconds = "-seconds=";
+    static final String argBitrate = "-bitrate=";
+    static final String argCorrupt = "-corrupt=";
+    static final String argWma = "-wma=";
+    static final String argCommas = "-commas=";
+    static final String argXing = "-xing=";
+
+    static final int tracksPerArtist = 40;
+    static final double zipfExponent = 0.8;
+    static final double genreExponent = 1.2;
+    static final int sampleRate = 44100;
+    static final int samplesPerFrame = 1152;
+
+    /*
+     * Bitrate index of the MPEG-1 layer III bitrates, see MpegDuration.bitrates
+     */
+    static final int[] bitrateIndex = {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320};
+
+    /*
+     * ID3v1 genre numbers in order of popularity, the remaining genres follow in table order
+     */
+    static final int[] popularGenres = {17, 13, 8, 2, 7, 52, 0, 32, 80, 9, 20, 16, 42, 43, 15, 24, 79, 5, 26, 14};
+
+    static final byte[] asfHeaderGuid = {
+            0x30, 0x26, (byte) 0xB2, 0x75, (byte) 0x8E, 0x66, (byte) 0xCF, 0x11,
+            (byte) 0xA6, (byte) 0xD9, 0x00, (byte) 0xAA, 0x00, 0x62, (byte) 0xCE, 0x6C
+    };
+
+    static final String[] firstNames = {
+            "Anna", "Ben", "Carla", "David", "Elena", "Frank", "Grace", "Hugo", "Iris", "Jack",
+            "Kate", "Leon", "Maria", "Nick", "Olga", "Paul", "Rosa", "Sam", "Tina", "Victor", "Yara", "Omar"
+    };
+    static final String[] lastNames = {
+            "Adams", "Baker", "Cole", "Diaz", "Evans", "Fischer", "Garcia", "Hall", "Ito", "Jones",
+            "Klein", "Lopez", "Martin", "Novak", "Olsen", "Price", "Quinn", "Reyes", "Smith", "Turner", "Walsh"
+    };
+    static final String[] adjectives = {
+            "Silver", "Electric", "Broken", "Golden", "Midnight", "Velvet", "Lonely", "Crimson", "Quiet", "Wild",
+            "Neon", "Paper", "Hollow", "Northern", "Blue", "Burning", "Faded", "Little", "Last", "Secret"
+    };
+    static final String[] nouns = {
+            "Fox", "Highway", "Garden", "River", "Machine", "Heart", "Mirror", "Engine", "Harbor", "Signal",
+            "Satellite", "Ocean", "Forest", "Window", "Echo", "Shadow", "Lantern", "Desert", "Train", "Dream"
+    };
+
+    /**
+     * Tag values and audio layout of one MP3 file
+     */
+    static class Track
+    {
+        String title;
+        String artist;
+        String albumArtist;
+        String album;
+        String genre;               // null to leave the genre out of the ID3v2 tag
+        int v1Genre = 255;          // ID3v1 genre number, 255 for none
+        int seconds = 4;
+        int bitrate = 32;           // kbps
+        int id3Version = 3;
+        boolean v1Trailer = true;
+        boolean xingHeader = false;
+    }
+
+    /**
+     * Library layout and the share of unusual files, in percent
+     */
+    static class Options
+    {
+        long seed = 1;
+        int minSeconds = 2;
+        int maxSeconds = 6;
+        int bitrate = 32;
+        int corruptPercent = 1;
+        int wmaPercent = 0;
+        int commaPercent = 2;
+        int xingPercent = 20;
+    }
+
+    /**
+     * Totals of a generated library
+     */
+    static class Summary
+    {
+        int files;
+        int artists;
+        int folders;
+        int corrupt;
+        int wma;
+        int commas;
+        long bytes;
+    }
+
+    /**
+     *
+     * @param args Root directory, number of files and the options
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 2)
+        {
+            System.out.println("LibraryGenerator <root> <files> [-seed=n] [-seconds=min-max] [-bitrate=kbps] [-corrupt=%] [-wma=%] [-commas=%] [-xing=%]");
+            return;
+        }
+
+        Options options = new Options();
+        for (int argIndex = 2; argIndex < args.length; argIndex++)
+        {
+            String runtimeArg = args[argIndex];
+
+            if (runtimeArg.startsWith(argSeed))
+                options.seed = Long.parseLong(runtimeArg.substring(argSeed.length()));
+            else if (runtimeArg.startsWith(argSeconds))
+            {
+                String[] range = runtimeArg.substring(argSeconds.length()).split("-");
+                options.minSeconds = Integer.parseInt(range[0]);
+                options.maxSeconds = Integer.parseInt(range[range.length - 1]);
+            }
+            else if (runtimeArg.startsWith(argBitrate))
+                options.bitrate = Integer.parseInt(runtimeArg.substring(argBitrate.length()));
+            else if (runtimeArg.startsWith(argCorrupt))
+                options.corruptPercent = Integer.parseInt(runtimeArg.substring(argCorrupt.length()));
+            else if (runtimeArg.startsWith(argWma))
+                options.wmaPercent = Integer.parseInt(runtimeArg.substring(argWma.length()));
+            else if (runtimeArg.startsWith(argCommas))
+                options.commaPercent = Integer.parseInt(runtimeArg.substring(argCommas.length()));
+            else if (runtimeArg.startsWith(argXing))
+                options.xingPercent = Integer.parseInt(runtimeArg.substring(argXing.length()));
+        }
+
+        Path root = Path.of(args[0]);
+        Summary summary = generate(root, Integer.parseInt(args[1]), options);
+
+        System.out.printf("Library %s: %d files, %d artists, %d folders, %.1f GB%n", root, summary.files, summary.artists, summary.folders, summary.bytes / 1e9);
+        System.out.printf("\t%d corrupt, %d WMA, %d with commas%n", summary.corrupt, summary.wma, summary.commas);
+    }
+
+    /**
+     * Write a library below the root directory
+     * @param root Root of the library, created if needed
+     * @param fileCount Number of media files
+     * @param options Layout options
+     * @return Totals of the new library
+     */
+    static Summary generate(Path root, int fileCount, Options options) throws IOException
+    {
+        Random random = new Random(options.seed);
+        Summary summary = new Summary();
+
+        Files.createDirectories(root);
+
+        int artistCount = Math.max(1, fileCount / tracksPerArtist);
+        int[] artistTracks = zipfCounts(fileCount, artistCount);
+        Set<String> artistNames = new HashSet<>();
+
+        summary.artists = artistCount;
+
+        for (int artist = 0; artist < artistCount; artist++)
+        {
+            String artistName = uniqueName(artistNames, artistName(random, options, summary));
+            String artistGenre = genreName(zipfPick(random, Id3TagReader.genres.length));
+            int remaining = artistTracks[artist];
+
+            while (remaining > 0)
+            {
+                int layout = random.nextInt(100);
+                int albumSize = Math.min(remaining, (layout < 10) ? 1 + random.nextInt(3) : 8 + random.nextInt(7));
+                String albumName = title(random, options, summary, 2);
+
+                /*
+                 * Folder of the album, by layout
+                 */
+                Path albumDir;
+                String albumArtist = artistName;
+                int discs = 1;
+
+                if (layout < 10)
+                {
+                    albumDir = root.resolve(artistName);
+                }
+                else if (layout < 15)
+                {
+                    albumDir = uniqueDir(root.resolve("Compilations"), albumName);
+                    albumArtist = "Various Artists";
+                }
+                else if (layout < 25 && albumSize >= 4)
+                {
+                    albumDir = uniqueDir(root.resolve(artistName), albumName);
+                    discs = 2;
+                }
+                else
+                {
+                    albumDir = uniqueDir(root.resolve(artistName), albumName);
+                }
+
+                for (int disc = 1; disc <= discs; disc++)
+                {
+                    Path trackDir = (discs > 1) ? albumDir.resolve("Disc " + disc) : albumDir;
+                    if (!Files.isDirectory(trackDir))
+                    {
+                        Files.createDirectories(trackDir);
+                        summary.folders++;
+                    }
+
+                    int discSize = (discs > 1) ? (disc == 1 ? albumSize / 2 : albumSize - albumSize / 2) : albumSize;
+                    for (int trackNumber = 1; trackNumber <= discSize; trackNumber++)
+                    {
+                        Track track = new Track();
+                        track.title = title(random, options, summary, 3);
+                        track.artist = (albumArtist.equals(artistName)) ? artistName : artistName(random, options, summary);
+                        track.albumArtist = albumArtist;
+                        track.album = albumName;
+                        track.seconds = options.minSeconds + random.nextInt(Math.max(1, options.maxSeconds - options.minSeconds + 1));
+                        track.bitrate = options.bitrate;
+                        track.id3Version = (random.nextInt(100) < 20) ? 4 : 3;
+                        track.v1Trailer = random.nextInt(100) < 60;
+                        track.xingHeader = random.nextInt(100) < options.xingPercent;
+                        setGenre(track, artistGenre, random);
+
+                        String fileName = String.format("%02d - %s", trackNumber, track.title);
+                        summary.bytes += writeFile(trackDir, fileName, track, random, options, summary);
+                        summary.files++;
+                    }
+                }
+
+                remaining -= albumSize;
+            }
+        }
+
+        return summary;
+    }
+
+    /*
+     * One media file: a regular MP3, a WMA file or a corrupt MP3
+     */
+    private static long writeFile(Path trackDir, String fileName, Track track, Random random, Options options, Summary summary) throws IOException
+    {
+        byte[] content;
+        String extension = ".mp3";
+        int kind = random.nextInt(100);
+
+        if (kind < options.wmaPercent)
+        {
+            content = wmaBytes(random);
+            extension = ".wma";
+            summary.wma++;
+        }
+        else if (kind < options.wmaPercent + options.corruptPercent)
+        {
+            content = corruptBytes(track, random);
+            summary.corrupt++;
+        }
+        else
+        {
+            content = mp3Bytes(track);
+        }
+
+        Path filePath = trackDir.resolve(fileName + extension);
+        for (int suffix = 2; Files.exists(filePath); suffix++)
+            filePath = trackDir.resolve(fileName + " " + suffix + extension);
+
+        Files.write(filePath, content);
+        return content.length;
+    }
+
+    /**
+     * Content of a valid MP3 file for the given track
+     * @param track Tag values and audio layout
+     * @return The file bytes
+     */
+    static byte[] mp3Bytes(Track track)
+    {
+        byte[] tag = id3v2(track);
+        byte[] audio = audioFrames(track);
+
+        ByteBuffer mp3 = ByteBuffer.allocate(tag.length + audio.length + (track.v1Trailer ? Id3TagReader.trailerSize : 0));
+        mp3.put(tag);
+        mp3.put(audio);
+
+        if (track.v1Trailer)
+            mp3.put(id3v1(track));
+
+        return mp3.array();
+    }
+
+    /*
+     * ID3v2.3 or ID3v2.4 tag.   v2.3 uses ISO-8859-1 text and plain frame sizes, v2.4 uses UTF-8 and synchsafe sizes.
+     */
+    private static byte[] id3v2(Track track)
+    {
+        ByteBuffer frames = ByteBuffer.allocate(4096);
+
+        textFrame(frames, track, "TIT2", track.title);
+        textFrame(frames, track, "TPE1", track.artist);
+        textFrame(frames, track, "TPE2", track.albumArtist);
+        textFrame(frames, track, "TALB", track.album);
+        textFrame(frames, track, "TCON", track.genre);
+        frames.flip();
+
+        int tagSize = frames.remaining();
+        ByteBuffer tag = ByteBuffer.allocate(Id3TagReader.headerSize + tagSize);
+
+        tag.put(new byte[] {'I', 'D', '3', (byte) track.id3Version, 0, 0});
+        tag.putInt(synchsafe(tagSize));
+        tag.put(frames);
+
+        return tag.array();
+    }
+
+    private static void textFrame(ByteBuffer frames, Track track, String frameId, String text)
+    {
+        if (text == null)
+            return;
+
+        Charset charset = (track.id3Version == 4) ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1;
+        byte[] value = text.getBytes(charset);
+        int frameSize = value.length + 1;
+
+        frames.put(frameId.getBytes(StandardCharsets.ISO_8859_1));
+        frames.putInt((track.id3Version == 4) ? synchsafe(frameSize) : frameSize);
+        frames.putShort((short) 0);
+        frames.put((byte) ((track.id3Version == 4) ? 3 : 0));
+        frames.put(value);
+    }
+
+    /*
+     * ID3v1 trailer: "TAG", title, artist, album, year, comment, genre
+     */
+    private static byte[] id3v1(Track track)
+    {
+        ByteBuffer trailer = ByteBuffer.allocate(Id3TagReader.trailerSize);
+
+        trailer.put(new byte[] {'T', 'A', 'G'});
+        fixedText(trailer, 3, track.title);
+        fixedText(trailer, 33, track.artist);
+        fixedText(trailer, 63, track.album);
+        trailer.put(127, (byte) track.v1Genre);
+
+        return trailer.array();
+    }
+
+    private static void fixedText(ByteBuffer trailer, int offset, String text)
+    {
+        byte[] value = text.getBytes(StandardCharsets.ISO_8859_1);
+        trailer.put(offset, value, 0, Math.min(30, value.length));
+    }
+
+    /*
+     * Silent MPEG-1 layer III frames at a constant bitrate.  Padding is added the way encoders do,
+     * so the average frame length matches the bitrate exactly.  The Xing/Info frame comes first if requested.
+     */
+    private static byte[] audioFrames(Track track)
+    {
+        int frameCount = (int) ((long) track.seconds * sampleRate / samplesPerFrame);
+        double exactLength = 144.0 * track.bitrate * 1000 / sampleRate;
+        int header = 0xFFFB0000 | (bitrateIndex(track.bitrate) << 12);
+
+        ByteBuffer audio = ByteBuffer.allocate((frameCount + 1) * ((int) exactLength + 1));
+        double padding = 0;
+
+        if (track.xingHeader)
+        {
+            int frameStart = audio.position();
+            audio.putInt(header);
+            audio.position(frameStart + 4 + 32);
+            audio.put(new byte[] {'I', 'n', 'f', 'o'});
+            audio.putInt(0x1);              // frame count present
+            audio.putInt(frameCount);
+            audio.position(frameStart + (int) exactLength);
+        }
+
+        for (int frame = 0; frame < frameCount; frame++)
+        {
+            padding += exactLength - (int) exactLength;
+            boolean padded = padding >= 1;
+            if (padded)
+                padding -= 1;
+
+            int frameStart = audio.position();
+            audio.putInt(padded ? header | 0x200 : header);
+            audio.position(frameStart + (int) exactLength + (padded ? 1 : 0));
+        }
+
+        byte[] frames = new byte[audio.position()];
+        audio.flip().get(frames);
+        return frames;
+    }
+
+    /*
+     * Corrupt variants: empty file, random bytes, a tag longer than the file, or a valid tag with no audio frames
+     */
+    private static byte[] corruptBytes(Track track, Random random)
+    {
+        switch (random.nextInt(4)) {
+            case 0 -> {
+                return new byte[0];
+            }
+            case 1 -> {
+                byte[] garbage = new byte[512 + random.nextInt(4096)];
+                random.nextBytes(garbage);
+                return garbage;
+            }
+            case 2 -> {
+                byte[] truncated = id3v2(track);
+                ByteBuffer.wrap(truncated).putInt(6, synchsafe(truncated.length * 16));
+                return truncated;
+            }
+            default -> {
+                byte[] tag = id3v2(track);
+                byte[] noise = new byte[2048];
+                for (int i = 0; i < noise.length; i++)
+                    noise[i] = (byte) random.nextInt(0x80);
+
+                ByteBuffer noAudio = ByteBuffer.allocate(tag.length + noise.length);
+                return noAudio.put(tag).put(noise).array();
+            }
+        }
+    }
+
+    /*
+     * ASF header object followed by random data, enough for a WMA file to be recognized by its header
+     */
+    private static byte[] wmaBytes(Random random)
+    {
+        byte[] wma = new byte[1024 + random.nextInt(4096)];
+        random.nextBytes(wma);
+        System.arraycopy(asfHeaderGuid, 0, wma, 0, asfHeaderGuid.length);
+
+        return wma;
+    }
+
+    /*
+     * Genre as it appears in real tags: mostly the name, sometimes an ID3v1 "(n)" reference,
+     * sometimes only in the ID3v1 trailer, and sometimes missing
+     */
+    private static void setGenre(Track track, String genre, Random random)
+    {
+        int genreNumber = List.of(Id3TagReader.genres).indexOf(genre);
+        int style = random.nextInt(100);
+
+        if (style < 70)
+            track.genre = genre;
+        else if (style < 90)
+            track.genre = "(" + genreNumber + ")";
+        else if (style < 95)
+            track.v1Trailer = true;
+        else
+            return;
+
+        track.v1Genre = genreNumber;
+    }
+
+    private static String genreName(int rank)
+    {
+        if (rank < popularGenres.length)
+            return Id3TagReader.genres[popularGenres[rank]];
+
+        List<String> others = new ArrayList<>(List.of(Id3TagReader.genres));
+        for (int popular: popularGenres)
+            others.remove(Id3TagReader.genres[popular]);
+
+        return others.get((rank - popularGenres.length) % others.size());
+    }
+
+    private static String artistName(Random random, Options options, Summary summary)
+    {
+        if (random.nextInt(100) < options.commaPercent)
+        {
+            summary.commas++;
+            return (random.nextBoolean())
+                    ? pick(random, lastNames) + ", " + pick(random, firstNames)
+                    : pick(random, adjectives) + " " + pick(random, nouns) + ", " + pick(random, firstNames) + " & " + pick(random, firstNames);
+        }
+
+        return switch (random.nextInt(3)) {
+            case 0 -> "The " + pick(random, adjectives) + " " + pick(random, nouns) + "s";
+            case 1 -> pick(random, firstNames) + " " + pick(random, lastNames);
+            default -> pick(random, adjectives) + " " + pick(random, nouns);
+        };
+    }
+
+    private static String title(Random random, Options options, Summary summary, int maxWords)
+    {
+        StringBuilder title = new StringBuilder(pick(random, adjectives));
+        int words = 1 + random.nextInt(maxWords);
+
+        for (int word = 0; word < words; word++)
+            title.append(' ').append(pick(random, nouns));
+
+        if (random.nextInt(100) < options.commaPercent)
+        {
+            summary.commas++;
+            title.append(", Part ").append(1 + random.nextInt(3));
+        }
+
+        return title.toString();
+    }
+
+    /*
+     * Artist and album folders must not collide, the word lists only give a few thousand names
+     */
+    private static String uniqueName(Set<String> usedNames, String name)
+    {
+        String unique = name;
+        for (int suffix = 2; !usedNames.add(unique); suffix++)
+            unique = name + " " + suffix;
+
+        return unique;
+    }
+
+    private static Path uniqueDir(Path parent, String name)
+    {
+        Path dirPath = parent.resolve(name);
+        for (int suffix = 2; Files.exists(dirPath); suffix++)
+            dirPath = parent.resolve(name + " " + suffix);
+
+        return dirPath;
+    }
+
+    /*
+     * Split a total over n ranks with weights 1/(rank+1)^s, every rank gets at least one
+     */
+    static int[] zipfCounts(int total, int ranks)
+    {
+        double[] weights = new double[ranks];
+        double weightSum = 0;
+
+        for (int rank = 0; rank < ranks; rank++)
+        {
+            weights[rank] = 1 / Math.pow(rank + 1, zipfExponent);
+            weightSum += weights[rank];
+        }
+
+        int[] counts = new int[ranks];
+        int assigned = 0;
+
+        for (int rank = 0; rank < ranks; rank++)
+        {
+            counts[rank] = Math.max(1, (int) (total * weights[rank] / weightSum));
+            assigned += counts[rank];
+        }
+
+        // Rounding leftovers go to the top rank, overshoot is taken from the tail
+        counts[0] += total - assigned;
+        for (int rank = ranks - 1; counts[0] < 1 && rank > 0; rank--)
+        {
+            int moved = Math.min(counts[rank], 1 - counts[0]);
+            counts[rank] -= moved;
+            counts[0] += moved;
+        }
+
+        return counts;
+    }
+
+    /*
+     * Random rank with a Zipf-like distribution, by inverting the cumulative weight of a continuous power law
+     * with density x^-genreExponent
+     */
+    static int zipfPick(Random random, int ranks)
+    {
+        double exponent = 1 - genreExponent;
+        double max = Math.pow(ranks + 1, exponent);
+        double value = Math.pow(1 + random.nextDouble() * (max - 1), 1 / exponent);
+
+        return Math.min(ranks - 1, (int) value - 1);
+    }
+
+    private static int bitrateIndex(int bitrate)
+    {
+        for (int index = 1; index < bitrateIndex.length; index++)
+        {
+            if (bitrateIndex[index] == bitrate)
+                return index;
+        }
+
+        throw new IllegalArgumentException("Not an MPEG-1 layer III bitrate: " + bitrate);
+    }
+
+    private static int synchsafe(int value)
+    {
+        return ((value << 3) & 0x7F000000) | ((value << 2) & 0x7F0000) | ((value << 1) & 0x7F00) | (value & 0x7F);
+    }
+
+    private static String pick(Random random, String[] words)
+    {
+        return words[random.nextInt(words.length)];
+    }
+}
@@ -0,0 +1,81 @@
+package com.apps.geo;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Extraction of the audio properties of a single media file, as done by SaveAudioProperties2:
+ *      readTags: header-only tag and frame header read
+ *      scanFile: the whole per-file scan step, catalog lookup, tag read and indexing
+ * The catalog entry is removed before each scan, so the file is parsed every time.
+ *
+ * @author geo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ParseBenchmark {
+
+    Path fixtureDir;
+    String mp3Path;
+    PrintStream savedOut;
+
+    @Setup(Level.Trial)
+    public void createFixture() throws IOException
+    {
+        fixtureDir = BenchFixtures.createTempDir();
+        Path mp3File = fixtureDir.resolve("Fixture Artist - Fixture Track.mp3");
+        BenchFixtures.writeMp3(mp3File);
+        mp3Path = mp3File.toString();
+
+        // The scan shows its progress on the console
+        savedOut = System.out;
+        System.setOut(BenchFixtures.nullOut);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetScan()
+    {
+        BenchFixtures.resetScanState();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFixture() throws IOException
+    {
+        System.setOut(savedOut);
+        BenchFixtures.deleteTree(fixtureDir);
+    }
+
+    @Benchmark
+    public Id3TagReader.Tags readTags()
+    {
+        return Id3TagReader.read(mp3Path);
+    }
+
+    @Benchmark
+    public int scanFile()
+    {
+        PlaylistBuilder.catalog.entries.remove(mp3Path);
+        PlaylistBuilder.scanFile(mp3Path);
+
+        return PlaylistBuilder.tracks.size();
+    }
+}
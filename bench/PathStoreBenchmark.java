@@ -0,0 +1,70 @@
+package com.apps.geo;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+/**
+ * Heap used per track by the full path strings versus the track table with its directory tree.
+ * The paths are generated in memory for a synthetic tree, see BenchFixtures.syntheticPath(), no files are created.
+ *
+ *  Typical run (java -Xmx2g -cp bench/target/benchmarks.jar com.apps.geo.PathStoreBenchmark 1000000):
+ *      Synthetic tree: 1000000 files, 10000 artists, 5 albums per artist
+ *      Path strings: 107.5 bytes per track
+ *      Track table:   49.2 bytes per track
+ *
+ * @author geo
+ */
+public class PathStoreBenchmark {
+
+    /**
+     *
+     * @param args Optional number of files, 1,000,000 by default
+     */
+    public static void main(String[] args)
+    {
+        int fileTotal = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+        int artistTotal = Math.max(1, fileTotal / (BenchFixtures.albumsPerArtist * BenchFixtures.tracksPerAlbum));
+
+        System.out.printf("Synthetic tree: %d files, %d artists, %d albums per artist%n", fileTotal, artistTotal, BenchFixtures.albumsPerArtist);
+
+        /*
+         * Before: one full path String per track
+         */
+        long baseline = usedHeap();
+        String[] pathStrings = new String[fileTotal];
+        for (int fileNumber = 0; fileNumber < fileTotal; fileNumber++)
+            pathStrings[fileNumber] = BenchFixtures.syntheticPath(fileNumber);
+
+        long pathBytes = usedHeap() - baseline;
+        System.out.printf("Path strings: %5.1f bytes per track%n", (double) pathBytes / fileTotal);
+
+        /*
+         * After: directory tree plus file name and duration columns.  The strings above are only the input,
+         * so they are released once the table is built.
+         */
+        TrackTable tracks = new TrackTable();
+        for (int fileNumber = 0; fileNumber < fileTotal; fileNumber++)
+        {
+            tracks.add(pathStrings[fileNumber], 240);
+            pathStrings[fileNumber] = null;
+        }
+        pathStrings = null;
+
+        long tableBytes = usedHeap() - baseline;
+        System.out.printf("Track table:  %5.1f bytes per track%n", (double) tableBytes / fileTotal);
+
+        // Keep the table reachable until it has been measured, and check a path round trip
+        if (!tracks.path(fileTotal - 1).equals(BenchFixtures.syntheticPath(fileTotal - 1)))
+            System.out.println("Path mismatch in track table");
+    }
+
+    static long usedHeap()
+    {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        for (int gcCount = 0; gcCount < 3; gcCount++)
+            System.gc();
+
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,131 @@
+package com.apps.geo;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Byte-for-byte check of the playlist writer against the original fileWriter() output.  A synthetic library
+ * is written with commas in the names and nested folders, and a master playlist is written both ways, with the
+ * playlist in the media root ("." entries) and beside it (".." entries).  The original entry format is kept
+ * here as the reference:
+ *      String.format("%s%n#EXTINF:%d,%s%n%s", line separator, duration, title, canonical relative path)
+ *
+ *  Typical run (java -cp bench/target/benchmarks.jar com.apps.geo.PlaylistFormatCheck):
+ *      Prefix '.': 5000 entries, 524147 bytes, identical
+ *      Prefix '..': 5000 entries, 559147 bytes, identical
+ *
+ * @author geo
+ */
+public class PlaylistFormatCheck {
+
+    static final int libraryFiles = 5000;
+
+    public static void main(String[] args) throws IOException
+    {
+        Path workDir = BenchFixtures.createTempDir();
+        Path mediaRoot = workDir.resolve("Music");
+
+        LibraryGenerator.Options options = new LibraryGenerator.Options();
+        options.commaPercent = 10;
+        LibraryGenerator.generate(mediaRoot, libraryFiles, options);
+
+        /*
+         * Index the library by folder, with a duration derived from the file number
+         */
+        BenchFixtures.resetScanState();
+        PlaylistBuilder.fileSplit = File.separator;
+
+        List<String> mediaFiles;
+        try (Stream<Path> walk = Files.walk(mediaRoot))
+        {
+            mediaFiles = walk.map(Path::toString).filter(PlaylistBuilder::isAudioFile).sorted().toList();
+        }
+
+        for (int fileNumber = 0; fileNumber < mediaFiles.size(); fileNumber++)
+        {
+            String filePath = mediaFiles.get(fileNumber);
+            int trackId = PlaylistBuilder.tracks.add(filePath, 120 + fileNumber % 300);
+            PlaylistBuilder.folderSave(filePath, new File(filePath).getParent(), trackId);
+        }
+
+        ArrayList<String> folders = new ArrayList<>(PlaylistBuilder.folderMap.keySet());
+        Collections.sort(folders);
+
+        boolean identical = compare(mediaRoot.toFile(), mediaRoot.resolve("Master.m3u").toFile(), folders)
+                & compare(mediaRoot.toFile(), workDir.resolve("Playlists").resolve("Master.m3u").toFile(), folders);
+
+        BenchFixtures.deleteTree(workDir);
+
+        if (!identical)
+            System.exit(1);
+    }
+
+    private static boolean compare(File mediaRoot, File playlistFile, ArrayList<String> folders) throws IOException
+    {
+        Files.createDirectories(playlistFile.toPath().getParent());
+        PlaylistBuilder.setPathLengths(mediaRoot, playlistFile);
+
+        File referenceFile = new File(playlistFile.getPath() + ".reference");
+        PrintStream savedOut = System.out;
+        System.setOut(BenchFixtures.nullOut);
+
+        /*
+         * New writer, the way PlaylistDriver writes a new playlist
+         */
+        try (PlaylistWriter playlistWriter = PlaylistDriver.createWriter(playlistFile, true))
+        {
+            playlistWriter.write("#EXTM3U");
+            PlaylistBuilder.fileWriter(folders, PlaylistBuilder.folderMap, playlistWriter, playlistFile.getName());
+        }
+
+        /*
+         * Original writer
+         */
+        try (BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(referenceFile, false)))
+        {
+            bufferedWriter.newLine();
+            bufferedWriter.write("#EXTM3U");
+
+            int pathStart = (PlaylistBuilder.mp3PathLen - PlaylistBuilder.prefix.length()) + 1;
+            for (String folder: folders)
+            {
+                for (int trackId: PlaylistBuilder.folderMap.get(folder).toArray())
+                {
+                    File fileObj = new File(PlaylistBuilder.tracks.path(trackId));
+                    String mp3FileTitle = fileObj.getName().substring(0, (fileObj.getName().length() - 4));
+                    String[] mp3FileSplit = fileObj.getCanonicalPath().split(PlaylistBuilder.fileSplit);
+
+                    StringBuilder filePath = new StringBuilder(PlaylistBuilder.prefix);
+                    for (int x = pathStart; x < mp3FileSplit.length; x++)
+                        filePath.append(File.separator).append(mp3FileSplit[x]);
+
+                    bufferedWriter.write(String.format("%s%n#EXTINF:%d,%s%n%s", System.getProperty("line.separator"),
+                            PlaylistBuilder.tracks.duration(trackId), mp3FileTitle, filePath.toString().replaceAll(PlaylistBuilder.fileSplit, "/")));
+                }
+            }
+        }
+
+        System.setOut(savedOut);
+
+        byte[] written = Files.readAllBytes(playlistFile.toPath());
+        byte[] reference = Files.readAllBytes(referenceFile.toPath());
+        int mismatch = Arrays.mismatch(written, reference);
+
+        if (mismatch < 0)
+            System.out.printf("Prefix '%s': %d entries, %d bytes, identical%n", PlaylistBuilder.prefix, PlaylistBuilder.tracks.size(), written.length);
+        else
+            System.out.printf("Prefix '%s': first difference at byte %d of %d (reference %d bytes)%n", PlaylistBuilder.prefix, mismatch, written.length, reference.length);
+
+        return mismatch < 0;
+    }
+}
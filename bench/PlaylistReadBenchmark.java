@@ -0,0 +1,71 @@
+package com.apps.geo;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * showPlayLists() over a directory of 20 synthetic playlists, with and without the song detail.
+ * The summary is printed to a null stream.
+ *
+ * @author geo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class PlaylistReadBenchmark {
+
+    static final int playlistCount = 20;
+    static final int entryCount = 5000;
+
+    @Param({"false", "true"})
+    boolean songDetail;
+
+    Path playlistDir;
+    String[] dirListing;
+    PrintStream savedOut;
+
+    @Setup(Level.Trial)
+    public void createPlaylists() throws IOException
+    {
+        playlistDir = BenchFixtures.createTempDir();
+        BenchFixtures.writePlaylists(playlistDir, playlistCount, entryCount);
+        dirListing = playlistDir.toFile().list();
+        Arrays.sort(dirListing);
+
+        savedOut = System.out;
+        System.setOut(BenchFixtures.nullOut);
+    }
+
+    @TearDown(Level.Trial)
+    public void deletePlaylists() throws IOException
+    {
+        System.setOut(savedOut);
+        BenchFixtures.deleteTree(playlistDir);
+    }
+
+    @Benchmark
+    public void readPlaylists()
+    {
+        PlaylistBuilder.showPlayLists(playlistDir.toString(), dirListing, songDetail);
+    }
+}
@@ -0,0 +1,91 @@
+package com.apps.geo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * fileWriter() output for a playlist of synthetic tracks, filed under 10 genres.  The playlist is
+ * written to a null channel, so the result is the cost of building the entries rather than of the disk.
+ *
+ * @author geo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class PlaylistWriteBenchmark {
+
+    static final int genreCount = 10;
+
+    @Param({"10000", "100000"})
+    int entryCount;
+
+    ArrayList<String> selectedGenres = new ArrayList<>();
+    PrintStream savedOut;
+
+    @Setup(Level.Trial)
+    public void createTracks()
+    {
+        BenchFixtures.resetScanState();
+
+        for (int fileNumber = 0; fileNumber < entryCount; fileNumber++)
+        {
+            String filePath = BenchFixtures.syntheticPath(fileNumber);
+            int trackId = PlaylistBuilder.tracks.add(filePath, BenchFixtures.fixtureSeconds);
+            PlaylistBuilder.genreSave(filePath, Id3TagReader.genres[fileNumber % genreCount], trackId);
+        }
+
+        selectedGenres = new ArrayList<>(PlaylistBuilder.genreMap.keySet());
+        Collections.sort(selectedGenres);
+
+        /*
+         * Playlist beside the media root, so the entries start with ".."
+         */
+        File mediaRoot = new File(BenchFixtures.mediaRoot);
+        File playlistFile = new File(mediaRoot.getParent(), "Playlists" + File.separator + "Benchmark.m3u");
+
+        PlaylistBuilder.fileSplit = File.separator;
+        PlaylistBuilder.setPathLengths(mediaRoot, playlistFile);
+
+        // The writer lists each category on the console
+        savedOut = System.out;
+        System.setOut(BenchFixtures.nullOut);
+    }
+
+    @TearDown(Level.Trial)
+    public void restoreOut()
+    {
+        System.setOut(savedOut);
+    }
+
+    @Benchmark
+    public boolean writePlaylist() throws IOException
+    {
+        try (PlaylistWriter playlistWriter = new PlaylistWriter(Channels.newChannel(OutputStream.nullOutputStream())))
+        {
+            return PlaylistBuilder.fileWriter(selectedGenres, PlaylistBuilder.genreMap, playlistWriter, "Benchmark.m3u");
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.apps.geo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Reproducibility check of the seeded playlists.  The same synthetic library is indexed three times, with the
+ * files added in a different order each time the way the scan threads would find them, so the same file gets a
+ * different track ID in each run.  The shuffle playlists of every run must list the same paths in the same order,
+ * and the fit playlists the same paths, which are written in track ID order like any category.
+ *
+ *  Typical run (java -cp bench/target/benchmarks.jar com.apps.geo.ShuffleCheck):
+ *      by=track: 3 runs, 500 tracks, identical
+ *      by=genre weights=Genre_0:3,Genre_1:0.5: 3 runs, 500 tracks, identical
+ *      by=artist spread=4: 3 runs, 500 tracks, identical
+ *      fit 1:30:00: 3 runs, 14 tracks, identical
+ *
+ * @author geo
+ */
+public class ShuffleCheck {
+
+    static final int libraryFiles = 20000;
+    static final int runCount = 3;
+    static final int playlistTracks = 500;
+    static final int fitSeconds = 90 * 60;
+    static final long seed = 20240611;
+
+    static final String[] settings = {"by=track", "by=genre weights=Genre_0:3,Genre_1:0.5", "by=artist spread=4"};
+
+    public static void main(String[] args)
+    {
+        Map<String, List<List<String>>> playlists = new LinkedHashMap<>();
+
+        for (int run = 0; run < runCount; run++)
+        {
+            index(new Random(run));
+
+            // Every indexed track, ascending, as PlaylistBatch passes them
+            int[] candidates = IntStream.range(0, PlaylistBuilder.tracks.size()).toArray();
+
+            for (String setting: settings)
+            {
+                int[] shuffled = ShuffleBuilder.shuffle(candidates, playlistTracks, ShuffleBuilder.Options.parse(setting, seed));
+                playlists.computeIfAbsent(setting, key -> new ArrayList<>()).add(paths(shuffled));
+            }
+
+            int[] fitted = DurationFitter.fit(candidates, PlaylistBuilder.tracks, fitSeconds, seed);
+            List<String> fittedPaths = new ArrayList<>(paths(fitted));
+            Collections.sort(fittedPaths);
+            playlists.computeIfAbsent("fit " + DurationFitter.formatTime(fitSeconds), key -> new ArrayList<>()).add(fittedPaths);
+        }
+
+        boolean identical = true;
+        for (Map.Entry<String, List<List<String>>> entry: playlists.entrySet())
+        {
+            List<List<String>> runs = entry.getValue();
+            int differentRuns = 0;
+            for (int run = 1; run < runCount; run++)
+            {
+                if (!runs.get(run).equals(runs.get(0)))
+                    differentRuns++;
+            }
+
+            System.out.printf("%s: %d runs, %d tracks, %s%n", entry.getKey(), runCount, runs.get(0).size(),
+                    (differentRuns == 0) ? "identical" : differentRuns + " runs differ from the first");
+            identical &= (differentRuns == 0);
+        }
+
+        if (!identical)
+            System.exit(1);
+    }
+
+    /*
+     * Index the synthetic library with the files in a random order.  Genres and durations come from the file
+     * number, and every 50th file is also listed under a second artist.
+     */
+    private static void index(Random random)
+    {
+        BenchFixtures.resetScanState();
+
+        int[] fileNumbers = IntStream.range(0, libraryFiles).toArray();
+        for (int index = fileNumbers.length - 1; index > 0; index--)
+        {
+            int swap = random.nextInt(index + 1);
+            int fileNumber = fileNumbers[index];
+            fileNumbers[index] = fileNumbers[swap];
+            fileNumbers[swap] = fileNumber;
+        }
+
+        for (int fileNumber: fileNumbers)
+        {
+            String filePath = BenchFixtures.syntheticPath(fileNumber);
+            File albumDir = new File(filePath).getParentFile();
+            int trackId = PlaylistBuilder.tracks.add(filePath, 120 + (fileNumber * 37) % 400);
+
+            PlaylistBuilder.genreMap.computeIfAbsent("Genre " + fileNumber % 7, key -> new IntList()).add(trackId);
+            PlaylistBuilder.artistMap.computeIfAbsent(albumDir.getParentFile().getName(), key -> new IntList()).add(trackId);
+            if (fileNumber % 50 == 0)
+                PlaylistBuilder.artistMap.computeIfAbsent("Guest Artist", key -> new IntList()).add(trackId);
+            PlaylistBuilder.folderMap.computeIfAbsent(albumDir.getPath(), key -> new IntList()).add(trackId);
+        }
+    }
+
+    private static List<String> paths(int[] trackIds)
+    {
+        return Arrays.stream(trackIds).mapToObj(PlaylistBuilder.tracks::path).toList();
+    }
+}
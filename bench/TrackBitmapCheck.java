@@ -0,0 +1,267 @@
+package com.apps.geo;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+/**
+ * Brute-force check of TrackBitmap and TrackQuery.  Random sets are built with blocks on both sides of the
+ * array/bitmap limit, and every set and every AND, OR and AND NOT result is compared with java.util.BitSet.
+ * Then a synthetic library is indexed and each query is compared with a plain loop over the tracks.
+ *
+ *  Typical run (java -cp bench/target/benchmarks.jar com.apps.geo.TrackBitmapCheck):
+ *      Bitmaps: 200 sets, 600 operations, 400 chained operations, identical
+ *      Queries: 150000 tracks, 14 queries, identical
+ *
+ * @author geo
+ */
+public class TrackBitmapCheck {
+
+    static final int setCount = 200;
+    static final int blockSpan = 5;
+    static final int blockSize = 1 << TrackBitmap.blockBits;
+
+    static final int trackCount = 150000;
+    static final int artistCount = 300;
+    static final int albumsPerArtist = 7;
+
+    static final Random random = new Random(20240611);
+    static int mismatches = 0;
+
+    public static void main(String[] args)
+    {
+        checkBitmaps();
+        checkQueries();
+
+        if (mismatches > 0)
+            System.exit(1);
+    }
+
+    /*
+     * Sets and operations against BitSet
+     */
+    private static void checkBitmaps()
+    {
+        TrackBitmap[] bitmaps = new TrackBitmap[setCount];
+        BitSet[] expected = new BitSet[setCount];
+
+        for (int set = 0; set < setCount; set++)
+        {
+            expected[set] = new BitSet();
+            int[] trackIds = randomSet(expected[set]);
+
+            // Part of the array only, the rest is noise that must be left out
+            int from = random.nextInt(4);
+            int[] padded = new int[trackIds.length + from + 3];
+            for (int index = 0; index < padded.length; index++)
+                padded[index] = random.nextInt(blockSpan * blockSize);
+            System.arraycopy(trackIds, 0, padded, from, trackIds.length);
+
+            bitmaps[set] = TrackBitmap.of(padded, from, from + trackIds.length);
+            compare("of() set " + set, bitmaps[set], expected[set]);
+        }
+
+        int operations = 0;
+        int chained = 0;
+        for (int set = 0; set < setCount; set++)
+        {
+            int other = random.nextInt(setCount);
+            TrackBitmap left = bitmaps[set];
+            TrackBitmap right = bitmaps[other];
+            BitSet leftBits = expected[set];
+            BitSet rightBits = expected[other];
+
+            BitSet and = (BitSet) leftBits.clone();
+            and.and(rightBits);
+            BitSet or = (BitSet) leftBits.clone();
+            or.or(rightBits);
+            BitSet andNot = (BitSet) leftBits.clone();
+            andNot.andNot(rightBits);
+
+            compare(set + " AND " + other, left.and(right), and);
+            compare(set + " OR " + other, left.or(right), or);
+            compare(set + " AND NOT " + other, left.andNot(right), andNot);
+            operations += 3;
+
+            /*
+             * Results are combined again, so blocks shared between sets and blocks converted by combine() are
+             * used as inputs too
+             */
+            int third = random.nextInt(setCount);
+            BitSet orAndNot = (BitSet) or.clone();
+            orAndNot.andNot(expected[third]);
+            BitSet andOr = (BitSet) and.clone();
+            andOr.or(andNot);
+
+            compare("(" + set + " OR " + other + ") AND NOT " + third, left.or(right).andNot(bitmaps[third]), orAndNot);
+            compare("(" + set + " AND " + other + ") OR (" + set + " AND NOT " + other + ")", left.and(right).or(left.andNot(right)), andOr);
+            chained += 2;
+        }
+
+        compare("empty", TrackBitmap.of(new int[0]), new BitSet());
+        compare("empty OR empty", TrackBitmap.empty.or(TrackBitmap.empty), new BitSet());
+        compare("set 0 AND NOT set 0", bitmaps[0].andNot(bitmaps[0]), new BitSet());
+
+        System.out.printf("Bitmaps: %d sets, %d operations, %d chained operations, %s%n", setCount, operations, chained,
+                (mismatches == 0) ? "identical" : mismatches + " mismatches");
+    }
+
+    /*
+     * Random IDs over a few blocks, in random order with repeats.  Each block is left empty, sparse, exactly at
+     * the array limit, just over it, or dense.
+     */
+    private static int[] randomSet(BitSet expected)
+    {
+        int[] trackIds = new int[0];
+        int size = 0;
+
+        for (int block = 0; block < blockSpan; block++)
+        {
+            int count = switch (random.nextInt(6)) {
+                case 0 -> 0;
+                case 1 -> 1 + random.nextInt(50);
+                case 2 -> 1 + random.nextInt(TrackBitmap.arrayLimit);
+                case 3 -> TrackBitmap.arrayLimit;
+                case 4 -> TrackBitmap.arrayLimit + 1;
+                default -> TrackBitmap.arrayLimit + random.nextInt(blockSize - TrackBitmap.arrayLimit);
+            };
+
+            BitSet blockBits = new BitSet(blockSize);
+            for (int added = 0; added < count; )
+            {
+                int low = random.nextInt(blockSize);
+                if (!blockBits.get(low))
+                {
+                    blockBits.set(low);
+                    added++;
+                }
+            }
+
+            trackIds = Arrays.copyOf(trackIds, size + count + count / 8);
+            int blockStart = size;
+            for (int low = blockBits.nextSetBit(0); low >= 0; low = blockBits.nextSetBit(low + 1))
+            {
+                trackIds[size++] = block * blockSize + low;
+                expected.set(block * blockSize + low);
+            }
+
+            for (int repeat = 0; repeat < count / 8; repeat++)
+            {
+                trackIds[size] = trackIds[blockStart + random.nextInt(count)];
+                size++;
+            }
+        }
+
+        // Shuffle, of() takes the IDs in any order
+        for (int index = size - 1; index > 0; index--)
+        {
+            int swap = random.nextInt(index + 1);
+            int trackId = trackIds[index];
+            trackIds[index] = trackIds[swap];
+            trackIds[swap] = trackId;
+        }
+
+        return trackIds;
+    }
+
+    /*
+     * Queries against a loop over the tracks
+     */
+    private static void checkQueries()
+    {
+        BenchFixtures.resetScanState();
+        PlaylistBuilder.mediaRootPath = BenchFixtures.mediaRoot;
+
+        int[] genres = new int[trackCount];
+        int[] artists = new int[trackCount];
+        int[] albums = new int[trackCount];
+        int[] durations = new int[trackCount];
+
+        /*
+         * Genre 0 takes about half of the tracks and genre 5 very few, so both block forms are queried
+         */
+        for (int track = 0; track < trackCount; track++)
+        {
+            int roll = random.nextInt(1000);
+            genres[track] = (roll < 500) ? 0 : (roll < 700) ? 1 : (roll < 850) ? 2 : (roll < 950) ? 3 : (roll < 995) ? 4 : 5;
+            artists[track] = random.nextInt(artistCount);
+            albums[track] = random.nextInt(albumsPerArtist);
+            durations[track] = 30 + random.nextInt(900);
+
+            String folder = BenchFixtures.mediaRoot + File.separator + "Artist " + artists[track] + File.separator + "Album " + albums[track];
+            int trackId = PlaylistBuilder.tracks.add(folder + File.separator + "Track " + track + ".mp3", durations[track]);
+
+            PlaylistBuilder.genreMap.computeIfAbsent("Genre " + genres[track], key -> new IntList()).add(trackId);
+            PlaylistBuilder.artistMap.computeIfAbsent("Artist " + artists[track], key -> new IntList()).add(trackId);
+            PlaylistBuilder.folderMap.computeIfAbsent(folder, key -> new IntList()).add(trackId);
+        }
+
+        QueryIndex index = QueryIndex.build();
+        String albumFolder = "Artist 5" + File.separator + "Album 2";
+
+        record Case(String query, IntPredicate expected) {}
+        List<Case> cases = List.of(
+                new Case("genre:\"Genre 0\"", track -> genres[track] == 0),
+                new Case("genre:\"genre 5\"", track -> genres[track] == 5),
+                new Case("genre:\"Genre 1\" OR genre:\"Genre 2\"", track -> genres[track] == 1 || genres[track] == 2),
+                new Case("genre:\"Genre 0\" AND NOT artist:\"Artist 7\"", track -> genres[track] == 0 && artists[track] != 7),
+                new Case("NOT genre:\"Genre 3\"", track -> genres[track] != 3),
+                new Case("(genre:\"Genre 1\" OR artist:\"Artist 12\") AND duration < 4:00", track -> (genres[track] == 1 || artists[track] == 12) && durations[track] < 240),
+                new Case("duration >= 10:00", track -> durations[track] >= 600),
+                new Case("duration = 300", track -> durations[track] == 300),
+                new Case("duration > 900 OR duration <= 30", track -> durations[track] > 900 || durations[track] <= 30),
+                new Case("folder:\"" + albumFolder + "\"", track -> artists[track] == 5 && albums[track] == 2),
+                new Case("NOT (genre:\"Genre 0\" OR genre:\"Genre 1\") AND duration <= 2:00", track -> genres[track] > 1 && durations[track] <= 120),
+                new Case("artist:\"Artist 3\" OR artist:\"Artist 4\" AND NOT genre:\"Genre 0\"", track -> artists[track] == 3 || (artists[track] == 4 && genres[track] != 0)),
+                new Case("NOT NOT genre:\"Genre 4\"", track -> genres[track] == 4),
+                new Case("genre:Missing OR artist:Missing", track -> false));
+
+        int before = mismatches;
+        for (Case check: cases)
+        {
+            BitSet expected = new BitSet(trackCount);
+            for (int track = 0; track < trackCount; track++)
+            {
+                if (check.expected().test(track))
+                    expected.set(track);
+            }
+
+            TrackQuery query = TrackQuery.compile(check.query());
+            if (query == null)
+            {
+                System.out.printf("Query does not compile: %s%n", check.query());
+                mismatches++;
+                continue;
+            }
+
+            compare(check.query(), query.evaluate(index), expected);
+        }
+
+        System.out.printf("Queries: %d tracks, %d queries, %s%n", trackCount, cases.size(),
+                (mismatches == before) ? "identical" : (mismatches - before) + " mismatches");
+    }
+
+    /*
+     * Track IDs, count and posting list of a set against the expected IDs
+     */
+    private static void compare(String label, TrackBitmap bitmap, BitSet expected)
+    {
+        int[] expectedIds = expected.stream().toArray();
+        int[] trackIds = bitmap.toArray();
+
+        boolean same = Arrays.equals(trackIds, expectedIds)
+                && bitmap.cardinality() == expectedIds.length
+                && bitmap.isEmpty() == (expectedIds.length == 0)
+                && Arrays.equals(bitmap.toIntList().toArray(), expectedIds);
+
+        if (!same)
+        {
+            int mismatch = Arrays.mismatch(trackIds, expectedIds);
+            System.out.printf("%s: %d IDs, expected %d, first difference at position %d%n", label, trackIds.length, expectedIds.length, mismatch);
+            mismatches++;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.apps.geo;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full scan of a synthetic library with walkFileTreeCall(), in pool and virtual mode.  The library is
+ * generated once per trial from a fixed seed, with 1% corrupt and 1% WMA files.  The catalog is
+ * cleared before each scan, so every file is parsed.
+ *
+ * @author geo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WalkBenchmark {
+
+    @Param({"20000"})
+    int fileCount;
+
+    @Param({"false", "true"})
+    boolean virtualScan;
+
+    Path libraryRoot;
+    PrintStream savedOut;
+
+    @Setup(Level.Trial)
+    public void createLibrary() throws IOException
+    {
+        libraryRoot = BenchFixtures.createTempDir();
+
+        LibraryGenerator.Options options = new LibraryGenerator.Options();
+        options.wmaPercent = 1;
+        LibraryGenerator.generate(libraryRoot, fileCount, options);
+
+        PlaylistBuilder.virtualScan = virtualScan;
+        PlaylistBuilder.scanLimit = virtualScan ? PlaylistBuilder.scanOpenFiles : PlaylistBuilder.scanThreads;
+
+        savedOut = System.out;
+        System.setOut(BenchFixtures.nullOut);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetScan()
+    {
+        BenchFixtures.resetScanState();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteLibrary() throws IOException
+    {
+        System.setOut(savedOut);
+        BenchFixtures.deleteTree(libraryRoot);
+    }
+
+    @Benchmark
+    public long walkTree()
+    {
+        PlaylistBuilder.walkFileTreeCall(libraryRoot.toString());
+        return PlaylistBuilder.fileProgress.get();
+    }
+}